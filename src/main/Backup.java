@@ -20,26 +20,42 @@ package main;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import model.AFileOrAFolder;
 import model.AFolder;
+import model.BackupPlan;
 import model.CommandLineArguments;
 import model.Constants;
+import model.FolderTimestampIndex;
+import model.PlannedCopy;
+import utilities.ChangeJournal;
+import utilities.ChunkStore;
+import utilities.ContentVerifier;
 import utilities.CreateFullBackup;
 import utilities.CreateSubFolder;
+import utilities.DedupIndex;
 import utilities.FileAndFolderUtilities;
+import utilities.FolderScanner;
+import utilities.IncrementalBackupPipeline;
 import utilities.ListBackupsInFolder;
 import utilities.Logger;
+import utilities.MoveDetector;
 import utilities.OtherUtilities;
+import utilities.OutOfCoreBackup;
+import utilities.PathContext;
+import utilities.PlanExecutor;
+import utilities.SnapshotLinker;
 import utilities.WriteToFile;
 
 public class Backup {
@@ -48,6 +64,11 @@ public class Backup {
 		
         CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
         
+        /**
+         * with deadline, no more files are copied after this timestamp, 0 if there's no deadline
+         */
+        long deadlineTimeStamp = (commandLineArguments.deadline > 0) ? System.currentTimeMillis() + commandLineArguments.deadline * 60000L : 0;
+        
 		/**
 		 * where to find the source files
 		 */
@@ -77,6 +98,9 @@ public class Backup {
     	} else if (mostRecentBackupPath != null && !commandLineArguments.fullBackup) {
     		Logger.log("Latest backup = " + mostRecentBackupPath.toString() + ". Only the new or modified files and folders since this latest backup will be copied.");
     	}
+    	if (commandLineArguments.subfolderToBackup.length() > 0) {
+    		Logger.log("Only folder " + commandLineArguments.subfolderToBackup + " is read, the other folders are taken from the latest backup.");
+    	}
 
 
         // create backupfoldername for the backup, this folder will be created within destination folder
@@ -97,90 +121,221 @@ public class Backup {
         /**
          * where to write the backup, this includes the backupfoldername, like '2023-12-06 18;24;41 (Full)' or '2023-12-28 17;07;13 (Incremental)'
          */
-        Path destinationFolderPathSubFolder = CreateSubFolder.createSubFolder(commandLineArguments.destination, backupfoldername);
+        Path destinationFolderPathSubFolder = null;
+        
+        // with planonly nothing is copied, so no backup folder is needed
+        if (commandLineArguments.planOnly) {
+        	destinationFolderPathSubFolder = destinationFolderPath.resolve(backupfoldername);
+        	Logger.log("Only the plan is created, nothing will be copied");
+        } else {
+        	destinationFolderPathSubFolder = CreateSubFolder.createSubFolder(commandLineArguments.destination, backupfoldername);
+        	Logger.log("New backup folder created: " + backupfoldername);
+        }
+        
+        // with maxheapforcatalog, the source and the previous backup are never completely in memory
+        if (commandLineArguments.maxHeapForCatalog > 0) {
+        	OutOfCoreBackup.run(sourceFolderPath, destinationFolderPath, destinationFolderPathSubFolder, mostRecentBackupPath, backupfoldername, commandLineArguments);
+        	Logger.log("Backup finished");
+        	return;
+        }
         
-        Logger.log("New backup folder created: " + backupfoldername);
         Logger.log("Reading all files and folders in the source and building the folder structure");// in other words create an instance of AFolder
 
     	// first we make a list of files and folder in the sourceFolderPath,
         // for each file or folder we create an instance of AFileOrAFolder
-        // Create a DirectoryStream to iterate over the contents of the sourceFolderPath
         // we create an instance of AFolder to hold the list of files and folders in the source
         //    although we don't really need the source folder
         //    this is is done because otherwise the json deserialisation doesn't work
-        AFolder listOfFilesAndFoldersInSourceFolder = new AFolder(sourceFolderPath.toString(), "");
+        AFolder listOfFilesAndFoldersInSourceFolder = null;
+        
+        // contents of folderlist.json of the previous backup. In case of incremental backup with usefolderindex, it's parsed before reading the source
+        // because folders that didn't change are taken from there
+        AFileOrAFolder listOfFilesAndFoldersInPreviousBackupFolder = null;
+        
+        // last modified timestamps of the folders in the previous backup, null if all folders need to be read
+        FolderTimestampIndex previousFolderIndex = null;
         
-        try {
+        // last modified timestamps of the folders for this backup, null if usefolderindex is false
+        FolderTimestampIndex folderIndex = null;
+        
+        if (commandLineArguments.useFolderIndex) {
         	
-    		/**
-    		 * FOLLOWING CODE REPEATS IN FILEANDFOLDERUTILITIES.JAVA, function createAFileOrAFolder, If you're changing anything here, check if the same change is necessary in BACKUP.JAVA
-    		 */
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(sourceFolderPath)) {
-            	
-                directoryLoop: for (Path path : directoryStream) {
-                	
-                	if (!(Files.isDirectory(path))) {
-                		// actually here it should always be a directory, if it's not then it should be a file to exclude
-                		// because we always start with a directory
-                		// anyway let's check if the file is in the list of files to exclude, example .DS_Store
-                		if (commandLineArguments.excludedFiles.contains(path.getFileName().toString())) {
-                    		continue;
-                		}
-                		// check if the file is of format .849C9593-D756-4E56-8D6E-42412F2A707B seems a Microsoft hidden file
-                		if (OtherUtilities.fileNeedsToBeIgnored(path.getFileName().toString())) {
-                			continue;
-                		}
-                	} else {
-                		// check if folder is in excludedPaths
-                		for (String excludedPath : commandLineArguments.excludedPaths) {
-                			if (path.getFileName().toString().trim().equals(excludedPath.trim())) {
-                				Logger.log("      Excluding folder '" + excludedPath + "' because " + excludedPath + " is in the file excludedpathlist");
-                				continue directoryLoop;
-                			}
-                		}
-                		
-                	}
-                	
-                	if (Files.isDirectory(path)) {
-                		Logger.log("   Reading files in folder \"" + path.getFileName().toString() + "\"");
-                	}
-                	
-                	listOfFilesAndFoldersInSourceFolder.getFileOrFolderList().add(FileAndFolderUtilities.createAFileOrAFolder(path, backupfoldername, commandLineArguments.excludedFiles, commandLineArguments.excludedPaths, commandLineArguments.addpathlengthforallfolders));
-                	
-                }
-                
-            }
+        	folderIndex = new FolderTimestampIndex();
+        	
+        	if (!commandLineArguments.fullBackup) {
+        		
+        		previousFolderIndex = FileAndFolderUtilities.fromFolderindexDotJsonToFolderTimestampIndex(mostRecentBackupPath.resolve(Constants.FOLDERINDEX_FILENAME));
+        		
+        		if (previousFolderIndex == null) {
+        			Logger.log("No " + Constants.FOLDERINDEX_FILENAME + " found in the previous backup, all folders will be read");
+        		} else if (previousFolderIndex.getRunsSinceFullScan() + 1 >= commandLineArguments.fullScanEvery) {
+        			Logger.log("Last backup that read all folders was " + (previousFolderIndex.getRunsSinceFullScan() + 1) + " backups ago, all folders will be read");
+        			previousFolderIndex = null;
+        		} else {
+        			folderIndex.setRunsSinceFullScan(previousFolderIndex.getRunsSinceFullScan() + 1);
+                	Logger.log("Parsing the json file from previous backup " + mostRecentBackupPath.resolve("folderlist.json").toString()); 
+                    listOfFilesAndFoldersInPreviousBackupFolder = FileAndFolderUtilities.fromFolderlistDotJsonToAFileOrAFolder(mostRecentBackupPath.resolve("folderlist.json"));
+                    if (!(listOfFilesAndFoldersInPreviousBackupFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInPreviousBackupFolder is not an instance of AFolder");System.exit(1);}
+        		}
+        		
+        	}
+        	
+        }
+        
+        // paths that changed since the previous backup according to the watcher, null if all folders need to be read
+        Set<String> changedPaths = null;
+        
+        // the change journal has the changes of the complete source, they can't be marked as backed up if only one folder is read
+        boolean useChangeJournal = commandLineArguments.useChangeJournal;
+        if (useChangeJournal && commandLineArguments.subfolderToBackup.length() > 0) {
+        	Logger.log("The change journal is not used with subfoldertobackup, all folders in " + commandLineArguments.subfolderToBackup + " will be read");
+        	useChangeJournal = false;
+        }
+        if (useChangeJournal && commandLineArguments.planOnly) {
+        	Logger.log("The change journal is not used with planonly, all folders will be read");
+        	useChangeJournal = false;
+        }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            Logger.log("Exception in main, while creating list of folders");
-            Logger.log(e.toString());
-            System.exit(1);
+        if (useChangeJournal) {
+
+        	changedPaths = ChangeJournal.startBackup(destinationFolderPath, commandLineArguments.fullBackup ? null : mostRecentBackupPath.getFileName().toString(), backupfoldername);
+
+        	if (changedPaths != null && listOfFilesAndFoldersInPreviousBackupFolder == null) {
+            	Logger.log("Parsing the json file from previous backup " + mostRecentBackupPath.resolve("folderlist.json").toString());
+                listOfFilesAndFoldersInPreviousBackupFolder = FileAndFolderUtilities.fromFolderlistDotJsonToAFileOrAFolder(mostRecentBackupPath.resolve("folderlist.json"));
+                if (!(listOfFilesAndFoldersInPreviousBackupFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInPreviousBackupFolder is not an instance of AFolder");System.exit(1);}
+        	}
+
+        }
+        
+        // with pipeline, the source is read while comparing and copying, see further
+        boolean usePipeline = commandLineArguments.pipeline && !commandLineArguments.fullBackup && !commandLineArguments.planOnly && !commandLineArguments.detectMoves && !commandLineArguments.verifyContent;
+        
+        // in an incremental backup, folderlist.json of the previous backup is parsed in another thread while the source is read, the result is needed only after that
+        CompletableFuture<AFileOrAFolder> previousBackupFuture = null;
+        if (!commandLineArguments.fullBackup && listOfFilesAndFoldersInPreviousBackupFolder == null) {
+        	
+        	Path folderlistPath = mostRecentBackupPath.resolve("folderlist.json");
+        	Logger.log("Parsing the json file from previous backup " + folderlistPath.toString()); 
+        	
+        	previousBackupFuture = CompletableFuture.supplyAsync(() -> {
+        		long parseStartTimeStamp = System.currentTimeMillis();
+                // convert folderlist.json in most recent backup path to AFileOrAFolder
+        		AFileOrAFolder previousBackup = FileAndFolderUtilities.fromFolderlistDotJsonToAFileOrAFolder(folderlistPath);
+        		Logger.log("Parsing the json file from previous backup took " + (System.currentTimeMillis() - parseStartTimeStamp) + " ms");
+        		return previousBackup;
+        	});
+        	
+        }
+        
+        if (!usePipeline) {
+        	try {
+        		
+        		long scanStartTimeStamp = System.currentTimeMillis();
+        		
+        		listOfFilesAndFoldersInSourceFolder = FolderScanner.scan(sourceFolderPath, backupfoldername, commandLineArguments, (AFolder)listOfFilesAndFoldersInPreviousBackupFolder, previousFolderIndex, folderIndex, changedPaths, null);
+        		
+        		Logger.log("Reading the source took " + (System.currentTimeMillis() - scanStartTimeStamp) + " ms, using " + commandLineArguments.scanThreads + " thread(s)");
+        		
+        		// for testing, compare with a scan that reads all folders
+        		if (commandLineArguments.verifyFolderIndex && (previousFolderIndex != null || changedPaths != null)) {
+        			Logger.log("Reading all folders again to verify the result");
+        			int differences = FolderScanner.logDifferences(FolderScanner.scan(sourceFolderPath, backupfoldername, commandLineArguments), listOfFilesAndFoldersInSourceFolder, "");
+        			Logger.log("Found " + differences + " difference(s) between reading all folders and reusing the folders that did not change");
+        		}
+
+        	} catch (IOException e) {
+            	e.printStackTrace();
+            	Logger.log("Exception in main, while creating list of folders");
+            	Logger.log(e.toString());
+            	System.exit(1);
+        	}
         }
         
         //if option is F, then create full backup
         if (commandLineArguments.fullBackup) {
         	Logger.log("Starting full backup");
             CreateFullBackup.createFullBackup(listOfFilesAndFoldersInSourceFolder, sourceFolderPath, destinationFolderPathSubFolder, commandLineArguments);
+            writeFolderIndex(folderIndex, destinationFolderPathSubFolder);
+            if (useChangeJournal) {ChangeJournal.backupFinished(destinationFolderPath);}
             Logger.log("Backup finished");
            
         } else {
         	
-        	Logger.log("Parsing the json file from previous backup " + mostRecentBackupPath.resolve("folderlist.json").toString()); 
-        	Logger.log("   "); 
-            // convert folderlist.json in most recent backup path to AFileOrAFolder
-            AFileOrAFolder listOfFilesAndFoldersInPreviousBackupFolder = FileAndFolderUtilities.fromFolderlistDotJsonToAFileOrAFolder(mostRecentBackupPath.resolve("folderlist.json"));
+        	if (listOfFilesAndFoldersInPreviousBackupFolder == null) {
+        		long waitStartTimeStamp = System.currentTimeMillis();
+                listOfFilesAndFoldersInPreviousBackupFolder = previousBackupFuture.join();
+                Logger.log("Waited " + (System.currentTimeMillis() - waitStartTimeStamp) + " ms for the parsing of the previous backup");
+            	Logger.log("   "); 
+        	}
             
             Logger.log("Starting incremental backup");
             
-            // we know for sure that both listOfFilesAndFoldersInSourceFolder and listOfFilesAndFoldersInPreviousBackupFolder are instance of AFolder
-            // let's check anyway
-            if (!(listOfFilesAndFoldersInSourceFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInSourceFolder is not an instance of AFolder");System.exit(1);} 
-            if (!(listOfFilesAndFoldersInPreviousBackupFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInPreviousBackupFolder is not an instance of AFolder");System.exit(1);}
-            // set the name of the first folder to "", because this may be the original main folder name which we don't need
-            listOfFilesAndFoldersInSourceFolder.setName("");
-            listOfFilesAndFoldersInPreviousBackupFolder.setName("");
-            FileAndFolderUtilities.compareAndUpdate(listOfFilesAndFoldersInSourceFolder, listOfFilesAndFoldersInPreviousBackupFolder, sourceFolderPath, destinationFolderPathSubFolder, new ArrayList<String>(), backupfoldername, 1, commandLineArguments);
+            if (usePipeline) {
+            	
+                if (!(listOfFilesAndFoldersInPreviousBackupFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInPreviousBackupFolder is not an instance of AFolder");System.exit(1);}
+                listOfFilesAndFoldersInPreviousBackupFolder.setName("");
+                IncrementalBackupPipeline.run(sourceFolderPath, destinationFolderPathSubFolder, (AFolder)listOfFilesAndFoldersInPreviousBackupFolder, backupfoldername, commandLineArguments, previousFolderIndex, folderIndex, changedPaths);
+            	
+            } else {
+            
+            	// we know for sure that both listOfFilesAndFoldersInSourceFolder and listOfFilesAndFoldersInPreviousBackupFolder are instance of AFolder
+            	// let's check anyway
+            	if (!(listOfFilesAndFoldersInSourceFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInSourceFolder is not an instance of AFolder");System.exit(1);} 
+            	if (!(listOfFilesAndFoldersInPreviousBackupFolder instanceof AFolder)) {Logger.log("listOfFilesAndFoldersInPreviousBackupFolder is not an instance of AFolder");System.exit(1);}
+            	// set the name of the first folder to "", because this may be the original main folder name which we don't need
+            	listOfFilesAndFoldersInSourceFolder.setName("");
+            	listOfFilesAndFoldersInPreviousBackupFolder.setName("");
+            	
+            	// first compare and create the plan, then copy
+            	long planStartTimeStamp = System.currentTimeMillis();
+            	BackupPlan backupPlan = new BackupPlan(sourceFolderPath.toString(), destinationFolderPathSubFolder.toString());
+            	MoveDetector moveDetector = commandLineArguments.detectMoves ? new MoveDetector(destinationFolderPath, commandLineArguments) : null;
+            	ContentVerifier contentVerifier = commandLineArguments.verifyContent ? new ContentVerifier(destinationFolderPath, commandLineArguments) : null;
+            	FileAndFolderUtilities.compareAndUpdate(listOfFilesAndFoldersInSourceFolder, listOfFilesAndFoldersInPreviousBackupFolder, new PathContext(sourceFolderPath, destinationFolderPathSubFolder), backupfoldername, 1, commandLineArguments, backupPlan, moveDetector, contentVerifier);
+            	if (moveDetector != null) {
+            		moveDetector.addToPlan(backupPlan);
+            	}
+            	if (contentVerifier != null) {
+            		contentVerifier.addToPlan(backupPlan, backupfoldername);
+            	}
+            	Logger.log("Creating the plan took " + (System.currentTimeMillis() - planStartTimeStamp) + " ms");
+            	PlanExecutor.logTotals(backupPlan);
+            	
+            	if (commandLineArguments.planOnly) {
+            		OtherUtilities.doFolderNameMapping((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, commandLineArguments, destinationFolderPathSubFolder);
+            		writePlan(backupPlan, (AFolder)listOfFilesAndFoldersInPreviousBackupFolder, destinationFolderPath);
+            		Logger.log("Plan finished, nothing copied");
+            		return;
+            	}
+            	
+            	writePlan(backupPlan, null, destinationFolderPathSubFolder);
+            	List<PlannedCopy> notCopied = PlanExecutor.execute(backupPlan, commandLineArguments, deadlineTimeStamp);
+            	
+            	// folderlist.json keeps the previous version of the files that are not copied, the next backup copies them
+            	if (!notCopied.isEmpty()) {
+            		FileAndFolderUtilities.undoNotCopied((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, notCopied, backupPlan);
+            		keepNotCopiedForNextBackup(notCopied, folderIndex, useChangeJournal, destinationFolderPath);
+            	}
+            	
+            	// the hashes are only kept if the backup is done
+            	if (contentVerifier != null) {
+            		contentVerifier.writeHashCache();
+            	}
+            
+            }
+            
+    		// the chunks are added before the foldername mapping, they're found by the path the file would have in the backup folder
+    		if (commandLineArguments.chunkStore) {
+    			ChunkStore.getInstance().close();
+    			ChunkStore.getInstance().addChunkLists((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, destinationFolderPathSubFolder, backupfoldername);
+    		}
+    		
+    		// same for the files that are not copied because the same contents are already stored
+    		if (commandLineArguments.dedup) {
+    			DedupIndex.getInstance().close();
+    			DedupIndex.getInstance().applyDuplicates((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, destinationFolderPathSubFolder, backupfoldername);
+    		}
             
     		// do the foldername mapping
     		OtherUtilities.doFolderNameMapping((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, commandLineArguments, destinationFolderPath.resolve(backupfoldername));
@@ -190,6 +345,8 @@ public class Backup {
     			
     			Logger.log("Writing folderlist.json to " + destinationFolderPathSubFolder.toString());
     			
+    			FileAndFolderUtilities.calculateDigests((AFolder)listOfFilesAndFoldersInPreviousBackupFolder);
+    			
         		// write the json file to the destination folder
         		WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(listOfFilesAndFoldersInPreviousBackupFolder), destinationFolderPathSubFolder.toString() + File.separator + "folderlist.json");
             	
@@ -213,6 +370,20 @@ public class Backup {
     			System.exit(1);
             }
     		
+    		// the backup is complete with folderlist.json, the links only make the backup folder a complete tree
+    		if (commandLineArguments.hardLinks) {
+    			SnapshotLinker.link((AFolder)listOfFilesAndFoldersInPreviousBackupFolder, destinationFolderPath, backupfoldername);
+    		}
+    		
+    		// the folders that are not read with subfoldertobackup keep their timestamps of the previous backup
+    		if (folderIndex != null && commandLineArguments.subfolderToBackup.length() > 0) {
+    			addFoldersOutsideSubfolderToBackup(folderIndex, previousFolderIndex, mostRecentBackupPath, commandLineArguments.subfolderToBackup);
+    		}
+    		
+    		writeFolderIndex(folderIndex, destinationFolderPathSubFolder);
+    		
+    		if (useChangeJournal) {ChangeJournal.backupFinished(destinationFolderPath);}
+    		
     		Logger.log("Backup finished");
 
 
@@ -221,4 +392,118 @@ public class Backup {
 
 	}
 	
+	/**
+	 * adds the folders that are not in subfolderToBackup from the index of the previous backup to folderIndex<br>
+	 * Also the number of runs since the last full scan is taken over, because only subfolderToBackup was read
+	 * @param folderIndex the index of the new backup
+	 * @param previousFolderIndex the index of the previous backup, if null it's read from mostRecentBackupPath
+	 * @param mostRecentBackupPath the previous backup
+	 * @param subfolderToBackup the folder that was read
+	 */
+	private static void addFoldersOutsideSubfolderToBackup(FolderTimestampIndex folderIndex, FolderTimestampIndex previousFolderIndex, Path mostRecentBackupPath, String subfolderToBackup) {
+		
+		if (previousFolderIndex == null) {
+			previousFolderIndex = FileAndFolderUtilities.fromFolderindexDotJsonToFolderTimestampIndex(mostRecentBackupPath.resolve(Constants.FOLDERINDEX_FILENAME));
+			if (previousFolderIndex == null) {return;}
+		}
+		
+		folderIndex.setRunsSinceFullScan(previousFolderIndex.getRunsSinceFullScan() + 1);
+		
+		for (Map.Entry<String, long[]> folder : previousFolderIndex.getFolders().entrySet()) {
+			if (!folder.getKey().equals(subfolderToBackup) && !folder.getKey().startsWith(subfolderToBackup + "/")) {
+				folderIndex.getFolders().putIfAbsent(folder.getKey(), folder.getValue());
+			}
+		}
+		
+	}
+	
+	/**
+	 * makes sure the next backup reads the folders of the files that were not copied because the deadline was reached<br>
+	 * - with usefolderindex, the folders are removed from folderIndex<br>
+	 * - with usechangejournal, the paths are added to the journal that was started by this backup
+	 * @param notCopied the copies that were not done
+	 * @param folderIndex the index of the new backup, null if usefolderindex is false
+	 * @param useChangeJournal
+	 * @param destinationFolderPath folder where the backups are stored
+	 */
+	private static void keepNotCopiedForNextBackup(List<PlannedCopy> notCopied, FolderTimestampIndex folderIndex, boolean useChangeJournal, Path destinationFolderPath) {
+		
+		List<String> journalLines = new ArrayList<>();
+		
+		for (PlannedCopy plannedCopy : notCopied) {
+			
+			String relativePath = plannedCopy.getRelativePath().replace(File.separatorChar, '/');
+			
+			if (folderIndex != null) {
+				int lastSeparator = relativePath.lastIndexOf('/');
+				folderIndex.getFolders().remove(lastSeparator < 0 ? "" : relativePath.substring(0, lastSeparator));
+				if (plannedCopy.isFolder()) {
+					folderIndex.getFolders().remove(relativePath);
+				}
+			}
+			
+			journalLines.add(ChangeJournal.PATH_PREFIX + relativePath);
+			
+		}
+		
+		if (useChangeJournal) {
+			try {
+				ChangeJournal.append(destinationFolderPath, journalLines);
+			} catch (IOException e) {
+				Logger.log("Failed to add the files that are not copied to " + Constants.CHANGEJOURNAL_FILENAME + ", delete it to make sure the next backup reads all folders");
+				Logger.log(e.toString());
+			}
+		}
+		
+	}
+	
+	/**
+	 * writes plan.json
+	 * @param backupPlan
+	 * @param newBackup if not null, also written as plan-folderlist.json, used with planonly
+	 * @param folderPath where to write
+	 */
+	private static void writePlan(BackupPlan backupPlan, AFolder newBackup, Path folderPath) {
+		
+		try {
+			
+			Logger.log("Writing " + Constants.PLAN_FILENAME + " to " + folderPath.toString());
+			
+			WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(backupPlan), folderPath.toString() + File.separator + Constants.PLAN_FILENAME);
+			
+			if (newBackup != null) {
+				Logger.log("Writing " + Constants.PLAN_FOLDERLIST_FILENAME + " to " + folderPath.toString());
+				FileAndFolderUtilities.calculateDigests(newBackup);
+				WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(newBackup), folderPath.toString() + File.separator + Constants.PLAN_FOLDERLIST_FILENAME);
+			}
+			
+		} catch (IOException e) {
+        	Logger.log("Failed to write json file " + Constants.PLAN_FILENAME + " to  " + folderPath.toString());
+			System.exit(1);
+		}
+		
+	}
+	
+	/**
+	 * writes folderindex.json to the backup folder
+	 * @param folderIndex if null, nothing is written
+	 * @param destinationFolderPathSubFolder the backup folder, including the backupfoldername
+	 */
+	private static void writeFolderIndex(FolderTimestampIndex folderIndex, Path destinationFolderPathSubFolder) {
+		
+		if (folderIndex == null) {return;}
+		
+		try {
+			
+			Logger.log("Writing " + Constants.FOLDERINDEX_FILENAME + " to " + destinationFolderPathSubFolder.toString());
+			
+			WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(folderIndex), destinationFolderPathSubFolder.toString() + File.separator + Constants.FOLDERINDEX_FILENAME);
+			
+		} catch (IOException e) {
+        	Logger.log("Failed to write json file " + Constants.FOLDERINDEX_FILENAME + " to  " + destinationFolderPathSubFolder.toString());
+			System.exit(1);
+		}
+		
+	}
+	
 }
@@ -19,6 +19,7 @@
 package main;
 
 import model.CommandLineArguments;
+import utilities.CatalogGenerator;
 
 public class BackupMainClass {
 
@@ -44,6 +45,26 @@ public class BackupMainClass {
     		return;
     	}
     	
+    	if (commandLineArguments.compare) {
+    		Compare.compare();
+    		return;
+    	}
+    	
+    	if (commandLineArguments.calibrate) {
+    		Calibrate.calibrate();
+    		return;
+    	}
+    	
+    	if (commandLineArguments.generateCatalog) {
+    		CatalogGenerator.generate();
+    		return;
+    	}
+    	
+    	if (commandLineArguments.watch) {
+    		Watch.watch();
+    		return;
+    	}
+    	
     	if (commandLineArguments.backup) {
     		
     		Backup.backup();
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyCalibration;
+import utilities.ChunkedCopier;
+import utilities.CopyStrategy;
+import utilities.Logger;
+import utilities.OtherUtilities;
+import utilities.WriteToFile;
+
+/**
+ * measures how fast each CopyStrategy copies files from the source to the destination, per size class (see Constants.COPYCALIBRATION_SIZE_LIMITS), and writes the
+ * fastest per size class to copystrategy.json in the destination folder. Backups in that folder then use these strategies, see CopyStrategySelector<br>
+ * Files of the source are used, at most Constants.COPYCALIBRATION_BYTES_PER_SIZE_CLASS and Constants.COPYCALIBRATION_FILES_PER_SIZE_CLASS per size class. They're
+ * copied to a temporary folder in the destination, which is deleted afterwards.<br>
+ * Each copy is forced to disk within the measured time. Otherwise the writes of most strategies only go to the page cache, and DIRECT, which bypasses it, always loses.<br>
+ * Each strategy copies the files twice, the second time in the reverse order of the strategies, the fastest time counts. After the first copy the source files
+ * are usually in the cache, DIRECT still reads them from disk, so it's only chosen if it's faster even then.<br>
+ * With chunkthreads, the largest files are also copied in parts by ChunkedCopier, to compare with the copy by one thread. That's only logged, chunkthreads is
+ * always given as argument.
+ */
+public class Calibrate {
+
+	/**
+	 * the files of one size class
+	 */
+	private static class SizeClassFiles {
+
+		private final List<Path> files = new ArrayList<>();
+
+		private long bytes = 0;
+
+		private boolean isFull() {
+			return bytes >= Constants.COPYCALIBRATION_BYTES_PER_SIZE_CLASS || files.size() >= Constants.COPYCALIBRATION_FILES_PER_SIZE_CLASS;
+		}
+
+	}
+
+	public static void calibrate() {
+
+		CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+
+		Path sourceFolderPath = Paths.get(commandLineArguments.source);
+		Path destinationFolderPath = Paths.get(commandLineArguments.destination);
+		Path testFolderPath = destinationFolderPath.resolve(Constants.COPYCALIBRATION_FOLDERNAME);
+
+		long[] sizeLimits = Constants.COPYCALIBRATION_SIZE_LIMITS;
+
+		Logger.log("Looking for files in " + sourceFolderPath.toString() + " to measure the copy strategies");
+		List<SizeClassFiles> sizeClasses = findFiles(sourceFolderPath, sizeLimits, commandLineArguments);
+
+		CopyCalibration copyCalibration = new CopyCalibration(sourceFolderPath.toString(), OtherUtilities.dateToString(new Date(), Constants.OUTPUTDATEFORMAT_STRING));
+
+		try {
+
+			OtherUtilities.deleteFolder(testFolderPath);
+			Files.createDirectories(testFolderPath);
+
+			List<CopyStrategy> copyStrategies = new ArrayList<>(Arrays.asList(CopyStrategy.values()));
+			if (!CopyStrategy.isDirectSupported(testFolderPath)) {
+				Logger.log("The destination does not support direct I/O, " + CopyStrategy.DIRECT.getName() + " is not measured");
+				copyStrategies.remove(CopyStrategy.DIRECT);
+			}
+
+			for (int i = 0; i < sizeClasses.size(); i++) {
+
+				long maxSize = (i < sizeLimits.length) ? sizeLimits[i] : Long.MAX_VALUE;
+				String sizeClassText = (i < sizeLimits.length) ? "files smaller than " + (maxSize / 1024) + " KB" : "files of " + (sizeLimits[sizeLimits.length - 1] / 1024) + " KB or more";
+				SizeClassFiles sizeClassFiles = sizeClasses.get(i);
+
+				CopyCalibration.SizeClass sizeClass = new CopyCalibration.SizeClass(maxSize);
+				copyCalibration.getSizeClasses().add(sizeClass);
+
+				if (sizeClassFiles.files.isEmpty()) {
+					Logger.log(sizeClassText + ": none found in the source, " + CopyStrategy.FILESCOPY.getName() + " is used");
+					sizeClass.setStrategy(CopyStrategy.FILESCOPY.getName());
+					continue;
+				}
+
+				Logger.log(sizeClassText + ": copying " + sizeClassFiles.files.size() + " file(s), " + (sizeClassFiles.bytes / 1024 / 1024) + " MB, with each strategy");
+
+				Map<CopyStrategy, Long> fastestDurations = measure(sizeClassFiles.files, copyStrategies, testFolderPath);
+
+				CopyStrategy fastest = null;
+				for (Map.Entry<CopyStrategy, Long> duration : fastestDurations.entrySet()) {
+					double megabytesPerSecond = sizeClassFiles.bytes / 1024.0 / 1024.0 / (Math.max(1, duration.getValue()) / 1000.0);
+					sizeClass.getMegabytesPerSecond().put(duration.getKey().getName(), Math.round(megabytesPerSecond * 10) / 10.0);
+					Logger.log("   " + String.format("%-10s", duration.getKey().getName()) + duration.getValue() + " ms (" + String.format("%.1f", megabytesPerSecond) + " MB/s)");
+					if (fastest == null || duration.getValue() < fastestDurations.get(fastest)) {
+						fastest = duration.getKey();
+					}
+				}
+
+				sizeClass.setStrategy((fastest == null) ? CopyStrategy.FILESCOPY.getName() : fastest.getName());
+				Logger.log("   fastest: " + sizeClass.getStrategy());
+
+				if (i == sizeLimits.length && commandLineArguments.chunkThreads > 1) {
+					long duration = measureChunked(sizeClassFiles.files, commandLineArguments.chunkThreads, testFolderPath);
+					double megabytesPerSecond = sizeClassFiles.bytes / 1024.0 / 1024.0 / (Math.max(1, duration) / 1000.0);
+					String name = "chunked, " + commandLineArguments.chunkThreads + " threads";
+					sizeClass.getMegabytesPerSecond().put(name, Math.round(megabytesPerSecond * 10) / 10.0);
+					Logger.log("   " + name + ": " + duration + " ms (" + String.format("%.1f", megabytesPerSecond) + " MB/s)"
+							+ ((fastest != null && duration >= fastestDurations.get(fastest)) ? ", not faster than " + fastest.getName() + " with one thread, chunkthreads is not useful for this destination" : ""));
+				}
+
+			}
+
+			OtherUtilities.deleteFolder(testFolderPath);
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while measuring the copy strategies in " + testFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+		try {
+
+			Logger.log("Writing " + Constants.COPYCALIBRATION_FILENAME + " to " + destinationFolderPath.toString());
+			WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(copyCalibration), destinationFolderPath.toString() + File.separator + Constants.COPYCALIBRATION_FILENAME);
+
+		} catch (IOException e) {
+			Logger.log("Failed to write json file " + Constants.COPYCALIBRATION_FILENAME + " to  " + destinationFolderPath.toString());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * walks through the source until each size class has enough files, or all files are seen
+	 * @return per size class the files, the last one has the files of sizeLimits[sizeLimits.length - 1] or more
+	 */
+	private static List<SizeClassFiles> findFiles(Path sourceFolderPath, long[] sizeLimits, CommandLineArguments commandLineArguments) {
+
+		List<SizeClassFiles> sizeClasses = new ArrayList<>();
+		for (int i = 0; i <= sizeLimits.length; i++) {
+			sizeClasses.add(new SizeClassFiles());
+		}
+
+		try {
+
+			Files.walkFileTree(sourceFolderPath, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+
+					if (!attributes.isRegularFile() || commandLineArguments.exclusionMatcher.isExcludedFile(file.getFileName())) {
+						return FileVisitResult.CONTINUE;
+					}
+
+					int sizeClassIndex = 0;
+					while (sizeClassIndex < sizeLimits.length && attributes.size() >= sizeLimits[sizeClassIndex]) {
+						sizeClassIndex++;
+					}
+
+					SizeClassFiles sizeClass = sizeClasses.get(sizeClassIndex);
+					if (!sizeClass.isFull()) {
+						sizeClass.files.add(file);
+						sizeClass.bytes += attributes.size();
+					}
+
+					return sizeClasses.stream().allMatch(SizeClassFiles::isFull) ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					// files or folders that can't be read are not needed for the calibration
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while reading " + sourceFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+		return sizeClasses;
+
+	}
+
+	/**
+	 * copies files with each strategy, twice, and deletes the copies. Each copy is forced to disk before the time is taken
+	 * @return per strategy that didn't fail, the fastest duration in ms, in the order of copyStrategies
+	 */
+	private static Map<CopyStrategy, Long> measure(List<Path> files, List<CopyStrategy> copyStrategies, Path testFolderPath) throws IOException {
+
+		Map<CopyStrategy, Long> fastestDurations = new LinkedHashMap<>();
+		List<CopyStrategy> failedStrategies = new ArrayList<>();
+
+		List<CopyStrategy> order = new ArrayList<>(copyStrategies);
+
+		for (int round = 0; round < 2; round++) {
+
+			for (CopyStrategy copyStrategy : order) {
+
+				if (failedStrategies.contains(copyStrategy)) {continue;}
+
+				Path strategyFolderPath = testFolderPath.resolve(copyStrategy.getName());
+				Files.createDirectories(strategyFolderPath);
+
+				long startTimeStamp = System.currentTimeMillis();
+
+				try {
+					for (int i = 0; i < files.size(); i++) {
+						copyStrategy.copy(files.get(i), strategyFolderPath.resolve(Integer.toString(i)), false);
+						force(strategyFolderPath.resolve(Integer.toString(i)));
+					}
+				} catch (IOException e) {
+					Logger.log("   " + copyStrategy.getName() + " failed, it's not used: " + e.toString());
+					failedStrategies.add(copyStrategy);
+					fastestDurations.remove(copyStrategy);
+				}
+
+				long duration = System.currentTimeMillis() - startTimeStamp;
+
+				OtherUtilities.deleteFolder(strategyFolderPath);
+
+				if (!failedStrategies.contains(copyStrategy)) {
+					fastestDurations.merge(copyStrategy, duration, Math::min);
+				}
+
+			}
+
+			Collections.reverse(order);
+
+		}
+
+		// in the order of copyStrategies, for the log
+		Map<CopyStrategy, Long> orderedDurations = new LinkedHashMap<>();
+		for (CopyStrategy copyStrategy : copyStrategies) {
+			if (fastestDurations.containsKey(copyStrategy)) {
+				orderedDurations.put(copyStrategy, fastestDurations.get(copyStrategy));
+			}
+		}
+
+		return orderedDurations;
+
+	}
+
+	/**
+	 * copies files in parts with ChunkedCopier, twice, and deletes the copies. Each copy is forced to disk before the time is taken, as in measure
+	 * @return the fastest duration in ms
+	 */
+	private static long measureChunked(List<Path> files, int threads, Path testFolderPath) throws IOException {
+
+		Path chunkedFolderPath = testFolderPath.resolve("chunked");
+		long fastestDuration = Long.MAX_VALUE;
+
+		for (int round = 0; round < 2; round++) {
+
+			Files.createDirectories(chunkedFolderPath);
+
+			long startTimeStamp = System.currentTimeMillis();
+			for (int i = 0; i < files.size(); i++) {
+				ChunkedCopier.copy(files.get(i), chunkedFolderPath.resolve(Integer.toString(i)), threads, false);
+				force(chunkedFolderPath.resolve(Integer.toString(i)));
+			}
+			fastestDuration = Math.min(fastestDuration, System.currentTimeMillis() - startTimeStamp);
+
+			OtherUtilities.deleteFolder(chunkedFolderPath);
+
+		}
+
+		return fastestDuration;
+
+	}
+
+	/**
+	 * writes a copy from the cache to disk
+	 */
+	private static void force(Path path) throws IOException {
+		try (FileChannel channel = openForForce(path)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * opens path for writing, or for reading if that's not allowed. The copy has the permissions of the source, which may be read only
+	 */
+	private static FileChannel openForForce(Path path) throws IOException {
+		try {
+			return FileChannel.open(path, StandardOpenOption.WRITE);
+		} catch (AccessDeniedException e) {
+			return FileChannel.open(path, StandardOpenOption.READ);
+		}
+	}
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package main;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CommandLineArguments;
+import model.Constants;
+import utilities.FileAndFolderUtilities;
+import utilities.ListBackupsInFolder;
+import utilities.Logger;
+import utilities.OtherUtilities;
+import utilities.WriteToFile;
+
+/**
+ * compares two backups and writes the files and folders that were added, removed or modified to a csv file<br>
+ * Only folderlist.json of both backups is used. A folder with the same digest in both backups has the same contents, it's not compared further, see AFolder.digest
+ */
+public class Compare {
+
+	/**
+	 * seperator to use in the csv file
+	 */
+	private static final String SEPERATOR = ",";
+	
+	/**
+	 * the result of the comparison, the lines for the csv file and the counters to log
+	 */
+	private static class CompareResult {
+		
+		StringBuilder textToWrite = new StringBuilder();
+		
+		int numberOfAdded = 0;
+		
+		int numberOfRemoved = 0;
+		
+		int numberOfModified = 0;
+		
+		/**
+		 * number of files and folders that were compared
+		 */
+		long numberOfVisitedItems = 0;
+		
+		/**
+		 * number of folders that were not compared further because the digest is the same in both backups
+		 */
+		long numberOfSkippedFolders = 0;
+		
+	}
+	
+	public static void compare() {
+		
+		CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+		
+		/**
+		 * where to find the backup files, this is the backup folder path without the specific folder (ie without '2023-12-06 18;24;41 (Full)' or anything like that)
+		 */
+        Path backupFolderPath = Paths.get(commandLineArguments.destination);
+        
+        String compareToBackupFolderName = null;
+        String compareFromBackupFolderName = null;
+        try {
+        	compareToBackupFolderName = ListBackupsInFolder.getMostRecentBackup(backupFolderPath, commandLineArguments.compareToDate);
+        	if (compareToBackupFolderName != null) {
+        		if (commandLineArguments.compareFromDate == null) {
+        			// the backup before compareToBackupFolderName, first element is the most recent
+        			List<String> olderBackups = ListBackupsInFolder.getAllBackupFoldersAsStrings(backupFolderPath, compareToBackupFolderName);
+        			if (olderBackups.size() > 0) {
+        				compareFromBackupFolderName = olderBackups.get(0);
+        			}
+        		} else {
+        			compareFromBackupFolderName = ListBackupsInFolder.getMostRecentBackup(backupFolderPath, commandLineArguments.compareFromDate);
+        		}
+        	}
+        } catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in compare, while reading backup folder ");
+            Logger.log(e.toString());
+            System.exit(1);
+        }
+        
+        if (compareToBackupFolderName == null) {
+        	Logger.log("No backup found in " + backupFolderPath.toString() + " created before or at " + OtherUtilities.dateToString(commandLineArguments.compareToDate, Constants.OUTPUTDATEFORMAT_STRING));
+        	System.exit(1);
+        }
+        
+        if (compareFromBackupFolderName == null) {
+        	Logger.log("No backup found in " + backupFolderPath.toString() + " to compare " + compareToBackupFolderName + " with");
+        	System.exit(1);
+        }
+        
+        if (compareFromBackupFolderName.equals(compareToBackupFolderName)) {
+        	Logger.log("comparefrom and compareto give the same backup " + compareToBackupFolderName + ", nothing to compare");
+        	System.exit(1);
+        }
+        
+        Logger.log("Comparing backup " + compareFromBackupFolderName + " with backup " + compareToBackupFolderName);
+        
+        AFileOrAFolder compareFrom = parseFolderlist(backupFolderPath, compareFromBackupFolderName);
+        AFileOrAFolder compareTo = parseFolderlist(backupFolderPath, compareToBackupFolderName);
+        
+		CompareResult compareResult = new CompareResult();
+
+		// first add "sep=," this tells Excel that , is the seperator. ";" can't be the seperator because ";" is already used in the backup folder names
+		compareResult.textToWrite.append("sep=,\n");
+		compareResult.textToWrite.append("change" + SEPERATOR + "type" + SEPERATOR + "path" + SEPERATOR + "last modified in " + compareFromBackupFolderName + SEPERATOR + "last modified in " + compareToBackupFolderName + SEPERATOR + "number of files\n");
+		
+		compareFolders((AFolder)compareFrom, (AFolder)compareTo, "", compareResult);
+		
+		Logger.log("Compared " + compareResult.numberOfVisitedItems + " files and folders, " + compareResult.numberOfSkippedFolders + " unchanged folder(s) skipped");
+		Logger.log("Added : " + compareResult.numberOfAdded + ", removed : " + compareResult.numberOfRemoved + ", modified : " + compareResult.numberOfModified);
+		
+		// get path filename to write to
+		Path pathToWriteTo = Paths.get(commandLineArguments.writecompareto).resolve(OtherUtilities.createResultFilename(Paths.get(commandLineArguments.writecompareto), "compareresults"));
+		
+		try {
+			WriteToFile.writeToFile(compareResult.textToWrite.toString(), pathToWriteTo.toString());
+			Logger.log("Compare results written to " + pathToWriteTo.toString());
+		} catch (IOException e) {
+			e.printStackTrace();
+        	Logger.log("Failed to write compare results to  " + pathToWriteTo.toString());
+			System.exit(1);
+		}
+		
+	}
+	
+	private static AFileOrAFolder parseFolderlist(Path backupFolderPath, String backupFolderName) {
+		
+		Path pathWithJsonFile = backupFolderPath.resolve(backupFolderName).resolve("folderlist.json");
+		Logger.log("Parsing " + pathWithJsonFile.toString());
+		return FileAndFolderUtilities.fromFolderlistDotJsonToAFileOrAFolder(pathWithJsonFile);
+		
+	}
+	
+	/**
+	 * compares the contents of compareFrom and compareTo, both in CANONICAL_ORDER, in one pass<br>
+	 * Subfolders that exist in both are only compared if their digests differ, or if one of them has no digest
+	 * @param compareFrom the folder in the oldest backup
+	 * @param compareTo the same folder in the newest backup
+	 * @param path path of the folder, relative to the backup folder, "" for the main folder
+	 * @param compareResult
+	 */
+	private static void compareFolders(AFolder compareFrom, AFolder compareTo, String path, CompareResult compareResult) {
+		
+		List<AFileOrAFolder> fromList = compareFrom.getFileOrFolderList();
+		List<AFileOrAFolder> toList = compareTo.getFileOrFolderList();
+		
+		int fromIndex = 0;
+		int toIndex = 0;
+		
+		while (fromIndex < fromList.size() || toIndex < toList.size()) {
+			
+			AFileOrAFolder from = (fromIndex < fromList.size()) ? fromList.get(fromIndex) : null;
+			AFileOrAFolder to = (toIndex < toList.size()) ? toList.get(toIndex) : null;
+			
+			int comparison;
+			if (from == null) {
+				comparison = 1;
+			} else if (to == null) {
+				comparison = -1;
+			} else {
+				comparison = FileAndFolderUtilities.CANONICAL_ORDER.compare(from, to);
+			}
+			
+			compareResult.numberOfVisitedItems++;
+			
+			if (comparison < 0) {
+				
+				addLine(compareResult, "removed", from, path, (from instanceof AFile) ? (AFile)from : null, null);
+				compareResult.numberOfRemoved++;
+				fromIndex++;
+				
+			} else if (comparison > 0) {
+				
+				addLine(compareResult, "added", to, path, null, (to instanceof AFile) ? (AFile)to : null);
+				compareResult.numberOfAdded++;
+				toIndex++;
+				
+			} else {
+				
+				if (from instanceof AFile) {
+					
+					AFile fromFile = (AFile)from;
+					AFile toFile = (AFile)to;
+					if (fromFile.getts() != toFile.getts() || !fromFile.getPathToBackup().equals(toFile.getPathToBackup()) || !Objects.equals(fromFile.getStoredAt(), toFile.getStoredAt())) {
+						addLine(compareResult, "modified", to, path, fromFile, toFile);
+						compareResult.numberOfModified++;
+					}
+					
+				} else {
+					
+					String fromDigest = ((AFolder)from).getDigest();
+					if (fromDigest != null && fromDigest.equals(((AFolder)to).getDigest())) {
+						compareResult.numberOfSkippedFolders++;
+					} else {
+						compareFolders((AFolder)from, (AFolder)to, getPath(path, to), compareResult);
+					}
+					
+				}
+				
+				fromIndex++;
+				toIndex++;
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * adds a line to the csv file, for a folder with the number of files in it
+	 * @param compareResult
+	 * @param change "added", "removed" or "modified"
+	 * @param fileOrFolder the file or folder that changed
+	 * @param path path of the parent folder
+	 * @param fromFile if a file, the file in the oldest backup, else null
+	 * @param toFile if a file, the file in the newest backup, else null
+	 */
+	private static void addLine(CompareResult compareResult, String change, AFileOrAFolder fileOrFolder, String path, AFile fromFile, AFile toFile) {
+		
+		StringBuilder textToWrite = compareResult.textToWrite;
+		
+		textToWrite.append(change + SEPERATOR);
+		textToWrite.append(((fileOrFolder instanceof AFile) ? "file" : "folder") + SEPERATOR);
+		textToWrite.append(getPath(path, fileOrFolder) + SEPERATOR);
+		textToWrite.append(((fromFile != null) ? OtherUtilities.dateToString(new Date(fromFile.getts()), Constants.OUTPUTDATEFORMAT_STRING) : "") + SEPERATOR);
+		textToWrite.append(((toFile != null) ? OtherUtilities.dateToString(new Date(toFile.getts()), Constants.OUTPUTDATEFORMAT_STRING) : "") + SEPERATOR);
+		if (fileOrFolder instanceof AFolder) {
+			textToWrite.append(countFiles((AFolder)fileOrFolder));
+		}
+		textToWrite.append("\n");
+		
+	}
+	
+	private static String getPath(String path, AFileOrAFolder fileOrFolder) {
+		return (path.length() == 0) ? fileOrFolder.getName() : path + "/" + fileOrFolder.getName();
+	}
+	
+	/**
+	 * @return the number of files in folder, including the subfolders
+	 */
+	private static int countFiles(AFolder folder) {
+		
+		int numberOfFiles = 0;
+		for (AFileOrAFolder fileOrFolder : folder.getFileOrFolderList()) {
+			if (fileOrFolder instanceof AFile) {
+				numberOfFiles++;
+			} else {
+				numberOfFiles += countFiles((AFolder)fileOrFolder);
+			}
+		}
+		return numberOfFiles;
+		
+	}
+	
+}
@@ -28,6 +28,8 @@ import model.AFileOrAFolder;
 import model.AFolder;
 import model.CommandLineArguments;
 import model.Constants;
+import utilities.ChunkStore;
+import utilities.CopyStrategySelector;
 import utilities.FileAndFolderUtilities;
 import utilities.ListBackupsInFolder;
 import utilities.Logger;
@@ -144,9 +146,13 @@ public class Restore {
 		            System.exit(1);
 				}
     			
+    		} else if (((AFile)sourceItem).getChunks() != null) {
+    			
+    			restoreFromChunkStore((AFile)sourceItem, newDestinationFolder.resolve(sourceItem.getName()), commandLineArguments);
+    			
     		} else {
     			
-    			Path sourceToCopy = sourceBackupRootFolder.resolve(sourceItem.getPathToBackup()).resolve(subfolder).resolve(sourceItem.getName());
+    			Path sourceToCopy = sourceBackupRootFolder.resolve(sourceItem.getPathToBackup()).resolve(getPathInBackup((AFile)sourceItem, subfolder));
     			Path destination = newDestinationFolder.resolve(sourceItem.getName());
     			
     			try {
@@ -162,7 +168,7 @@ public class Restore {
 					} else {
 						Logger.log("      Found the missing file in backup \"" + olderBackup + "\"");
 						try {
-							sourceToCopy = sourceBackupRootFolder.resolve(olderBackup).resolve(subfolder).resolve(sourceItem.getName());
+							sourceToCopy = sourceBackupRootFolder.resolve(olderBackup).resolve(getPathInBackup((AFile)sourceItem, subfolder));
 							copyFile(sourceToCopy, destination, commandLineArguments);
 							Logger.log("      and successfully copied to restore folder");
 						} catch (FileAlreadyExistsException e2) {
@@ -190,13 +196,46 @@ public class Restore {
     	}
     }
     
+    /**
+     * writes a file that is stored in the chunk store to destination
+     */
+    private static void restoreFromChunkStore(AFile file, Path destination, CommandLineArguments commandLineArguments) {
+    	
+    	try {
+    		
+    		ChunkStore.getInstance().restore(file, destination, commandLineArguments.overwrite);
+    		
+    	} catch (FileAlreadyExistsException e) {
+			Logger.log("The file " + destination.toString() + " already exists in the destination folder");
+			Logger.log("If you want to restore with overwrite, add the optional argument --overwrite=true");
+			Logger.log("Restore interrupted");
+            System.exit(1);
+    	} catch (IOException e) {
+			Logger.log("Exception in restore, while restoring the file " + destination.toString() + " from the chunk store");
+            Logger.log(e.toString());
+            System.exit(1);
+    	}
+    	
+    }
+    
     private static void copyFile(Path source, Path dest, CommandLineArguments commandLineArguments) throws IOException {
-    	if (commandLineArguments.overwrite) {
-    		Files.copy(source, dest, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-    	} else {
-    		Files.copy(source, dest, StandardCopyOption.COPY_ATTRIBUTES);
+    	CopyStrategySelector.forRestore(commandLineArguments).copy(source, dest, -1, commandLineArguments.overwrite);
+    }
+    
+    /**
+     * where a file is stored within its backup folder, this is subfolder and the name of the file, except for a file that was moved in the source, see AFile.storedAt
+     * @param file
+     * @param subfolder the folder in folderlist.json that has the file
+     * @return path relative to the backup folder
+     */
+    private static Path getPathInBackup(AFile file, Path subfolder) {
+    	
+    	if (file.getStoredAt() != null) {
+    		return Paths.get(file.getStoredAt());
     	}
     	
+    	return subfolder.resolve(file.getName());
+    	
     }
     
     /**
@@ -215,7 +254,7 @@ public class Restore {
     			continue;
     		}
     		
-    		Path pathToSearch = sourceBackupRootFolder.resolve(olderBackup).resolve(subfolder).resolve(sourceItem.getName());
+    		Path pathToSearch = sourceBackupRootFolder.resolve(olderBackup).resolve(getPathInBackup(sourceItem, subfolder));
     		
     		if (Files.exists(pathToSearch)) {
     			return olderBackup;
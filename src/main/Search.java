@@ -19,7 +19,6 @@
 package main;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -165,7 +164,7 @@ public class Search {
         }
 		
 		// get path filename to write to
-		Path pathToWriteTo = Paths.get(commandLineArguments.writesearchto).resolve(createSearchResultFilename(Paths.get(commandLineArguments.writesearchto)));
+		Path pathToWriteTo = Paths.get(commandLineArguments.writesearchto).resolve(OtherUtilities.createResultFilename(Paths.get(commandLineArguments.writesearchto), "searchresults"));
 		
 		try {
 			WriteToFile.writeToFile(textToWrite, pathToWriteTo.toString());
@@ -258,31 +257,4 @@ public class Search {
 		
 	}
 	
-	/**
-	 * will check if 'searchresults.txt' exists in path, if it exists it tries with 'searchresults (1).txt' , 'searchresults (2).txt' ... until a not yet existing file is found<br>
-	 * if not existing filename is found, it is returned. Max up to 1000 attempts, if not found within 1000, it returns "searchresults.txt" 
-	 * @param path must be an existing folder 
-	 * @return the filename to use
-	 */
-	private static String createSearchResultFilename(Path path) {
-		
-		Path pathToCheck = path.resolve("searchresults.csv");
-		
-		// check if searchresults already exists, and if not,then this will be the file name
-		if (!Files.exists(pathToCheck)) {
-			return "searchresults.csv";
-		}
-		
-		for(int i = 1; i <= 1000; i++) {
-		    String newFileName = "searchresults (" + i + ").csv"; 
-		    pathToCheck = path.resolve(newFileName);
-		    if (!Files.exists(pathToCheck)) {
-				return newFileName;
-			}
-		}
-		
-		return "searchresults.csv";
-		
-	}
-	
 }
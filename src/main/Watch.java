@@ -0,0 +1,190 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package main;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import model.CommandLineArguments;
+import model.Constants;
+import utilities.ChangeJournal;
+import utilities.Logger;
+
+/**
+ * keeps running and writes the paths of all files and folders that change in the source to the change journal in the destination folder<br>
+ * See ChangeJournal. An incremental backup with usechangejournal=true then only reads the folders that have changes.
+ */
+public class Watch {
+
+	public static void watch() {
+
+		CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+
+		/**
+		 * where to find the source files
+		 */
+        Path sourceFolderPath = Paths.get(commandLineArguments.source);
+
+        /**
+         * main path for backup, the journal is written here
+         */
+        Path destinationFolderPath = Paths.get(commandLineArguments.destination);
+
+        try (FileChannel lockChannel = FileChannel.open(destinationFolderPath.resolve(Constants.CHANGEJOURNAL_LOCK_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        		WatchService watchService = FileSystems.getDefault().newWatchService()) {
+
+        	// the lock tells the backup that the watcher is running
+        	FileLock fileLock = ChangeJournal.tryLockWatcher(lockChannel);
+        	if (fileLock == null) {
+        		Logger.log("Another watcher is already running for " + destinationFolderPath.toString());
+        		System.exit(1);
+        	}
+
+        	/**
+        	 * for each registered folder, the folder path
+        	 */
+        	Map<WatchKey, Path> watchKeys = new HashMap<>();
+
+        	Logger.log("Registering all folders in " + sourceFolderPath.toString());
+        	registerFolders(sourceFolderPath, sourceFolderPath, watchService, watchKeys, commandLineArguments);
+        	Logger.log("Watching " + watchKeys.size() + " folders, changes are written to " + destinationFolderPath.resolve(Constants.CHANGEJOURNAL_FILENAME).toString());
+
+        	// changes that happened before now are not known, the next backup must read all folders
+        	ChangeJournal.append(lockChannel, destinationFolderPath, Arrays.asList(ChangeJournal.RESCAN));
+
+        	while (true) {
+
+        		WatchKey watchKey = watchService.take();
+
+        		// collect all events that are available now, and write them at once
+        		List<String> lines = new ArrayList<>();
+
+        		while (watchKey != null) {
+        			processEvents(watchKey, sourceFolderPath, watchService, watchKeys, lines, commandLineArguments);
+        			watchKey = watchService.poll();
+        		}
+
+        		ChangeJournal.append(lockChannel, destinationFolderPath, lines);
+
+        	}
+
+        } catch (IOException e) {
+        	e.printStackTrace();
+        	Logger.log("Exception in watch");
+            Logger.log(e.toString());
+            System.exit(1);
+        } catch (InterruptedException e) {
+        	Logger.log("Watch interrupted");
+		}
+
+	}
+
+	/**
+	 * adds a line for each event of watchKey to lines, and registers new folders
+	 */
+	private static void processEvents(WatchKey watchKey, Path sourceFolderPath, WatchService watchService, Map<WatchKey, Path> watchKeys, List<String> lines, CommandLineArguments commandLineArguments) throws IOException {
+
+		Path folderPath = watchKeys.get(watchKey);
+
+		for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
+
+			if (watchEvent.kind() == OVERFLOW) {
+				Logger.log("Events were lost, the next backup will read all folders");
+				lines.add(ChangeJournal.OVERFLOW);
+				continue;
+			}
+
+			if (folderPath == null) {continue;}
+
+			Path path = folderPath.resolve((Path)watchEvent.context());
+
+			String journalPath = ChangeJournal.toJournalPath(sourceFolderPath.relativize(path));
+
+			lines.add(ChangeJournal.PATH_PREFIX + journalPath);
+
+			// a new folder must be watched too. It may be a folder that was deleted and created again, or moved in under the same name,
+			// so the next backup must read it and all its subfolders, not only the folder itself
+			if (watchEvent.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				lines.add(ChangeJournal.SUBTREE_PREFIX + journalPath);
+				registerFolders(path, sourceFolderPath, watchService, watchKeys, commandLineArguments);
+			}
+
+		}
+
+		// if the folder does not exist anymore, reset returns false
+		if (!watchKey.reset()) {
+			watchKeys.remove(watchKey);
+		}
+
+	}
+
+	/**
+	 * registers folderPath and all its subfolders, except excluded folders
+	 */
+	private static void registerFolders(Path folderPath, Path sourceFolderPath, WatchService watchService, Map<WatchKey, Path> watchKeys, CommandLineArguments commandLineArguments) throws IOException {
+
+		Files.walkFileTree(folderPath, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+
+				if (!dir.equals(sourceFolderPath) && commandLineArguments.exclusionMatcher.isExcludedFolder(sourceFolderPath.relativize(dir), dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+
+				watchKeys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+
+				return FileVisitResult.CONTINUE;
+
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				// a folder that is removed while registering, will be seen as a change in its parent
+				return FileVisitResult.CONTINUE;
+			}
+
+		});
+
+	}
+
+}
@@ -18,6 +18,11 @@
  */
 package model;
 
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 //AFileOrAFolder class
 public class AFile extends AFileOrAFolder {
 
@@ -26,6 +31,28 @@ public class AFile extends AFileOrAFolder {
 	 */
 	private long ts;
 	
+	/**
+	 * where the file is stored within the backup folder pathToBackup, if that's not the same path as in folderlist.json, null otherwise<br>
+	 * This is the case for a file that was moved or renamed in the source, the copy that was made before the move is used, see MoveDetector.<br>
+	 * It's a path relative to the backup folder, with '/' as separator, and with the foldername mapping applied, ie the path as it is on disk in the backup.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String storedAt = null;
+	
+	/**
+	 * size of the file in the source, as read by FolderScanner, -1 if not known<br>
+	 * Only used to create the BackupPlan, it's not stored in folderlist.json
+	 */
+	@JsonIgnore
+	private long size = -1;
+	
+	/**
+	 * for a file in the chunk store, the hashes of its chunks in the order of the file, see ChunkStore. An empty list for an empty file<br>
+	 * null if the file is stored as a file in the backup folder pathToBackup
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private List<String> chunks = null;
+	
 	/**
 	 * creates a file with lastmodifedTimeStamp (ts)
 	 * @param name 
@@ -64,4 +91,48 @@ public class AFile extends AFileOrAFolder {
 		this.ts = ts;
 	}
 
+	/**
+	 * @return the path within the backup folder pathToBackup where the file is stored, null if it's stored at the same path as in folderlist.json
+	 */
+	public String getStoredAt() {
+		return storedAt;
+	}
+
+	/**
+	 * @param storedAt the path within the backup folder pathToBackup where the file is stored, null if it's stored at the same path as in folderlist.json
+	 */
+	public void setStoredAt(String storedAt) {
+		this.storedAt = storedAt;
+	}
+
+	/**
+	 * @return the hashes of the chunks of the file in the chunk store, null if it's stored as a file
+	 */
+	public List<String> getChunks() {
+		return chunks;
+	}
+
+	/**
+	 * @param chunks the hashes of the chunks of the file in the chunk store, null if it's stored as a file
+	 */
+	public void setChunks(List<String> chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * @return the size of the file in the source, -1 if not known
+	 */
+	@JsonIgnore
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param size the size of the file in the source
+	 */
+	@JsonIgnore
+	public void setSize(long size) {
+		this.size = size;
+	}
+
 }
\ No newline at end of file
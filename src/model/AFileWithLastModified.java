@@ -18,6 +18,8 @@
  */
 package model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class AFileWithLastModified extends AFileOrAFolderForFullPath {
 
 	/**
@@ -36,6 +38,12 @@ public class AFileWithLastModified extends AFileOrAFolderForFullPath {
 	 */
 	private String pathToBackup;
 
+	/**
+	 * where the file is stored within pathToBackup, if it's not the same path as in this file, see AFile
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String storedAt = null;
+
 	public AFileWithLastModified(String name, String pathToBackup) {
 		
 		this.name = name; 
@@ -66,4 +74,12 @@ public class AFileWithLastModified extends AFileOrAFolderForFullPath {
 		this.pathToBackup = pathToBackup;
 	}
 
-}
+	public String getStoredAt() {
+		return storedAt;
+	}
+
+	public void setStoredAt(String storedAt) {
+		this.storedAt = storedAt;
+	}
+
+}
\ No newline at end of file
@@ -22,6 +22,8 @@ import java.util.List;
 
 import java.util.ArrayList;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 //AFileOrAFolder class
 public class AFolder extends AFileOrAFolder {
 
@@ -30,6 +32,13 @@ public class AFolder extends AFileOrAFolder {
 	 */
 	private List<AFileOrAFolder> fileOrFolderList;
 	
+	/**
+	 * digest of the contents of the folder, calculated when folderlist.json is written, see FileAndFolderUtilities.calculateDigests<br>
+	 * Two folders with the same digest have the same files and subfolders, with the same timestamps and the same pathToBackup. null in folderlist.json of older versions
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String digest = null;
+	
 	/**
 	 * created to allow json deserialisation
 	 */
@@ -59,5 +68,13 @@ public class AFolder extends AFileOrAFolder {
     public void addFileOrFolder(AFileOrAFolder fileOrFolder) {
         fileOrFolderList.add(fileOrFolder);
     }
+
+	public String getDigest() {
+		return digest;
+	}
+
+	public void setDigest(String digest) {
+		this.digest = digest;
+	}
     
 }
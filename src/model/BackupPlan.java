@@ -0,0 +1,256 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * everything an incremental backup needs to copy, as found by comparing the source with the previous backup<br>
+ * The comparison only creates the plan, the copying is done afterwards by PlanExecutor. The plan is stored as plan.json in the backup folder,
+ * with planonly it's stored in the destination folder without copying anything.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class BackupPlan {
+
+	/**
+	 * the folder to backup
+	 */
+	private String source;
+
+	/**
+	 * the folder of the new backup, including the backup foldername
+	 */
+	private String backupFolder;
+
+	/**
+	 * number of new or modified files, not counting the files in new folders
+	 */
+	private long numberOfFiles = 0;
+
+	/**
+	 * total size of the new or modified files, not counting the files in new folders
+	 */
+	private long numberOfBytes = 0;
+
+	/**
+	 * number of new folders, not counting the subfolders in new folders
+	 */
+	private long numberOfNewFolders = 0;
+
+	/**
+	 * number of files in the new folders
+	 */
+	private long numberOfFilesInNewFolders = 0;
+
+	/**
+	 * total size of the files in the new folders
+	 */
+	private long numberOfBytesInNewFolders = 0;
+
+	/**
+	 * number of new files that were moved or renamed in the source, they are not copied, see MoveDetector
+	 */
+	private long numberOfMovedFiles = 0;
+
+	/**
+	 * total size of the moved files
+	 */
+	private long numberOfBytesInMovedFiles = 0;
+
+	private List<PlannedCopy> copies = new ArrayList<>();
+
+	/**
+	 * per modified file, with the relative path as key, the file as it was in the previous backup. Used with deadline, if the file is not copied, see PlanExecutor<br>
+	 * Not stored in plan.json
+	 */
+	@JsonIgnore
+	private Map<String, AFile> previousVersions = new HashMap<>();
+
+	/**
+	 * created to allow json deserialisation
+	 */
+	public BackupPlan() {
+	}
+
+	/**
+	 * @param source the folder to backup
+	 * @param backupFolder the folder of the new backup, including the backup foldername
+	 */
+	public BackupPlan(String source, String backupFolder) {
+		this.source = source;
+		this.backupFolder = backupFolder;
+	}
+
+	/**
+	 * adds a new or modified file
+	 * @param relativePath path relative to the source folder, with the platform separator
+	 * @param size size of the file in the source
+	 * @param ts last modified timestamp of the file in the source
+	 */
+	public void addFile(String relativePath, long size, long ts) {
+		copies.add(new PlannedCopy(relativePath, false, size, ts));
+		numberOfFiles++;
+		numberOfBytes += size;
+	}
+
+	/**
+	 * keeps the file as it is in the previous backup, before it's updated to the new version. Call this only for a modified file, not for a new file
+	 * @param relativePath path relative to the source folder, with the platform separator, the same as in addFile
+	 * @param previousFile the file in the previous backup, the values are copied, so previousFile can be updated afterwards
+	 */
+	public void addPreviousVersion(String relativePath, AFile previousFile) {
+		AFile previousVersion = new AFile(previousFile.getName(), previousFile.getts(), previousFile.getPathToBackup());
+		previousVersion.setStoredAt(previousFile.getStoredAt());
+		previousVersion.setChunks(previousFile.getChunks());
+		previousVersions.put(relativePath, previousVersion);
+	}
+
+	/**
+	 * @param relativePath path relative to the source folder, with the platform separator
+	 * @return the file as it was in the previous backup, null if it's a new file
+	 */
+	public AFile getPreviousVersion(String relativePath) {
+		return previousVersions.get(relativePath);
+	}
+
+	/**
+	 * adds a new folder, the files and subfolders in it are added with addFileInNewFolder and addFolderInNewFolder
+	 * @param relativePath path relative to the source folder, with the platform separator
+	 */
+	public void addFolder(String relativePath) {
+		copies.add(new PlannedCopy(relativePath, true, 0, 0));
+		numberOfNewFolders++;
+	}
+
+	/**
+	 * adds a subfolder of a new folder
+	 * @param relativePath path relative to the source folder, with the platform separator
+	 */
+	public void addFolderInNewFolder(String relativePath) {
+		copies.add(new PlannedCopy(relativePath, true, 0, 0));
+	}
+
+	/**
+	 * adds a file in a new folder or in one of its subfolders
+	 * @param relativePath path relative to the source folder, with the platform separator
+	 * @param size size of the file in the source
+	 * @param ts last modified timestamp of the file in the source
+	 */
+	public void addFileInNewFolder(String relativePath, long size, long ts) {
+		copies.add(new PlannedCopy(relativePath, false, size, ts));
+		numberOfFilesInNewFolders++;
+		numberOfBytesInNewFolders += size;
+	}
+
+	/**
+	 * counts a new file that is not copied because it was moved or renamed, the copy in an earlier backup is used
+	 * @param size size of the file
+	 */
+	public void addMovedFile(long size) {
+		numberOfMovedFiles++;
+		numberOfBytesInMovedFiles += size;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getBackupFolder() {
+		return backupFolder;
+	}
+
+	public void setBackupFolder(String backupFolder) {
+		this.backupFolder = backupFolder;
+	}
+
+	public long getNumberOfFiles() {
+		return numberOfFiles;
+	}
+
+	public void setNumberOfFiles(long numberOfFiles) {
+		this.numberOfFiles = numberOfFiles;
+	}
+
+	public long getNumberOfBytes() {
+		return numberOfBytes;
+	}
+
+	public void setNumberOfBytes(long numberOfBytes) {
+		this.numberOfBytes = numberOfBytes;
+	}
+
+	public long getNumberOfNewFolders() {
+		return numberOfNewFolders;
+	}
+
+	public void setNumberOfNewFolders(long numberOfNewFolders) {
+		this.numberOfNewFolders = numberOfNewFolders;
+	}
+
+	public long getNumberOfFilesInNewFolders() {
+		return numberOfFilesInNewFolders;
+	}
+
+	public void setNumberOfFilesInNewFolders(long numberOfFilesInNewFolders) {
+		this.numberOfFilesInNewFolders = numberOfFilesInNewFolders;
+	}
+
+	public long getNumberOfBytesInNewFolders() {
+		return numberOfBytesInNewFolders;
+	}
+
+	public void setNumberOfBytesInNewFolders(long numberOfBytesInNewFolders) {
+		this.numberOfBytesInNewFolders = numberOfBytesInNewFolders;
+	}
+
+	public long getNumberOfMovedFiles() {
+		return numberOfMovedFiles;
+	}
+
+	public void setNumberOfMovedFiles(long numberOfMovedFiles) {
+		this.numberOfMovedFiles = numberOfMovedFiles;
+	}
+
+	public long getNumberOfBytesInMovedFiles() {
+		return numberOfBytesInMovedFiles;
+	}
+
+	public void setNumberOfBytesInMovedFiles(long numberOfBytesInMovedFiles) {
+		this.numberOfBytesInMovedFiles = numberOfBytesInMovedFiles;
+	}
+
+	public List<PlannedCopy> getCopies() {
+		return copies;
+	}
+
+	public void setCopies(List<PlannedCopy> copies) {
+		this.copies = copies;
+	}
+
+}
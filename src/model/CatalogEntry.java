@@ -0,0 +1,165 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * one file or folder of folderlist.json, with its path relative to the backup folder, as used when the catalog doesn't fit in memory, see OutOfCoreBackup<br>
+ * A catalog is then a list of entries in PATH_ORDER instead of a tree of AFileOrAFolder
+ */
+public class CatalogEntry {
+
+	/**
+	 * order of the entries: each folder is followed by its contents, and the contents of a folder are in FileAndFolderUtilities.CANONICAL_ORDER<br>
+	 * This is the order in which folderlist.json is written, so a list of entries in this order can be written as folderlist.json in one pass
+	 */
+	public static final Comparator<CatalogEntry> PATH_ORDER = CatalogEntry::compare;
+	
+	/**
+	 * path relative to the backup folder, with / as separator and with the foldername mapping applied, never ""
+	 */
+	private final String relativePath;
+	
+	private final boolean folder;
+	
+	/**
+	 * last modified timestamp, 0 for a folder
+	 */
+	private final long ts;
+	
+	/**
+	 * see AFileOrAFolder, null for a file or folder read from the source
+	 */
+	private final String pathToBackup;
+	
+	/**
+	 * see AFile, null if not set
+	 */
+	private final String storedAt;
+	
+	public CatalogEntry(String relativePath, boolean folder, long ts, String pathToBackup, String storedAt) {
+		this.relativePath = relativePath;
+		this.folder = folder;
+		this.ts = ts;
+		this.pathToBackup = pathToBackup;
+		this.storedAt = storedAt;
+	}
+
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	public boolean isFolder() {
+		return folder;
+	}
+
+	public long getts() {
+		return ts;
+	}
+
+	public String getPathToBackup() {
+		return pathToBackup;
+	}
+
+	public String getStoredAt() {
+		return storedAt;
+	}
+	
+	/**
+	 * @return the last part of relativePath
+	 */
+	public String getName() {
+		return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+	}
+	
+	/**
+	 * @return relativePath of the folder that has this entry, "" if it's in the backup folder itself
+	 */
+	public String getParentPath() {
+		int lastSeparator = relativePath.lastIndexOf('/');
+		return (lastSeparator < 0) ? "" : relativePath.substring(0, lastSeparator);
+	}
+	
+	/**
+	 * estimated number of bytes used on the heap, including the strings, pathToBackup not included because it's shared by many entries
+	 */
+	public long getEstimatedSize() {
+		return 96 + 2L * relativePath.length() + ((storedAt == null) ? 0 : 40 + 2L * storedAt.length());
+	}
+	
+	public void write(DataOutputStream outputStream) throws IOException {
+		outputStream.writeUTF(relativePath);
+		outputStream.writeBoolean(folder);
+		outputStream.writeLong(ts);
+		outputStream.writeUTF((pathToBackup == null) ? "" : pathToBackup);
+		outputStream.writeUTF((storedAt == null) ? "" : storedAt);
+	}
+	
+	/**
+	 * reads an entry written with write
+	 */
+	public static CatalogEntry read(DataInputStream inputStream) throws IOException {
+		String relativePath = inputStream.readUTF();
+		boolean folder = inputStream.readBoolean();
+		long ts = inputStream.readLong();
+		String pathToBackupRead = inputStream.readUTF();
+		String storedAt = inputStream.readUTF();
+		return new CatalogEntry(relativePath, folder, ts, pathToBackupRead.length() == 0 ? null : pathToBackupRead, storedAt.length() == 0 ? null : storedAt);
+	}
+	
+	/**
+	 * compares the paths without splitting them in parts. Only the part with the first character that differs is looked at: a file comes before a folder, then the names are compared
+	 */
+	private static int compare(CatalogEntry entry1, CatalogEntry entry2) {
+		
+		String path1 = entry1.relativePath;
+		String path2 = entry2.relativePath;
+		
+		// find the first character that differs
+		int length = Math.min(path1.length(), path2.length());
+		int index = 0;
+		while (index < length && path1.charAt(index) == path2.charAt(index)) {
+			index++;
+		}
+		
+		// a part is a folder if it's followed by more parts, or if it's the last part of a folder entry
+		boolean isFolder1 = path1.indexOf('/', index) >= 0 || entry1.folder;
+		boolean isFolder2 = path2.indexOf('/', index) >= 0 || entry2.folder;
+		
+		if (isFolder1 != isFolder2) {
+			return isFolder1 ? 1 : -1;
+		}
+		
+		// compare the names as String.compareTo would do, -1 if the name ends here
+		int character1 = (index < path1.length() && path1.charAt(index) != '/') ? path1.charAt(index) : -1;
+		int character2 = (index < path2.length() && path2.charAt(index) != '/') ? path2.charAt(index) : -1;
+		if (character1 != character2) {
+			return Integer.compare(character1, character2);
+		}
+		
+		// same part, one is a folder and the other is in it, the folder comes first
+		return Integer.compare(path1.length(), path2.length());
+		
+	}
+	
+}
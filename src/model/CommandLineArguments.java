@@ -19,6 +19,7 @@
 package model;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -36,6 +37,8 @@ import java.util.Set;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+import utilities.CopyStrategy;
+import utilities.ExclusionMatcher;
 import utilities.OtherUtilities;
 
 /**
@@ -71,7 +74,8 @@ public class CommandLineArguments {
          * F for full<br>
          * I for incremental<br>
          * 
-         * if restore : R
+         * if restore : R<br>
+         * G to check maxheapforcatalog with a generated catalog
          */
         type,
         
@@ -113,7 +117,8 @@ public class CommandLineArguments {
         foldernamemapping,
         
         /**
-         * paths to exclude, full paths that need to be exclude, starting from the main source folder, ie not start for instance with c:\\..
+         * paths to exclude, full paths that need to be exclude, starting from the main source folder, ie not start for instance with c:\\..<br>
+         * lines starting with glob: or regex: are patterns, matched against the path starting from the main source folder
          */
         excludedpathlist,
         
@@ -150,7 +155,139 @@ public class CommandLineArguments {
         /**
          * for testing purposes only, add the path length while converting a full directory a AFileOrAFolder, only if the folder contains new or modified files
          */
-        addpathlengthforfolderswithnewormodifiedcontent
+        addpathlengthforfolderswithnewormodifiedcontent,
+        
+        /**
+         * number of threads used to read the files and folders in the source, default 1
+         */
+        scanthreads,
+        
+        /**
+         * if true, the type and last modified timestamp of each file and folder in the source are read in one filesystem call
+         */
+        singlestatscan,
+        
+        /**
+         * if true, a file folderindex.json with the last modified timestamp of each folder is stored with each backup<br>
+         * an incremental backup then reuses the previous folderlist.json for folders that did not change, instead of reading them
+         */
+        usefolderindex,
+        
+        /**
+         * only with usefolderindex, number of backups after which all folders are read again, default 7
+         */
+        fullscanevery,
+        
+        /**
+         * for testing purposes only, with usefolderindex, read all folders after the scan and log the differences
+         */
+        verifyfolderindex,
+        
+        /**
+         * if true, an incremental backup uses the change journal written by the watcher (type W), and only reads the folders with changes
+         */
+        usechangejournal,
+        
+        /**
+         * if true, an incremental backup reads the source, compares it with the previous backup and copies the files at the same time
+         */
+        pipeline,
+        
+        /**
+         * if true, a backup copies the files in the order of their inode numbers, with read-ahead, to reduce seeking on spinning disks
+         */
+        hddmode,
+        
+        /**
+         * for incremental backup, the folder within source that needs to be backed up, only folders directly in the source folder are allowed<br>
+         * The other folders are taken unchanged from the previous backup
+         */
+        subfoldertobackup,
+        
+        /**
+         * if true, an incremental backup only compares the source with the previous backup and writes the plan, nothing is copied
+         */
+        planonly,
+        
+        /**
+         * if true, an incremental backup does not copy new files that were moved or renamed in the source, the copy in an earlier backup is used
+         */
+        detectmoves,
+        
+        /**
+         * if true, an incremental backup compares the contents of files with a new last modified timestamp with the copy in the backup, and copies only if the contents differ
+         */
+        verifycontent,
+        
+        /**
+         * number of threads used to calculate hashes with verifycontent, default 2
+         */
+        hashthreads,
+        
+        /**
+         * for compare, the backup to compare from is the most recent backup at or before this date. Default the backup before the backup to compare to
+         */
+        comparefrom,
+        
+        /**
+         * for compare, the backup to compare to is the most recent backup at or before this date. Default now
+         */
+        compareto,
+        
+        /**
+         * folder where the compare results should be written
+         */
+        writecompareto,
+        
+        /**
+         * if set, an incremental backup keeps the source and the previous backup in sorted runs on disk instead of in memory, this is the memory that may be used for them, example 512m
+         */
+        maxheapforcatalog,
+        
+        /**
+         * with type G, number of files in the generated catalog
+         */
+        generatefiles,
+        
+        /**
+         * number of minutes an incremental backup may copy, after that the backup stops and the files that are not yet copied are copied by the next backup
+         */
+        deadline,
+        
+        /**
+         * with deadline, the order in which the files are copied: newest, oldest, smallest, largest or plan. Default newest
+         */
+        copyorder,
+        
+        /**
+         * number of threads that copy the files, default 1
+         */
+        copythreads,
+        
+        /**
+         * how files are copied: auto, filescopy, transfer, buffered or direct, see CopyStrategy. Default auto
+         */
+        copystrategy,
+        
+        /**
+         * number of threads that copy one large file in parts, default 1
+         */
+        chunkthreads,
+        
+        /**
+         * if true, an incremental backup also gets a hard link to each file that is not copied, so the backup folder has all files
+         */
+        hardlinks,
+        
+        /**
+         * if true, files are split in chunks that are stored once in the chunk store, instead of copied to the backup folder
+         */
+        chunkstore,
+        
+        /**
+         * if true, a new or modified file is not copied if the same contents are already stored in a backup
+         */
+        dedup
         
     }
     
@@ -196,6 +333,106 @@ public class CommandLineArguments {
      */
     public boolean search = false;
     
+    /**
+     * the source will be watched for changes, which are written to the change journal, if true then backup value is ignored
+     */
+    public boolean watch = false;
+    
+    /**
+     * two backups will be compared, if true then backup value is ignored
+     */
+    public boolean compare = false;
+    
+    /**
+     * the copy strategies will be measured between source and destination, if true then backup value is ignored
+     */
+    public boolean calibrate = false;
+    
+    /**
+     * an incremental backup with maxheapforcatalog will be done with a generated catalog, to check the memory used, if true then backup value is ignored, see CatalogGenerator
+     */
+    public boolean generateCatalog = false;
+    
+    /**
+     * for compare, the backup to compare from is the most recent backup at or before this date<br>
+     * null means the backup before the backup to compare to
+     */
+    public Date compareFromDate = null;
+    
+    /**
+     * for compare, the backup to compare to is the most recent backup at or before this date
+     */
+    public Date compareToDate = new Date();
+    
+    /**
+     * folder to store compare results
+     */
+    public String writecompareto = null;
+    
+    /**
+     * number of bytes that an incremental backup may use to keep the source and the previous backup in memory, the rest is written to disk, see OutOfCoreBackup<br>
+     * 0 means everything is kept in memory
+     */
+    public long maxHeapForCatalog = 0;
+    
+    /**
+     * with type G, number of files in the generated catalog
+     */
+    public int generateFiles = Constants.CATALOGGENERATOR_DEFAULT_FILES;
+    
+    /**
+     * number of minutes after the start of the backup, after which no more files are copied, see PlanExecutor<br>
+     * 0 means no deadline
+     */
+    public int deadline = 0;
+    
+    /**
+     * with deadline, the order in which the files are copied, one of COPYORDER_NEWEST, COPYORDER_OLDEST, COPYORDER_SMALLEST, COPYORDER_LARGEST or COPYORDER_PLAN
+     */
+    public String copyOrder = COPYORDER_NEWEST;
+    
+    public static final String COPYORDER_NEWEST = "newest";
+    
+    public static final String COPYORDER_OLDEST = "oldest";
+    
+    public static final String COPYORDER_SMALLEST = "smallest";
+    
+    public static final String COPYORDER_LARGEST = "largest";
+    
+    public static final String COPYORDER_PLAN = "plan";
+    
+    public static final String COPYSTRATEGY_AUTO = "auto";
+    
+    /**
+     * number of threads that copy the files in a backup, see CopyStage
+     */
+    public int copyThreads = 1;
+    
+    /**
+     * the strategy to copy all files, null means auto: for a backup the strategies in copystrategy.json in the destination folder if it exists, see CopyStrategySelector
+     */
+    public CopyStrategy copyStrategy = null;
+    
+    /**
+     * number of threads that copy a file of Constants.CHUNKED_COPY_MIN_SIZE or more in parts, 1 means not in parts, see ChunkedCopier
+     */
+    public int chunkThreads = 1;
+    
+    /**
+     * if true, the files of an incremental backup that are stored in earlier backups are hard linked in the new backup folder, see SnapshotLinker
+     */
+    public boolean hardLinks = false;
+    
+    /**
+     * if true, a backup stores the files in the chunk store in the destination folder, see ChunkStore
+     */
+    public boolean chunkStore = false;
+    
+    /**
+     * if true, a backup doesn't copy a file that has the same contents as a file stored in a backup in the destination folder, see DedupIndex
+     */
+    public boolean dedup = false;
+    
     /**
      *  Folder where logfile should be written<br>
      *  can be null, in that case log to System.out
@@ -218,6 +455,11 @@ public class CommandLineArguments {
      */
     public List<String> excludedPaths = new ArrayList<>();
     
+    /**
+     * excludedFiles and excludedPaths compiled, use this to check if a file or folder needs to be excluded
+     */
+    public ExclusionMatcher exclusionMatcher = null;
+    
     /**
      * only for restore, Date for which restore needs to be done
      */
@@ -259,6 +501,75 @@ public class CommandLineArguments {
 	 * for testing only
 	 */
 	public boolean addpathlengthforfolderswithnewormodifiedcontent = false;
+	
+	/**
+	 * number of threads used to read the files and folders in the source<br>
+	 * The result is the same, no matter the number of threads
+	 */
+	public int scanThreads = 1;
+	
+	/**
+	 * if true, the type and last modified timestamp of each file and folder in the source are read in one filesystem call<br>
+	 * instead of Files.isDirectory + Files.getLastModifiedTime
+	 */
+	public boolean singleStatScan = false;
+	
+	/**
+	 * if true, folderindex.json is created and used to avoid reading folders that did not change
+	 */
+	public boolean useFolderIndex = false;
+	
+	/**
+	 * with useFolderIndex, number of backups after which all folders are read again
+	 */
+	public int fullScanEvery = 7;
+	
+	/**
+	 * for testing only
+	 */
+	public boolean verifyFolderIndex = false;
+	
+	/**
+	 * if true, an incremental backup only reads the folders with changes according to the change journal
+	 */
+	public boolean useChangeJournal = false;
+	
+	/**
+	 * if true, an incremental backup reads, compares and copies at the same time, see IncrementalBackupPipeline
+	 */
+	public boolean pipeline = false;
+	
+	/**
+	 * if true, a backup copies the files with SequentialCopier
+	 */
+	public boolean hddMode = false;
+	
+	/**
+	 * used in case of incremental backup, can be an empty string<br>
+	 * not null<br>
+	 * Specifies the folder within the source to backup, the other folders are taken from the previous backup
+	 */
+	public String subfolderToBackup = "";
+	
+	/**
+	 * if true, an incremental backup only creates the BackupPlan, see PlanExecutor
+	 */
+	public boolean planOnly = false;
+	
+	/**
+	 * if true, an incremental backup matches new files with removed files, see MoveDetector
+	 */
+	public boolean detectMoves = false;
+	
+	/**
+	 * if true, an incremental backup does not copy a file of which only the last modified timestamp changed, see ContentVerifier
+	 */
+	public boolean verifyContent = false;
+	
+	/**
+	 * number of threads used to calculate hashes with verifyContent
+	 */
+	public int hashThreads = 2;
 
     /**
      * text to search for, uses regex
@@ -306,6 +617,15 @@ public class CommandLineArguments {
     			backup = false;
     		} else if (getArgumentValue(ArgumentName.type).equalsIgnoreCase("S")) {
     			search = true;
+    		} else if (getArgumentValue(ArgumentName.type).equalsIgnoreCase("W")) {
+    			watch = true;
+    			backup = true;
+    		} else if (getArgumentValue(ArgumentName.type).equalsIgnoreCase("C")) {
+    			compare = true;
+    		} else if (getArgumentValue(ArgumentName.type).equalsIgnoreCase("T")) {
+    			calibrate = true;
+    		} else if (getArgumentValue(ArgumentName.type).equalsIgnoreCase("G")) {
+    			generateCatalog = true;
     		} else {
     			System.out.println("Invalid value for type " + getArgumentValue(ArgumentName.type));
         		giveMinimumArgumentsInfo();System.exit(1);
@@ -385,6 +705,26 @@ public class CommandLineArguments {
         	
     	}
     	
+    	writecompareto = getArgumentValue(ArgumentName.writecompareto);
+    	if (writecompareto == null && compare == true) {// it's compare, but writecompareto is not given
+    		System.out.println("writecompareto argument is missing, you must specify the writecompareto folder name if you want to compare backups");
+    		giveMinimumArgumentsInfo();System.exit(1);
+    	} else if (writecompareto != null ){
+        	// check if writecompareto folder exists
+        	Path folderPath = Paths.get(writecompareto);
+        	if (!(Files.exists(folderPath))) {
+        		System.out.println("folder " + writecompareto + " does not exist. Create it first or check the argument 'writecompareto'");
+        		giveMinimumArgumentsInfo();System.exit(1);
+        	}
+        	
+        	// check also that folderPath is a directory
+        	if (!Files.isDirectory(folderPath)){
+        		System.out.println(writecompareto + " seems to be a file, not a folder. Check the argument 'writecompareto'");
+        		giveMinimumArgumentsInfo();System.exit(1);
+        	}
+        	
+    	}
+    	
     	logfilefolder = getArgumentValue(ArgumentName.logfilefolder);
     	// if logfilefolderfile is present, then check if it's a directory
     	if (logfilefolder != null) {
@@ -445,6 +785,13 @@ public class CommandLineArguments {
             }
     	}
     	
+    	try {
+    		exclusionMatcher = new ExclusionMatcher(excludedFiles, excludedPaths);
+    	} catch (IllegalArgumentException e) {
+    		System.out.println("Invalid glob or regex in excludedfilelist or excludedpathlist : " + e.getMessage());
+    		giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
     	String overwriteAsString = getArgumentValue(ArgumentName.overwrite); 
     	if (overwriteAsString != null) {
     		if (overwriteAsString.equalsIgnoreCase("true")) {
@@ -503,6 +850,33 @@ public class CommandLineArguments {
     		}
     	}
 
+    	String compareFromDateAsString = getArgumentValue(ArgumentName.comparefrom);
+    	if (compareFromDateAsString != null) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(Constants.ARGUMENTDATEFORMAT_STRING);
+            try {
+    			compareFromDate = dateFormat.parse(compareFromDateAsString);
+    		} catch (ParseException e) {
+    			System.out.println("comparefrom seems to be a wrong format. Expected format = " + Constants.ARGUMENTDATEFORMAT_STRING);
+    			giveMinimumArgumentsInfo();System.exit(1);
+    		}
+    	}
+
+    	String compareToDateAsString = getArgumentValue(ArgumentName.compareto);
+    	if (compareToDateAsString != null) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(Constants.ARGUMENTDATEFORMAT_STRING);
+            try {
+    			compareToDate = dateFormat.parse(compareToDateAsString);
+    		} catch (ParseException e) {
+    			System.out.println("compareto seems to be a wrong format. Expected format = " + Constants.ARGUMENTDATEFORMAT_STRING);
+    			giveMinimumArgumentsInfo();System.exit(1);
+    		}
+    	}
+    	
+    	if (compareFromDate != null && compareFromDate.compareTo(compareToDate) > 0) {
+			System.out.println("comparefrom must be before compareto");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+
     	// if a restore is requested but the restoreDate is null, then stop
     	if (!backup && restoreDate == null) {
     		System.out.println("Type is restore but no restoredate is given. Add argument restoredate in format " + Constants.ARGUMENTDATEFORMAT_STRING);
@@ -523,9 +897,213 @@ public class CommandLineArguments {
     		}
     	}
     	
+    	String scanThreadsAsString = getArgumentValue(ArgumentName.scanthreads);
+    	if (scanThreadsAsString != null) {
+    		scanThreads = Integer.parseInt(scanThreadsAsString);
+    	}
+    	
+    	String singleStatScanAsString = getArgumentValue(ArgumentName.singlestatscan);
+    	if (singleStatScanAsString != null) {
+    		if (singleStatScanAsString.equalsIgnoreCase("true")) {
+    			singleStatScan = true;
+    		}
+    	}
+    	
+    	String useFolderIndexAsString = getArgumentValue(ArgumentName.usefolderindex);
+    	if (useFolderIndexAsString != null) {
+    		if (useFolderIndexAsString.equalsIgnoreCase("true")) {
+    			useFolderIndex = true;
+    		}
+    	}
+    	
+    	String fullScanEveryAsString = getArgumentValue(ArgumentName.fullscanevery);
+    	if (fullScanEveryAsString != null) {
+    		fullScanEvery = Integer.parseInt(fullScanEveryAsString);
+    	}
+    	
+    	String verifyFolderIndexAsString = getArgumentValue(ArgumentName.verifyfolderindex);
+    	if (verifyFolderIndexAsString != null) {
+    		if (verifyFolderIndexAsString.equalsIgnoreCase("true")) {
+    			verifyFolderIndex = true;
+    		}
+    	}
+    	
+    	String useChangeJournalAsString = getArgumentValue(ArgumentName.usechangejournal);
+    	if (useChangeJournalAsString != null) {
+    		if (useChangeJournalAsString.equalsIgnoreCase("true")) {
+    			useChangeJournal = true;
+    		}
+    	}
+    	
+    	String pipelineAsString = getArgumentValue(ArgumentName.pipeline);
+    	if (pipelineAsString != null) {
+    		if (pipelineAsString.equalsIgnoreCase("true")) {
+    			pipeline = true;
+    		}
+    	}
+    	
+    	String hddModeAsString = getArgumentValue(ArgumentName.hddmode);
+    	if (hddModeAsString != null) {
+    		if (hddModeAsString.equalsIgnoreCase("true")) {
+    			hddMode = true;
+    		}
+    	}
+    	
     	subfolderToRestore = getArgumentValue(ArgumentName.subfoldertorestore);
     	if (subfolderToRestore == null) {subfolderToRestore = "";}
     	
+    	subfolderToBackup = getArgumentValue(ArgumentName.subfoldertobackup);
+    	if (subfolderToBackup == null) {subfolderToBackup = "";}
+    	if (subfolderToBackup.length() > 0) {
+    		if (!backup || fullBackup) {
+    			System.out.println("subfoldertobackup can only be used with an incremental backup");
+    			giveMinimumArgumentsInfo();System.exit(1);
+    		}
+    		if (subfolderToBackup.contains("/") || subfolderToBackup.contains(File.separator) || !Files.isDirectory(Paths.get(source).resolve(subfolderToBackup))) {
+    			System.out.println("subfoldertobackup must be a folder directly in the source folder, " + subfolderToBackup + " is not a folder in " + source);
+    			giveMinimumArgumentsInfo();System.exit(1);
+    		}
+    	}
+    	
+    	String planOnlyAsString = getArgumentValue(ArgumentName.planonly);
+    	if (planOnlyAsString != null) {
+    		if (planOnlyAsString.equalsIgnoreCase("true")) {
+    			planOnly = true;
+    		}
+    	}
+    	if (planOnly && (!backup || fullBackup)) {
+			System.out.println("planonly can only be used with an incremental backup");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String detectMovesAsString = getArgumentValue(ArgumentName.detectmoves);
+    	if (detectMovesAsString != null) {
+    		if (detectMovesAsString.equalsIgnoreCase("true")) {
+    			detectMoves = true;
+    		}
+    	}
+    	if (detectMoves && (!backup || fullBackup)) {
+			System.out.println("detectmoves can only be used with an incremental backup");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String verifyContentAsString = getArgumentValue(ArgumentName.verifycontent);
+    	if (verifyContentAsString != null) {
+    		if (verifyContentAsString.equalsIgnoreCase("true")) {
+    			verifyContent = true;
+    		}
+    	}
+    	if (verifyContent && (!backup || fullBackup)) {
+			System.out.println("verifycontent can only be used with an incremental backup");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String hashThreadsAsString = getArgumentValue(ArgumentName.hashthreads);
+    	if (hashThreadsAsString != null) {
+    		hashThreads = Integer.parseInt(hashThreadsAsString);
+    	}
+    	
+    	String maxHeapForCatalogAsString = getArgumentValue(ArgumentName.maxheapforcatalog);
+    	if (maxHeapForCatalogAsString != null) {
+    		maxHeapForCatalog = parseSize(maxHeapForCatalogAsString);
+    	}
+    	if (maxHeapForCatalog > 0 && (!backup || fullBackup || pipeline || hddMode || planOnly || detectMoves || verifyContent || useFolderIndex || useChangeJournal || subfolderToBackup.length() > 0)) {
+			System.out.println("maxheapforcatalog can only be used with an incremental backup, without pipeline, hddmode, planonly, detectmoves, verifycontent, usefolderindex, usechangejournal and subfoldertobackup");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	if (generateCatalog && maxHeapForCatalog == 0) {
+			System.out.println("type G needs maxheapforcatalog");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	// the sorted runs don't have the chunks of the files, they would be lost
+    	if (maxHeapForCatalog > 0 && !generateCatalog && Files.exists(Paths.get(destination).resolve(Constants.CHUNKSTORE_FOLDERNAME))) {
+			System.out.println("maxheapforcatalog can't be used in a destination with a chunk store");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String generateFilesAsString = getArgumentValue(ArgumentName.generatefiles);
+    	if (generateFilesAsString != null) {
+    		generateFiles = Integer.parseInt(generateFilesAsString);
+    	}
+    	if (generateFilesAsString != null && !generateCatalog) {
+			System.out.println("generatefiles can only be used with type G");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String deadlineAsString = getArgumentValue(ArgumentName.deadline);
+    	if (deadlineAsString != null) {
+    		deadline = Integer.parseInt(deadlineAsString);
+    	}
+    	if (deadline > 0 && (!backup || fullBackup || pipeline || planOnly || maxHeapForCatalog > 0)) {
+			System.out.println("deadline can only be used with an incremental backup, without pipeline, planonly and maxheapforcatalog");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String copyOrderAsString = getArgumentValue(ArgumentName.copyorder);
+    	if (copyOrderAsString != null) {
+    		copyOrder = copyOrderAsString.toLowerCase();
+    		if (deadline == 0) {
+    			System.out.println("copyorder can only be used with deadline");
+    			giveMinimumArgumentsInfo();System.exit(1);
+    		}
+    	}
+    	
+    	String copyThreadsAsString = getArgumentValue(ArgumentName.copythreads);
+    	if (copyThreadsAsString != null) {
+    		copyThreads = Integer.parseInt(copyThreadsAsString);
+    	}
+    	if (copyThreads > 1 && (!backup || hddMode)) {
+			System.out.println("copythreads can only be used with a backup, without hddmode");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String copyStrategyAsString = getArgumentValue(ArgumentName.copystrategy);
+    	if (copyStrategyAsString != null && !copyStrategyAsString.equalsIgnoreCase(COPYSTRATEGY_AUTO)) {
+    		copyStrategy = CopyStrategy.fromName(copyStrategyAsString);
+    	}
+    	
+    	String chunkThreadsAsString = getArgumentValue(ArgumentName.chunkthreads);
+    	if (chunkThreadsAsString != null) {
+    		chunkThreads = Integer.parseInt(chunkThreadsAsString);
+    	}
+    	if (chunkThreads > 1 && (search || compare || watch || hddMode)) {
+			System.out.println("chunkthreads can only be used with a backup, a restore or type T, without hddmode");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String hardLinksAsString = getArgumentValue(ArgumentName.hardlinks);
+    	if (hardLinksAsString != null) {
+    		if (hardLinksAsString.equalsIgnoreCase("true")) {
+    			hardLinks = true;
+    		}
+    	}
+    	if (hardLinks && (!backup || fullBackup || watch || planOnly || maxHeapForCatalog > 0)) {
+			System.out.println("hardlinks can only be used with an incremental backup, without planonly and maxheapforcatalog");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String chunkStoreAsString = getArgumentValue(ArgumentName.chunkstore);
+    	if (chunkStoreAsString != null) {
+    		if (chunkStoreAsString.equalsIgnoreCase("true")) {
+    			chunkStore = true;
+    		}
+    	}
+    	if (chunkStore && (!backup || watch || hddMode || maxHeapForCatalog > 0 || hardLinks)) {
+			System.out.println("chunkstore can only be used with a backup, without hddmode, maxheapforcatalog and hardlinks");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
+    	String dedupAsString = getArgumentValue(ArgumentName.dedup);
+    	if (dedupAsString != null) {
+    		if (dedupAsString.equalsIgnoreCase("true")) {
+    			dedup = true;
+    		}
+    	}
+    	if (dedup && (!backup || watch || hddMode || maxHeapForCatalog > 0 || chunkStore)) {
+			System.out.println("dedup can only be used with a backup, without hddmode, maxheapforcatalog and chunkstore");
+			giveMinimumArgumentsInfo();System.exit(1);
+    	}
+    	
     	foldernamemapping = getArgumentValue(ArgumentName.foldernamemapping);
     	if (folderNameMapping != null) {
     		folderNameMapping = readFolderNameMappings(foldernamemapping);
@@ -586,6 +1164,25 @@ public class CommandLineArguments {
     		System.out.println("   Searchtext:                             " + searchText);
     		System.out.println("   startSearchDate:                        " + OtherUtilities.dateToString(startSearchDate, Constants.OUTPUTDATEFORMAT_STRING));
     		System.out.println("   endSearchDate:                          " + OtherUtilities.dateToString(endSearchDate, Constants.OUTPUTDATEFORMAT_STRING));
+    	} else if (compare) {
+    		System.out.println("   Type:                                   compare two backups");
+    		System.out.println("   Folder where backups are stored:        " + destination);
+    		System.out.println("   Folder where results will be stored:    " + writecompareto);
+    		System.out.println("   comparefrom:                            " + ((compareFromDate == null) ? "the backup before compareto" : OtherUtilities.dateToString(compareFromDate, Constants.OUTPUTDATEFORMAT_STRING)));
+    		System.out.println("   compareto:                              " + OtherUtilities.dateToString(compareToDate, Constants.OUTPUTDATEFORMAT_STRING));
+    	} else if (calibrate) {
+    		System.out.println("   Type:                               measure the copy strategies");
+    		System.out.println("   Folder with the test files:         " + source);
+    		System.out.println("   Folder to measure:                  " + destination);
+    	} else if (generateCatalog) {
+    		System.out.println("   Type:                               check maxheapforcatalog with a generated catalog");
+    		System.out.println("   Folder for the generated catalogs:  " + destination);
+    		System.out.println("   generatefiles:                      " + generateFiles);
+    		System.out.println("   maxheapforcatalog:                  " + (maxHeapForCatalog / 1024 / 1024) + " MB");
+    	} else if (watch) {
+    		System.out.println("   Type:                               watch for changes");
+    		System.out.println("   Folder to watch:                    " + source);
+    		System.out.println("   Folder with the change journal:     " + destination);
     	} else if (backup) {
     		// BACKUP
     		if (fullBackup) {
@@ -596,6 +1193,42 @@ public class CommandLineArguments {
     		
     		    System.out.println("   Folder to backup:                   " + source);
     		    System.out.println("   Destination to backup to:           " + destination);
+    		    if (subfolderToBackup.length() > 0) {
+    		    	System.out.println("   subfoldertobackup:                  " + subfolderToBackup);
+    		    }
+    		    if (planOnly) {
+    		    	System.out.println("   planonly:                           nothing will be copied");
+    		    }
+    		    if (detectMoves) {
+    		    	System.out.println("   detectmoves:                        moved files are not copied");
+    		    }
+    		    if (verifyContent) {
+    		    	System.out.println("   verifycontent:                      files with unchanged contents are not copied, using " + hashThreads + " thread(s)");
+    		    }
+    		    if (maxHeapForCatalog > 0) {
+    		    	System.out.println("   maxheapforcatalog:                  " + (maxHeapForCatalog / 1024 / 1024) + " MB");
+    		    }
+    		    if (deadline > 0) {
+    		    	System.out.println("   deadline:                           " + deadline + " minute(s), copy order " + copyOrder);
+    		    }
+    		    if (copyThreads > 1) {
+    		    	System.out.println("   copythreads:                        " + copyThreads);
+    		    }
+    		    if (copyStrategy != null) {
+    		    	System.out.println("   copystrategy:                       " + copyStrategy.getName());
+    		    }
+    		    if (chunkThreads > 1) {
+    		    	System.out.println("   chunkthreads:                       " + chunkThreads);
+    		    }
+    		    if (hardLinks) {
+    		    	System.out.println("   hardlinks:                          files that are not copied are hard linked");
+    		    }
+    		    if (chunkStore) {
+    		    	System.out.println("   chunkstore:                         files are stored in chunks in the chunk store");
+    		    }
+    		    if (dedup) {
+    		    	System.out.println("   dedup:                              files with the same contents as a stored file are not copied");
+    		    }
     		
     	} else {
     		// RESTORE
@@ -605,6 +1238,9 @@ public class CommandLineArguments {
     			String backupfoldernameJustTheDate = dateFormat.format(restoreDate);
     		    System.out.println("   Restore date:                       " + backupfoldernameJustTheDate);
     		    System.out.println("   overwrite:                          " + (overwrite ? "Y":"N"));
+    		    if (chunkThreads > 1) {
+    		    	System.out.println("   chunkthreads:                       " + chunkThreads);
+    		    }
     		    
     	}
     
@@ -614,7 +1250,7 @@ public class CommandLineArguments {
     		    System.out.println("   Log file:                               none");
     	}
     	
-    	if (!search) {
+    	if (!search && !compare) {
         	if (excludedfilelist != null) {
         		System.out.println("   excludedfilelist:                   " + excludedfilelist);
         	} else {
@@ -740,7 +1376,7 @@ public class CommandLineArguments {
                 configureLogFile(argValue);
                 return true;
             case "type":
-            	if (!(argValue.startsWith("f") || argValue.startsWith("F") || argValue.startsWith("I") || argValue.startsWith("i") || argValue.startsWith("R") || argValue.startsWith("r") || argValue.startsWith("s") || argValue.startsWith("S"))) {
+            	if (!(argValue.startsWith("f") || argValue.startsWith("F") || argValue.startsWith("I") || argValue.startsWith("i") || argValue.startsWith("R") || argValue.startsWith("r") || argValue.startsWith("s") || argValue.startsWith("S") || argValue.startsWith("w") || argValue.startsWith("W") || argValue.startsWith("c") || argValue.startsWith("C") || argValue.startsWith("t") || argValue.startsWith("T") || argValue.startsWith("g") || argValue.startsWith("G"))) {
             		return false;
             	}
             	return true;
@@ -783,6 +1419,84 @@ public class CommandLineArguments {
             case "endsearchdate":
             	return true;
             	
+            case "scanthreads":
+            	return isPositiveInteger(argValue);
+            	
+            case "singlestatscan":
+            	return true;
+            	
+            case "usefolderindex":
+            	return true;
+            	
+            case "fullscanevery":
+            	return isPositiveInteger(argValue);
+            	
+            case "verifyfolderindex":
+            	return true;
+            	
+            case "usechangejournal":
+            	return true;
+            	
+            case "pipeline":
+            	return true;
+            	
+            case "hddmode":
+            	return true;
+            	
+            case "subfoldertobackup":
+            	return true;
+            	
+            case "planonly":
+            	return true;
+            	
+            case "detectmoves":
+            	return true;
+            	
+            case "verifycontent":
+            	return true;
+            	
+            case "hashthreads":
+            	return isPositiveInteger(argValue);
+            	
+            case "comparefrom":
+            	return true;
+            	
+            case "compareto":
+            	return true;
+            	
+            case "writecompareto":
+            	return true;
+            	
+            case "maxheapforcatalog":
+            	return parseSize(argValue) > 0;
+            	
+            case "generatefiles":
+            	return isPositiveInteger(argValue);
+            	
+            case "deadline":
+            	return isPositiveInteger(argValue);
+            	
+            case "copystrategy":
+            	return argValue.equalsIgnoreCase(COPYSTRATEGY_AUTO) || CopyStrategy.fromName(argValue) != null;
+            	
+            case "copythreads":
+            	return isPositiveInteger(argValue);
+            	
+            case "chunkthreads":
+            	return isPositiveInteger(argValue);
+            	
+            case "hardlinks":
+            	return true;
+            	
+            case "chunkstore":
+            	return true;
+            	
+            case "dedup":
+            	return true;
+            	
+            case "copyorder":
+            	return argValue.equalsIgnoreCase(COPYORDER_NEWEST) || argValue.equalsIgnoreCase(COPYORDER_OLDEST) || argValue.equalsIgnoreCase(COPYORDER_SMALLEST) || argValue.equalsIgnoreCase(COPYORDER_LARGEST) || argValue.equalsIgnoreCase(COPYORDER_PLAN);
+            	
             default:
                 // Unknown argument name
                 System.out.println("Unknown argument name: " + argName);
@@ -790,6 +1504,48 @@ public class CommandLineArguments {
         }
     }
     
+    /**
+     * checks if argValue is an integer greater than 0
+     * @param argValue
+     * @return true if argValue is an integer greater than 0
+     */
+    private static boolean isPositiveInteger(String argValue) {
+    	try {
+    		return Integer.parseInt(argValue) > 0;
+    	} catch (NumberFormatException e) {
+    		return false;
+    	}
+    }
+    
+    /**
+     * parses a number of bytes, with optional suffix k, m or g, example 512m
+     * @return the number of bytes, -1 if argValue is not valid
+     */
+    private static long parseSize(String argValue) {
+    	
+    	long multiplier = 1;
+    	String number = argValue;
+    	
+    	if (argValue.length() > 0) {
+    		switch (Character.toLowerCase(argValue.charAt(argValue.length() - 1))) {
+    			case 'k': multiplier = 1024L; break;
+    			case 'm': multiplier = 1024L * 1024; break;
+    			case 'g': multiplier = 1024L * 1024 * 1024; break;
+    			default: break;
+    		}
+    		if (multiplier > 1) {
+    			number = argValue.substring(0, argValue.length() - 1);
+    		}
+    	}
+    	
+    	try {
+    		return Long.parseLong(number) * multiplier;
+    	} catch (NumberFormatException e) {
+    		return -1;
+    	}
+    	
+    }
+    
     private static HashMap<String, String> readFolderNameMappings(String folderNameMappingPath) {
     	
     	HashMap<String, String> replacementMap = new HashMap<>();
@@ -830,9 +1586,9 @@ public class CommandLineArguments {
     */
     private static void giveMinimumArgumentsInfo() {
     	System.out.println("Mandatory arguments:");
-    	System.out.println("  --type: F for Full backup, I for incremental backup, R for restore, S for searching in backups.");
+    	System.out.println("  --type: F for Full backup, I for incremental backup, R for restore, S for searching in backups, W for watching the source for changes, C for comparing two backups, T for measuring the copy strategies between source and destination, G for checking maxheapforcatalog with a generated catalog.");
     	System.out.println("  --source:  the folder that you want to backup, the contents will be backed up");
-    	System.out.println("            Not used for RESTORE and SEARCH");
+    	System.out.println("            Not used for RESTORE, SEARCH and type G");
     	System.out.println("  --destination: folder where you want to backup to");
     	System.out.println("            for BACKUP : folder where you want to backup to");
     	System.out.println("            for RESTORE: the folder where your backup is stored and from where restore will happen, ie the folder where you previously backed up to");
@@ -844,8 +1600,8 @@ public class CommandLineArguments {
     	System.out.println("            the file with the search results will be named searchresults.csv. If that file already exists, then it will be named for intance searchresults (1).txt");
     	System.out.println("  --overwrite: only for restore. If value = true then files that already exist in the destination will be overwritten. Default n (no)");
     	System.out.println("  --logfilefolder: location of the logfile, just the folder name, it must exist.");
-    	System.out.println("  --excludedfilelist: list of file names to exclude, exact match is applied, case sensitive.");
-    	System.out.println("  --excludedpathlist: list of folder names to exclude, these are subfolder names, exact match is applied, case sensitive.");
+    	System.out.println("  --excludedfilelist: list of file names to exclude, exact match is applied, case sensitive. Lines starting with glob: or regex: are patterns, example glob:*.tmp");
+    	System.out.println("  --excludedpathlist: list of folder names to exclude, these are subfolder paths starting from the source folder, example submap1/submap2, exact match is applied, case sensitive. Lines starting with glob: or regex: are patterns, example glob:**/node_modules");
     	System.out.println("  --restoredate: mandatory if type arguments = R. Date and time for which restore should occur. Format " + Constants.ARGUMENTDATEFORMAT_STRING);
     	System.out.println("  --subfoldertorestore: The specific folder within source that needs to be restored, If the complete backup needs to be restored, then omit this argument or give an empty string (\"\"). If a specific subfolder needs to be restored, then specify that folder here.");
     	System.out.println("  --foldernamemapping:");
@@ -865,6 +1621,35 @@ public class CommandLineArguments {
     	System.out.println("                      - to search for files with 'Trident' and 'Jabra', the searchtext you specify here would be '(?=.*\\bManual\\b)(?=.*\\bJabra\\b)'");
     	System.out.println("  --startsearchdate: when searching, only search in backups created after this date. Format = " + Constants.ARGUMENTDATEFORMAT_STRING + ". Default = 1 1 1970 ");
     	System.out.println("  --endsearchdate: when searching, only search in backups created after before or at this date. Format = " + Constants.ARGUMENTDATEFORMAT_STRING + ". Default = now");
+    	System.out.println("  --scanthreads: only for backup. Number of threads used to read the files and folders in the source. Default 1. The resulting folderlist.json is the same, no matter the number of threads.");
+    	System.out.println("  --singlestatscan: only for backup. If value = true then the type and last modified timestamp of each file and folder in the source are read in one filesystem call. Useful for network shares. Default false");
+    	System.out.println("  --usefolderindex: only for backup. If value = true then the last modified timestamp of each folder is stored in folderindex.json. An incremental backup then takes the files of folders that did not change from the previous backup, without reading those folders. Default false");
+    	System.out.println("            Note: a file that is modified without a change in its folder (no file added, removed or renamed) is only seen when all folders are read again, see fullscanevery");
+    	System.out.println("  --fullscanevery: only with usefolderindex. Number of backups after which all folders are read again. Default 7");
+    	System.out.println("  --usechangejournal: only for backup. If value = true then an incremental backup only reads the folders with changes, according to the change journal written by the watcher (type W). Default false");
+    	System.out.println("            If the watcher is not running, or was not running since the previous backup, then all folders are read");
+    	System.out.println("  --pipeline: only for incremental backup. If value = true then reading the source, comparing with the previous backup and copying happen at the same time. Copying starts as soon as the first new or modified file is found. Default false");
+    	System.out.println("  --hddmode: only for backup, not with pipeline. If value = true then the files are copied in the order of their inode number, and read ahead while writing, to reduce seeking on spinning disks. Default false");
+    	System.out.println("  --subfoldertobackup: only for incremental backup. A folder directly in the source folder. Only that folder is read and backed up, the other folders are taken unchanged from the previous backup. If omitted, the complete source is backed up");
+    	System.out.println("  --planonly: only for incremental backup. If value = true then the source is compared with the previous backup, the number of files and bytes to copy is logged and the plan is written to plan.json in the destination folder. Nothing is copied and no backup folder is created. Default false");
+    	System.out.println("  --detectmoves: only for incremental backup, not with pipeline. If value = true then a new file with the same name, size and last modified timestamp as a removed file is not copied, the copy in the earlier backup is used. Default false");
+    	System.out.println("  --verifycontent: only for incremental backup, not with pipeline. If value = true then a file with a new last modified timestamp but with the same size and contents as the copy in the backup is not copied, only the timestamp is updated in folderlist.json. Default false");
+    	System.out.println("  --hashthreads: only with verifycontent. Number of threads used to calculate the hashes. Default 2");
+    	System.out.println("  --writecompareto: mandatory in case type = C. Foldername where the compare results will be written to");
+    	System.out.println("            the file with the compare results will be named compareresults.csv. If that file already exists, then it will be named for instance compareresults (1).csv");
+    	System.out.println("  --compareto: when comparing, the backup to compare to is the most recent backup created before or at this date. Format = " + Constants.ARGUMENTDATEFORMAT_STRING + ". Default = now");
+    	System.out.println("  --comparefrom: when comparing, the backup to compare from is the most recent backup created before or at this date. Format = " + Constants.ARGUMENTDATEFORMAT_STRING + ". Default = the backup before the backup to compare to");
+    	System.out.println("  --maxheapforcatalog: only for incremental backup, not with pipeline, hddmode, planonly, detectmoves, verifycontent, usefolderindex, usechangejournal and subfoldertobackup. Memory that may be used for the list of files and folders, example 512m. If set, the source and the previous backup are sorted in runs on disk, and folderlist.json is written while they're merged. For sources with millions of files. Default not set, everything is kept in memory");
+    	System.out.println("  --generatefiles: only with type G. Number of files in the generated previous backup. Type G generates folderlist.json of a previous backup and a source that differs from it, and does the incremental backup with maxheapforcatalog without copying. It checks the result and logs the largest heap used, run it with -Xmx to check that maxheapforcatalog fits. Default 5000000");
+    	System.out.println("  --deadline: only for incremental backup, not with pipeline, planonly and maxheapforcatalog. Number of minutes the backup may copy. After that no more files are copied, folderlist.json is written with the previous version of the files that are not copied, the next backup copies them. Default no deadline");
+    	System.out.println("  --copyorder: only with deadline. The files that are copied first: newest (most recently modified), oldest, smallest, largest or plan (the order of the folders). With hddmode the files are always copied in the order of their inode number. Default newest");
+    	System.out.println("  --copythreads: only for backup, not with hddmode. Number of threads that copy the files. With more than one thread, files of 8 MB or more are copied by a quarter of the threads, the other files by the rest, so large files don't keep the small files waiting. Default 1");
+    	System.out.println("  --copystrategy: how files are copied. filescopy (Files.copy), transfer (FileChannel.transferTo), buffered (read the next part while writing, with two buffers of 4 MB), direct (bypass the page cache, where the filesystem supports it) or auto. Default auto");
+    	System.out.println("            with auto, a backup uses the strategies per file size in copystrategy.json in the destination folder, created with type T. Without copystrategy.json, and for restore, filescopy is used");
+    	System.out.println("  --chunkthreads: for backup, restore and type T, not with hddmode. Number of threads that copy one file of 1 GB or more, in parts of 64 MB, for very large files like virtual disks. With type T, the copy in parts is compared with the copy by one thread. With chunkstore, number of threads that hash and compress the chunks of a file. Default 1, files are copied by one thread");
+    	System.out.println("  --hardlinks: only for incremental backup, not with planonly and maxheapforcatalog. If value = true then each file that is not copied gets a hard link in the new backup folder to where it's stored in an earlier backup, so each backup folder has all files and can be browsed without restore. The destination must support hard links (NTFS, ext4, xfs, APFS, not FAT or exFAT). Default false");
+    	System.out.println("  --chunkstore: only for backup, not with hddmode, maxheapforcatalog and hardlinks. If value = true then files are not copied to the backup folder, they're split in chunks, and chunks that are not yet in the folder chunkstore in the destination are compressed and added to it. A modified large file only adds its changed chunks, copies of the same file are stored once. Restore and search work the same. With chunkthreads, the chunks of a file are hashed and compressed by that number of threads. Default false");
+    	System.out.println("  --dedup: only for backup, not with hddmode, maxheapforcatalog and chunkstore. If value = true then each new or modified file is hashed while it is copied, and not kept if a file with the same contents is already stored in a backup in the destination, folderlist.json then points to that file. The hashes of the copied files are kept in dedupindex.dat and dedupindex-paths.dat in the destination. A full backup only adds its files to the index. Default false");
     }
     
 }
@@ -41,4 +41,209 @@ public class Constants {
 	 */
 	public static final String LOGFILEDATEFORMAT_STRING = "yyyy-MM-dd-HH-mm-ss";
 	
+	/**
+	 * name of the file, next to folderlist.json, with the last modified timestamp of each folder, see FolderTimestampIndex
+	 */
+	public static final String FOLDERINDEX_FILENAME = "folderindex.json";
+	
+	/**
+	 * name of the file with the BackupPlan of an incremental backup, in the backup folder, or with planonly in the destination folder
+	 */
+	public static final String PLAN_FILENAME = "plan.json";
+	
+	/**
+	 * with planonly, name of the file in the destination folder with the folderlist.json that the backup would create
+	 */
+	public static final String PLAN_FOLDERLIST_FILENAME = "plan-folderlist.json";
+	
+	/**
+	 * with verifycontent, name of the file in the destination folder with the hashes of the files, see HashCache
+	 */
+	public static final String HASHCACHE_FILENAME = "hashcache.json";
+	
+	/**
+	 * algorithm used for the hashes in HashCache
+	 */
+	public static final String HASH_ALGORITHM = "SHA-256";
+	
+	/**
+	 * number of bytes of the folder digests in folderlist.json, the first bytes of a hash with HASH_ALGORITHM, see AFolder
+	 */
+	public static final int FOLDER_DIGEST_BYTES = 16;
+	
+	/**
+	 * size of the buffer per thread to read a file while calculating its hash
+	 */
+	public static final int HASH_BUFFER_SIZE = 1024 * 1024;
+	
+	/**
+	 * name of the file in the destination folder where the watcher writes the changes in the source, see ChangeJournal
+	 */
+	public static final String CHANGEJOURNAL_FILENAME = "changejournal.txt";
+	
+	/**
+	 * name of the change journal while a backup is using it
+	 */
+	public static final String CHANGEJOURNAL_INPROGRESS_FILENAME = "changejournal-inprogress.txt";
+	
+	/**
+	 * the watcher keeps a lock on this file in the destination folder as long as it runs
+	 */
+	public static final String CHANGEJOURNAL_LOCK_FILENAME = "changejournal.lock";
+	
+	/**
+	 * with pipeline, maximum number of scanned folders waiting to be compared with the previous backup. The scanner waits if the queue is full
+	 */
+	public static final int PIPELINE_FOLDER_QUEUE_SIZE = 1000;
+	
+	/**
+	 * with pipeline, maximum number of files and folders waiting to be copied. The comparison waits if the queue is full
+	 */
+	public static final int PIPELINE_COPY_QUEUE_SIZE = 1000;
+	
+	/**
+	 * with hddmode, maximum number of bytes that are read ahead and kept in memory, waiting to be written, see SequentialCopier
+	 */
+	public static final int HDD_READ_AHEAD_BYTES = 64 * 1024 * 1024;
+	
+	/**
+	 * with hddmode, files larger than this are not read ahead
+	 */
+	public static final int HDD_MAX_BUFFERED_FILE_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * with more than one copy thread, files of this size or larger are copied in a separate lane, see CopyStage
+	 */
+	public static final long COPY_LARGE_FILE_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * size of the buffers of the copy strategies BUFFERED and DIRECT, see CopyStrategy
+	 */
+	public static final int COPY_BUFFER_SIZE = 4 * 1024 * 1024;
+	
+	/**
+	 * with copy strategy DIRECT, reads and writes are done in multiples of this size, at positions that are a multiple of this size
+	 */
+	public static final int COPY_DIRECT_BLOCK_SIZE = 4096;
+
+	/**
+	 * with chunkthreads, files of this size or larger are copied in parts by several threads, see ChunkedCopier
+	 */
+	public static final long CHUNKED_COPY_MIN_SIZE = 1024L * 1024 * 1024;
+
+	/**
+	 * with chunkthreads, the size of the parts in which a large file is copied
+	 */
+	public static final long CHUNKED_COPY_PART_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * with hardlinks, number of threads that create the links, creating a link is waiting for the file system, not for the cpu, see SnapshotLinker
+	 */
+	public static final int HARDLINK_THREADS = 8;
+	
+	/**
+	 * name of the file that's created and deleted to check if DIRECT is supported in a folder
+	 */
+	public static final String COPY_DIRECT_TEST_FILENAME = "directiotest.tmp";
+	
+	/**
+	 * name of the file in the destination folder with the result of calibrate (type T), see CopyCalibration
+	 */
+	public static final String COPYCALIBRATION_FILENAME = "copystrategy.json";
+	
+	/**
+	 * name of the folder in the destination folder where calibrate copies the files, it's deleted afterwards
+	 */
+	public static final String COPYCALIBRATION_FOLDERNAME = "copystrategytest";
+	
+	/**
+	 * the size classes of calibrate, files smaller than the first limit, smaller than the second limit, and all larger files. Each class can have another copy strategy
+	 */
+	public static final long[] COPYCALIBRATION_SIZE_LIMITS = {1024 * 1024, 64 * 1024 * 1024};
+	
+	/**
+	 * calibrate copies at most this number of bytes per size class and per strategy
+	 */
+	public static final long COPYCALIBRATION_BYTES_PER_SIZE_CLASS = 256 * 1024 * 1024;
+	
+	/**
+	 * calibrate copies at most this number of files per size class and per strategy
+	 */
+	public static final int COPYCALIBRATION_FILES_PER_SIZE_CLASS = 1000;
+	
+	/**
+	 * with maxheapforcatalog, name of the folder in the destination folder where the sorted runs are written while the backup runs, see CatalogSorter
+	 */
+	public static final String CATALOG_RUNS_FOLDERNAME = "catalogruns";
+	
+	/**
+	 * with maxheapforcatalog, maximum number of runs that are merged at the same time
+	 */
+	public static final int CATALOG_MERGE_FAN_IN = 64;
+	
+	/**
+	 * with maxheapforcatalog, size of the buffer per run that is read or written
+	 */
+	public static final int CATALOG_RUN_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * with type G, name of the folder in the destination folder where the generated catalogs and the runs are written, it's deleted afterwards, see CatalogGenerator
+	 */
+	public static final String CATALOGGENERATOR_FOLDERNAME = "catalogtest";
+	
+	/**
+	 * with type G, number of files in the generated previous backup if generatefiles is not given
+	 */
+	public static final int CATALOGGENERATOR_DEFAULT_FILES = 5000000;
+	
+	/**
+	 * with type G, number of files per generated folder
+	 */
+	public static final int CATALOGGENERATOR_FILES_PER_FOLDER = 1000;
+	
+	/**
+	 * with type G, milliseconds between two measurements of the heap
+	 */
+	public static final long CATALOGGENERATOR_HEAP_SAMPLE_INTERVAL = 1000;
+	
+	/**
+	 * with chunkstore, name of the folder in the destination folder with the chunks and the chunk index, see ChunkStore
+	 */
+	public static final String CHUNKSTORE_FOLDERNAME = "chunkstore";
+	
+	/**
+	 * with chunkstore, name of the chunk index in CHUNKSTORE_FOLDERNAME
+	 */
+	public static final String CHUNKSTORE_INDEX_FILENAME = "chunkindex.dat";
+	
+	/**
+	 * with chunkstore, a new pack file is started when the current one reaches this size
+	 */
+	public static final long CHUNKSTORE_PACK_SIZE = 256 * 1024 * 1024;
+	
+	/**
+	 * with chunkstore, a chunk is never smaller than this, except the last chunk of a file
+	 */
+	public static final int CHUNK_MIN_SIZE = 64 * 1024;
+	
+	/**
+	 * with chunkstore, a chunk ends where the rolling hash has this many highest bits 0, so on average after CHUNK_MIN_SIZE + 2^CHUNK_MASK_BITS bytes
+	 */
+	public static final int CHUNK_MASK_BITS = 18;
+	
+	/**
+	 * with chunkstore, a chunk is never larger than this
+	 */
+	public static final int CHUNK_MAX_SIZE = 1024 * 1024;
+	
+	/**
+	 * with dedup, name of the file in the destination folder with per stored file its hash, size and the position of its path in DEDUPINDEX_PATHS_FILENAME, see DedupIndex
+	 */
+	public static final String DEDUPINDEX_FILENAME = "dedupindex.dat";
+	
+	/**
+	 * with dedup, name of the file in the destination folder with the paths of the stored files, backup folder name and path within the backup folder
+	 */
+	public static final String DEDUPINDEX_PATHS_FILENAME = "dedupindex-paths.dat";
+	
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * the result of calibrate (type T): per file size, the copy strategy that was the fastest from the source to the destination<br>
+ * Stored as copystrategy.json in the destination folder, used by the backups in that folder if copystrategy is auto, see CopyStrategySelector
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CopyCalibration {
+
+	/**
+	 * the source folder that was used for the calibration
+	 */
+	private String source;
+
+	/**
+	 * when the calibration was done, in Constants.OUTPUTDATEFORMAT_STRING
+	 */
+	private String date;
+
+	/**
+	 * sorted by maxSize, the last one is for all larger files
+	 */
+	private List<SizeClass> sizeClasses = new ArrayList<>();
+
+	/**
+	 * created to allow json deserialisation
+	 */
+	public CopyCalibration() {
+	}
+
+	public CopyCalibration(String source, String date) {
+		this.source = source;
+		this.date = date;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public void setDate(String date) {
+		this.date = date;
+	}
+
+	public List<SizeClass> getSizeClasses() {
+		return sizeClasses;
+	}
+
+	public void setSizeClasses(List<SizeClass> sizeClasses) {
+		this.sizeClasses = sizeClasses;
+	}
+
+	/**
+	 * the files up to a size
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class SizeClass {
+
+		/**
+		 * files smaller than this use strategy, Long.MAX_VALUE for the last class
+		 */
+		private long maxSize;
+
+		/**
+		 * name of the fastest strategy, see CopyStrategy.getName
+		 */
+		private String strategy;
+
+		/**
+		 * per strategy that was measured, MB per second, for information only
+		 */
+		private Map<String, Double> megabytesPerSecond = new LinkedHashMap<>();
+
+		/**
+		 * created to allow json deserialisation
+		 */
+		public SizeClass() {
+		}
+
+		public SizeClass(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public long getMaxSize() {
+			return maxSize;
+		}
+
+		public void setMaxSize(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		public String getStrategy() {
+			return strategy;
+		}
+
+		public void setStrategy(String strategy) {
+			this.strategy = strategy;
+		}
+
+		public Map<String, Double> getMegabytesPerSecond() {
+			return megabytesPerSecond;
+		}
+
+		public void setMegabytesPerSecond(Map<String, Double> megabytesPerSecond) {
+			this.megabytesPerSecond = megabytesPerSecond;
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.nio.file.Path;
+
+/**
+ * a file that needs to be copied from the source to the backup, or a new folder that needs to be created in the backup
+ */
+public class CopyJob {
+
+	/**
+	 * the file or folder in the source
+	 */
+	private final Path source;
+
+	/**
+	 * the file or folder in the backup, including the backup foldername
+	 */
+	private final Path destination;
+
+	/**
+	 * if true, only the folder is created, its contents are copied with separate jobs
+	 */
+	private final boolean folder;
+
+	/**
+	 * size of the file in the source, -1 if not known, see CopyStage
+	 */
+	private final long size;
+
+	public CopyJob(Path source, Path destination, boolean folder) {
+		this(source, destination, folder, -1);
+	}
+
+	/**
+	 * @param size size of the file in the source, -1 if not known
+	 */
+	public CopyJob(Path source, Path destination, boolean folder, long size) {
+		this.source = source;
+		this.destination = destination;
+		this.folder = folder;
+		this.size = size;
+	}
+
+	public Path getSource() {
+		return source;
+	}
+
+	public Path getDestination() {
+		return destination;
+	}
+
+	public boolean isFolder() {
+		return folder;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * the last modified timestamp and the number of children of each folder in the source, at the moment a backup was taken<br>
+ * Stored as folderindex.json next to folderlist.json<br>
+ * <br>
+ * The last modified timestamp of a folder changes when a file or folder is added, removed or renamed in it (not deeper). If it did not change since the previous backup,
+ * then the list of children in the previous folderlist.json can be reused, without reading the folder again.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class FolderTimestampIndex {
+
+	/**
+	 * number of incremental backups since the last backup that did read all folders
+	 */
+	private int runsSinceFullScan = 0;
+
+	/**
+	 * key = path relative to the source folder, with / as separator, "" for the source folder itself<br>
+	 * value = array with two elements : last modified timestamp of the folder and number of files and folders in folderlist.json for that folder
+	 */
+	private Map<String, long[]> folders = new ConcurrentHashMap<>();
+
+	/**
+	 * created to allow json deserialisation
+	 */
+	public FolderTimestampIndex() {
+	}
+
+	public int getRunsSinceFullScan() {
+		return runsSinceFullScan;
+	}
+
+	public void setRunsSinceFullScan(int runsSinceFullScan) {
+		this.runsSinceFullScan = runsSinceFullScan;
+	}
+
+	public Map<String, long[]> getFolders() {
+		return folders;
+	}
+
+	public void setFolders(Map<String, long[]> folders) {
+		this.folders = folders;
+	}
+
+	/**
+	 * adds or replaces a folder
+	 * @param relativePath path relative to the source folder, with / as separator
+	 * @param lastModified last modified timestamp of the folder
+	 * @param numberOfChildren number of files and folders in folderlist.json for that folder
+	 */
+	public void putFolder(String relativePath, long lastModified, int numberOfChildren) {
+		folders.put(relativePath, new long[] {lastModified, numberOfChildren});
+	}
+
+	/**
+	 * checks if a folder is unchanged since the index was created
+	 * @param relativePath path relative to the source folder, with / as separator
+	 * @param lastModified current last modified timestamp of the folder
+	 * @param numberOfChildren number of files and folders for that folder in the previous folderlist.json
+	 * @return true if the folder is in the index with the same timestamp and the same number of children
+	 */
+	public boolean isUnchanged(String relativePath, long lastModified, int numberOfChildren) {
+		long[] folder = folders.get(relativePath);
+		return folder != null && folder.length == 2 && folder[0] == lastModified && folder[1] == numberOfChildren;
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * hashes of the contents of files, with the size and the last modified timestamp of the file at the moment the hash was calculated<br>
+ * Stored as hashcache.json in the destination folder, it's used by all backups in that folder, see ContentVerifier<br>
+ * <br>
+ * There's one entry per file, for the most recent version. A hash can only be used if the size and the timestamp are the same.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class HashCache {
+
+	/**
+	 * key = path relative to the source folder, with / as separator<br>
+	 * value = the hash, with the size and the timestamp of the file
+	 */
+	private Map<String, Entry> files = new ConcurrentHashMap<>();
+
+	/**
+	 * created to allow json deserialisation
+	 */
+	public HashCache() {
+	}
+
+	public Map<String, Entry> getFiles() {
+		return files;
+	}
+
+	public void setFiles(Map<String, Entry> files) {
+		this.files = files;
+	}
+
+	/**
+	 * @param relativePath path relative to the source folder, with / as separator
+	 * @param size size of the file
+	 * @param ts last modified timestamp of the file
+	 * @return the hash, null if not known for that size and timestamp
+	 */
+	public String getHash(String relativePath, long size, long ts) {
+		Entry entry = files.get(relativePath);
+		return (entry != null && entry.size == size && entry.ts == ts) ? entry.hash : null;
+	}
+
+	/**
+	 * adds or replaces the hash of a file
+	 * @param relativePath path relative to the source folder, with / as separator
+	 * @param size size of the file
+	 * @param ts last modified timestamp of the file
+	 * @param hash the hash, hexadecimal
+	 */
+	public void putHash(String relativePath, long size, long ts, String hash) {
+		files.put(relativePath, new Entry(size, ts, hash));
+	}
+
+	/**
+	 * hash of one file
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Entry {
+
+		private long size;
+
+		private long ts;
+
+		/**
+		 * hash of the contents, hexadecimal
+		 */
+		private String hash;
+
+		/**
+		 * created to allow json deserialisation
+		 */
+		public Entry() {
+		}
+
+		public Entry(long size, long ts, String hash) {
+			this.size = size;
+			this.ts = ts;
+			this.hash = hash;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public void setSize(long size) {
+			this.size = size;
+		}
+
+		public long getts() {
+			return ts;
+		}
+
+		public void setts(long ts) {
+			this.ts = ts;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public void setHash(String hash) {
+			this.hash = hash;
+		}
+
+	}
+
+}
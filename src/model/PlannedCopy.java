@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * one copy in a BackupPlan: a new or modified file, or a new folder that needs to be created. The files in a new folder are separate PlannedCopy's
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public class PlannedCopy {
+
+	/**
+	 * path relative to the source folder, with the platform separator. It's the same relative to the backup folder
+	 */
+	private String relativePath;
+
+	/**
+	 * true for a new folder, only the folder is created
+	 */
+	private boolean folder;
+
+	/**
+	 * expected number of bytes to copy, 0 for a folder
+	 */
+	private long size;
+
+	/**
+	 * last modified timestamp of the file, 0 for a folder
+	 */
+	private long ts;
+
+	/**
+	 * created to allow json deserialisation
+	 */
+	public PlannedCopy() {
+	}
+
+	public PlannedCopy(String relativePath, boolean folder, long size, long ts) {
+		this.relativePath = relativePath;
+		this.folder = folder;
+		this.size = size;
+		this.ts = ts;
+	}
+
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	public void setRelativePath(String relativePath) {
+		this.relativePath = relativePath;
+	}
+
+	public boolean isFolder() {
+		return folder;
+	}
+
+	public void setFolder(boolean folder) {
+		this.folder = folder;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	public long getts() {
+		return ts;
+	}
+
+	public void setts(long ts) {
+		this.ts = ts;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package model;
+
+import java.util.List;
+
+/**
+ * the contents of one folder in the source, as published by the scanner while it is still reading other folders<br>
+ * A folder is always published before its subfolders.
+ */
+public class ScannedFolder {
+
+	/**
+	 * path relative to the source folder, with / as separator, "" for the source folder itself
+	 */
+	private final String relativePath;
+
+	/**
+	 * 0 for the source folder itself, 1 for the folders in the source folder, ...
+	 */
+	private final int level;
+
+	/**
+	 * the files and subfolders, sorted by FolderScanner with FileAndFolderUtilities.CANONICAL_ORDER, the order of folderlist.json<br>
+	 * IncrementalBackupPipeline and OutOfCoreBackup rely on this order, a listener must not change it.<br>
+	 * Files are instances of AFile with the last modified timestamp. Subfolders are instances of AFolder, only the name is relevant, the list of children may be empty
+	 */
+	private final List<AFileOrAFolder> children;
+
+	public ScannedFolder(String relativePath, int level, List<AFileOrAFolder> children) {
+		this.relativePath = relativePath;
+		this.level = level;
+		this.children = children;
+	}
+
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public List<AFileOrAFolder> getChildren() {
+		return children;
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.CatalogEntry;
+import model.CommandLineArguments;
+import model.Constants;
+
+/**
+ * checks that an incremental backup with maxheapforcatalog stays within its memory, for a number of files that is too large to create on disk (type G)<br>
+ * A previous backup with generatefiles files is generated and written as folderlist.json, and a source that differs from it: some folders removed, some
+ * folders added, some files modified. Then the same steps as OutOfCoreBackup are done: the previous folderlist.json is read with the streaming parser while
+ * the source is sorted, both are merged and the new folderlist.json is written. Only the scan of the source and the copies are left out.<br>
+ * The number of new, modified and removed files found by the merge and the number of entries in the new folderlist.json are compared with what was generated.
+ * Meanwhile the heap is measured after a garbage collection, the largest value is logged. Run it with -Xmx to check that the backup fits in that heap.
+ */
+public class CatalogGenerator {
+
+	/**
+	 * pathToBackup of the generated previous backup
+	 */
+	private static final String PREVIOUS_BACKUP_FOLDERNAME = "2024-01-01 00;00;00 (Full)";
+
+	/**
+	 * the generated files and folders are spread over this number of folders directly in the source
+	 */
+	private static final int NUMBER_OF_LIBRARIES = 10;
+
+	/**
+	 * last modified timestamp of the generated files
+	 */
+	private static final long TIMESTAMP = 1704067200000L;
+
+	/**
+	 * what the generated source should give
+	 */
+	private static class Expected {
+
+		long numberOfNewFiles = 0;
+
+		long numberOfNewFolders = 0;
+
+		long numberOfUpdatedFiles = 0;
+
+		long numberOfRemoved = 0;
+
+		long numberOfEntries = NUMBER_OF_LIBRARIES;
+
+	}
+
+	public static void generate() {
+
+		CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+
+		long startTimeStamp = System.currentTimeMillis();
+
+		Path testFolderPath = Paths.get(commandLineArguments.destination).resolve(Constants.CATALOGGENERATOR_FOLDERNAME);
+
+		int numberOfFolders = (commandLineArguments.generateFiles + Constants.CATALOGGENERATOR_FILES_PER_FOLDER - 1) / Constants.CATALOGGENERATOR_FILES_PER_FOLDER;
+		// one in hundred folders is new in the source
+		int numberOfNewFolders = Math.max(1, numberOfFolders / 100);
+
+		Logger.log("Generating a previous backup with " + commandLineArguments.generateFiles + " files in " + numberOfFolders + " folders, maxheapforcatalog " + (commandLineArguments.maxHeapForCatalog / 1024 / 1024) + " MB, maximum heap "
+				+ (Runtime.getRuntime().maxMemory() / 1024 / 1024) + " MB");
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicLong largestHeapUsed = new AtomicLong();
+		Thread heapSampler = new Thread(() -> sampleHeap(running, largestHeapUsed), "heap-sampler");
+		heapSampler.setDaemon(true);
+		heapSampler.start();
+
+		try {
+
+			OtherUtilities.deleteFolder(testFolderPath);
+			Files.createDirectories(testFolderPath);
+
+			// the previous backup, generated in any order, sorted and written as folderlist.json
+			Path previousFolderlistPath = testFolderPath.resolve("previous-folderlist.json");
+			CatalogSorter generatedSorter = new CatalogSorter(testFolderPath, "generated", commandLineArguments.maxHeapForCatalog / 2);
+			addLibraries(generatedSorter, PREVIOUS_BACKUP_FOLDERNAME);
+			for (int folder = 0; folder < numberOfFolders; folder++) {
+				addFolder(generatedSorter, folder, getNumberOfFiles(folder, commandLineArguments.generateFiles), PREVIOUS_BACKUP_FOLDERNAME, false);
+			}
+			CatalogWriter previousCatalogWriter = new CatalogWriter(previousFolderlistPath, PREVIOUS_BACKUP_FOLDERNAME);
+			CatalogSorter.EntryReader generatedReader = generatedSorter.finish();
+			for (CatalogEntry entry = generatedReader.next(); entry != null; entry = generatedReader.next()) {
+				previousCatalogWriter.write(entry);
+			}
+			previousCatalogWriter.close();
+
+			Logger.log("Writing the previous folderlist.json took " + (System.currentTimeMillis() - startTimeStamp) + " ms, " + generatedSorter.getNumberOfRuns() + " run(s) written to disk");
+
+			long mergeStartTimeStamp = System.currentTimeMillis();
+
+			// as in OutOfCoreBackup, the previous backup is read while the source is added
+			CatalogSorter previousBackupSorter = new CatalogSorter(testFolderPath, "previous", commandLineArguments.maxHeapForCatalog / 2);
+			CatalogSorter sourceSorter = new CatalogSorter(testFolderPath, "source", commandLineArguments.maxHeapForCatalog / 2);
+			CompletableFuture<String> previousBackupFuture = CompletableFuture.supplyAsync(() -> OutOfCoreBackup.readFolderlist(previousFolderlistPath, previousBackupSorter));
+
+			// the source in another order than the sorted one, like a scanner with several threads
+			Expected expected = new Expected();
+			addLibraries(sourceSorter, null);
+			for (int folder = numberOfFolders + numberOfNewFolders - 1; folder >= 0; folder--) {
+
+				// one in hundred folders is removed from the source
+				if (folder % 100 == 1 && folder < numberOfFolders) {
+					expected.numberOfRemoved++;
+					continue;
+				}
+
+				boolean newFolder = folder >= numberOfFolders;
+				int numberOfFiles = newFolder ? Constants.CATALOGGENERATOR_FILES_PER_FOLDER : getNumberOfFiles(folder, commandLineArguments.generateFiles);
+				expected.numberOfUpdatedFiles += newFolder ? 0 : addFolder(sourceSorter, folder, numberOfFiles, null, true);
+				if (newFolder) {
+					addFolder(sourceSorter, folder, numberOfFiles, null, false);
+					expected.numberOfNewFolders++;
+					expected.numberOfNewFiles += numberOfFiles;
+				}
+				expected.numberOfEntries += 1 + numberOfFiles;
+
+			}
+
+			String rootPathToBackup = previousBackupFuture.join();
+
+			Logger.log("Source : " + sourceSorter.getNumberOfEntries() + " files and folders, " + sourceSorter.getNumberOfRuns() + " run(s) written to disk");
+			Logger.log("Previous backup : " + previousBackupSorter.getNumberOfEntries() + " files and folders, " + previousBackupSorter.getNumberOfRuns() + " run(s) written to disk");
+
+			// the copy jobs are only counted, nothing is copied
+			Path newFolderlistPath = testFolderPath.resolve("folderlist.json");
+			AtomicLong numberOfCopyJobs = new AtomicLong();
+			OutOfCoreBackup.MergeResult mergeResult = new OutOfCoreBackup.MergeResult();
+			CatalogWriter catalogWriter = new CatalogWriter(newFolderlistPath, rootPathToBackup);
+			OutOfCoreBackup.merge(sourceSorter.finish(), previousBackupSorter.finish(), catalogWriter, testFolderPath.resolve("source"), testFolderPath.resolve("backup"), "generated", commandLineArguments, copyJob -> numberOfCopyJobs.incrementAndGet(), mergeResult);
+			catalogWriter.close();
+
+			Logger.log("Merging and writing the new folderlist.json took " + (System.currentTimeMillis() - mergeStartTimeStamp) + " ms, " + numberOfCopyJobs.get() + " file(s) and folder(s) to copy");
+
+			// the new folderlist.json is read back, to check that it's complete
+			CatalogSorter checkSorter = new CatalogSorter(testFolderPath, "check", commandLineArguments.maxHeapForCatalog / 2);
+			OutOfCoreBackup.readFolderlist(newFolderlistPath, checkSorter);
+
+			running.set(false);
+
+			boolean asExpected = check("new files", mergeResult.numberOfNewFiles, expected.numberOfNewFiles)
+					& check("new folders", mergeResult.numberOfNewFolders, expected.numberOfNewFolders)
+					& check("updated files", mergeResult.numberOfUpdatedFiles, expected.numberOfUpdatedFiles)
+					& check("removed folders", mergeResult.numberOfRemoved, expected.numberOfRemoved)
+					& check("files and folders in the new folderlist.json", checkSorter.getNumberOfEntries(), expected.numberOfEntries);
+
+			OtherUtilities.deleteFolder(testFolderPath);
+
+			Logger.log("Largest heap used after a garbage collection : " + (largestHeapUsed.get() / 1024 / 1024) + " MB, maxheapforcatalog " + (commandLineArguments.maxHeapForCatalog / 1024 / 1024) + " MB, maximum heap "
+					+ (Runtime.getRuntime().maxMemory() / 1024 / 1024) + " MB");
+			Logger.log("Type G took " + (System.currentTimeMillis() - startTimeStamp) + " ms");
+
+			if (!asExpected) {
+				Logger.log("The merge did not give the expected result");
+				System.exit(1);
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in CatalogGenerator, while writing in " + testFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * adds a generated folder with its files to sorter
+	 * @param pathToBackup null for the source
+	 * @param modify if true, one in thousand files gets another last modified timestamp
+	 * @return the number of files with another timestamp
+	 */
+	private static int addFolder(CatalogSorter sorter, int folder, int numberOfFiles, String pathToBackup, boolean modify) {
+
+		String folderPath = "library" + (folder % NUMBER_OF_LIBRARIES) + "/folder" + folder;
+		int numberOfModified = 0;
+
+		sorter.add(new CatalogEntry(folderPath, true, 0, pathToBackup, null));
+
+		for (int file = numberOfFiles - 1; file >= 0; file--) {
+			boolean modified = modify && ((long)folder * Constants.CATALOGGENERATOR_FILES_PER_FOLDER + file) % 1000 == 7;
+			sorter.add(new CatalogEntry(folderPath + "/file" + file + ".txt", false, TIMESTAMP + folder + (modified ? 1000 : 0), pathToBackup, null));
+			numberOfModified += modified ? 1 : 0;
+		}
+
+		return numberOfModified;
+
+	}
+
+	/**
+	 * adds the folders directly in the source to sorter
+	 * @param pathToBackup null for the source
+	 */
+	private static void addLibraries(CatalogSorter sorter, String pathToBackup) {
+		for (int library = 0; library < NUMBER_OF_LIBRARIES; library++) {
+			sorter.add(new CatalogEntry("library" + library, true, 0, pathToBackup, null));
+		}
+	}
+
+	private static int getNumberOfFiles(int folder, int numberOfFiles) {
+		return (int)Math.min(Constants.CATALOGGENERATOR_FILES_PER_FOLDER, numberOfFiles - (long)folder * Constants.CATALOGGENERATOR_FILES_PER_FOLDER);
+	}
+
+	private static boolean check(String text, long found, long expected) {
+		Logger.log("   " + text + " : " + found + ((found == expected) ? "" : ", expected " + expected));
+		return found == expected;
+	}
+
+	/**
+	 * measures the heap after a garbage collection until running is false, the largest value is stored in largestHeapUsed
+	 */
+	private static void sampleHeap(AtomicBoolean running, AtomicLong largestHeapUsed) {
+
+		Runtime runtime = Runtime.getRuntime();
+
+		while (running.get()) {
+
+			System.gc();
+			largestHeapUsed.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+
+			try {
+				Thread.sleep(Constants.CATALOGGENERATOR_HEAP_SAMPLE_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+		}
+
+	}
+
+}
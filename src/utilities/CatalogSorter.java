@@ -0,0 +1,322 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import model.CatalogEntry;
+import model.Constants;
+
+/**
+ * sorts catalog entries in CatalogEntry.PATH_ORDER with a limited amount of memory<br>
+ * The entries are kept in memory until they use more than memoryBudget bytes, then they're sorted and written to a run file. finish merges the runs,
+ * so that the entries can be read one by one, in PATH_ORDER. If all entries fit in memory, nothing is written.
+ */
+public class CatalogSorter {
+
+	/**
+	 * returns the sorted entries one by one
+	 */
+	public interface EntryReader {
+		
+		/**
+		 * @return the next entry, null if there are no more entries
+		 */
+		CatalogEntry next();
+		
+	}
+	
+	/**
+	 * folder where the run files are written
+	 */
+	private final Path runsFolder;
+	
+	/**
+	 * the name of the run files starts with this name
+	 */
+	private final String name;
+	
+	private final long memoryBudget;
+	
+	/**
+	 * entries not yet written to a run
+	 */
+	private final List<CatalogEntry> entries = new ArrayList<>();
+	
+	/**
+	 * estimated memory used by entries
+	 */
+	private long entriesSize = 0;
+	
+	private final List<Path> runs = new ArrayList<>();
+	
+	/**
+	 * number of run files created, also the ones that were merged, used to create unique filenames
+	 */
+	private int numberOfRunFiles = 0;
+	
+	private long numberOfEntries = 0;
+	
+	/**
+	 * @param runsFolder folder where the run files are written, must exist
+	 * @param name the name of the run files starts with this name, must be unique within runsFolder
+	 * @param memoryBudget maximum number of bytes used by the entries that are kept in memory, see CatalogEntry.getEstimatedSize
+	 */
+	public CatalogSorter(Path runsFolder, String name, long memoryBudget) {
+		this.runsFolder = runsFolder;
+		this.name = name;
+		this.memoryBudget = memoryBudget;
+	}
+	
+	/**
+	 * adds an entry, can be called from different threads
+	 */
+	public synchronized void add(CatalogEntry entry) {
+		
+		entries.add(entry);
+		entriesSize += entry.getEstimatedSize();
+		numberOfEntries++;
+		
+		if (entriesSize >= memoryBudget) {
+			writeRun();
+		}
+		
+	}
+	
+	public synchronized long getNumberOfEntries() {
+		return numberOfEntries;
+	}
+	
+	/**
+	 * @return number of runs written to disk, 0 if all entries fit in memory
+	 */
+	public synchronized int getNumberOfRuns() {
+		return numberOfRunFiles;
+	}
+	
+	/**
+	 * to call when all entries are added
+	 * @return the entries in PATH_ORDER
+	 */
+	public synchronized EntryReader finish() {
+		
+		if (runs.size() == 0) {
+			entries.sort(CatalogEntry.PATH_ORDER);
+			return new ListReader(entries);
+		}
+		
+		if (entries.size() > 0) {
+			writeRun();
+		}
+		
+		// with too many runs, not all of them can be opened at the same time, merge them in groups first
+		while (runs.size() > Constants.CATALOG_MERGE_FAN_IN) {
+			
+			List<Path> mergedRuns = new ArrayList<>();
+			
+			for (int i = 0; i < runs.size(); i += Constants.CATALOG_MERGE_FAN_IN) {
+				
+				List<Path> group = runs.subList(i, Math.min(i + Constants.CATALOG_MERGE_FAN_IN, runs.size()));
+				EntryReader groupReader = openRuns(group);
+				Path mergedRun = createRunPath();
+				
+				try (DataOutputStream outputStream = openRunForWriting(mergedRun)) {
+					for (CatalogEntry entry = groupReader.next(); entry != null; entry = groupReader.next()) {
+						outputStream.writeBoolean(true);
+						entry.write(outputStream);
+					}
+					outputStream.writeBoolean(false);
+				} catch (IOException e) {
+					handleException(e, mergedRun);
+				}
+				
+				for (Path run : group) {
+					deleteRun(run);
+				}
+				mergedRuns.add(mergedRun);
+				
+			}
+			
+			runs.clear();
+			runs.addAll(mergedRuns);
+			
+		}
+		
+		return openRuns(runs);
+		
+	}
+	
+	/**
+	 * sorts entries and writes them to a new run file
+	 */
+	private void writeRun() {
+		
+		entries.sort(CatalogEntry.PATH_ORDER);
+		
+		Path run = createRunPath();
+		
+		// each entry is preceded by true, the end of the run is marked with false
+		try (DataOutputStream outputStream = openRunForWriting(run)) {
+			for (CatalogEntry entry : entries) {
+				outputStream.writeBoolean(true);
+				entry.write(outputStream);
+			}
+			outputStream.writeBoolean(false);
+		} catch (IOException e) {
+			handleException(e, run);
+		}
+		
+		runs.add(run);
+		entries.clear();
+		entriesSize = 0;
+		
+	}
+	
+	private Path createRunPath() {
+		numberOfRunFiles++;
+		return runsFolder.resolve(name + "-" + numberOfRunFiles + ".run");
+	}
+	
+	private DataOutputStream openRunForWriting(Path run) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), Constants.CATALOG_RUN_BUFFER_SIZE));
+	}
+	
+	/**
+	 * @return a reader that merges the runs
+	 */
+	private EntryReader openRuns(List<Path> runsToOpen) {
+		
+		PriorityQueue<RunReader> runReaders = new PriorityQueue<>((reader1, reader2) -> CatalogEntry.PATH_ORDER.compare(reader1.current, reader2.current));
+		
+		for (Path run : runsToOpen) {
+			RunReader runReader = new RunReader(run);
+			if (runReader.advance()) {
+				runReaders.add(runReader);
+			}
+		}
+		
+		return () -> {
+			
+			RunReader runReader = runReaders.poll();
+			if (runReader == null) {return null;}
+			
+			CatalogEntry entry = runReader.current;
+			if (runReader.advance()) {
+				runReaders.add(runReader);
+			}
+			return entry;
+			
+		};
+		
+	}
+	
+	private static void deleteRun(Path run) {
+		try {
+			Files.delete(run);
+		} catch (IOException e) {
+			handleException(e, run);
+		}
+	}
+	
+	private static void handleException(IOException e, Path run) {
+		e.printStackTrace();
+		Logger.log("Exception in CatalogSorter while reading or writing " + run.toString());
+		Logger.log(e.toString());
+		System.exit(1);
+	}
+	
+	/**
+	 * returns the entries of a list that is already sorted, each entry is removed from the list once returned so that it can be garbage collected
+	 */
+	private static class ListReader implements EntryReader {
+		
+		private final List<CatalogEntry> entries;
+		
+		private int index = 0;
+		
+		ListReader(List<CatalogEntry> entries) {
+			this.entries = entries;
+		}
+		
+		@Override
+		public CatalogEntry next() {
+			if (index >= entries.size()) {
+				entries.clear();
+				return null;
+			}
+			CatalogEntry entry = entries.get(index);
+			entries.set(index, null);
+			index++;
+			return entry;
+		}
+		
+	}
+	
+	/**
+	 * reads one run file, current is the entry that was read last
+	 */
+	private static class RunReader {
+		
+		private final Path run;
+		
+		private final DataInputStream inputStream;
+		
+		private CatalogEntry current = null;
+		
+		RunReader(Path run) {
+			this.run = run;
+			DataInputStream openedStream = null;
+			try {
+				openedStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), Constants.CATALOG_RUN_BUFFER_SIZE));
+			} catch (IOException e) {
+				handleException(e, run);
+			}
+			this.inputStream = openedStream;
+		}
+		
+		/**
+		 * reads the next entry in current, closes the file at the end
+		 * @return false if there are no more entries
+		 */
+		boolean advance() {
+			try {
+				if (inputStream.readBoolean()) {
+					current = CatalogEntry.read(inputStream);
+					return true;
+				}
+				inputStream.close();
+			} catch (IOException e) {
+				handleException(e, run);
+			}
+			current = null;
+			return false;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import model.CatalogEntry;
+
+/**
+ * writes folderlist.json entry by entry, without having the complete tree of AFileOrAFolder in memory<br>
+ * The entries must be added in CatalogEntry.PATH_ORDER, so that each folder is complete when the next folder at the same or a higher level starts.
+ * The result is the same as writing the AFolder with ObjectMapper, after FileAndFolderUtilities.calculateDigests. Only the open folders are kept in memory.
+ */
+public class CatalogWriter {
+
+	private final JsonGenerator generator;
+	
+	/**
+	 * the folders that are being written, the first one is the backup folder itself
+	 */
+	private final List<OpenFolder> openFolders = new ArrayList<>();
+	
+	/**
+	 * starts writing, with the backup folder itself, which has name ""
+	 * @param folderlistPath the file to write
+	 * @param pathToBackup pathToBackup of the backup folder itself
+	 */
+	public CatalogWriter(Path folderlistPath, String pathToBackup) throws IOException {
+		
+		generator = new JsonFactory().createGenerator(Files.newOutputStream(folderlistPath), JsonEncoding.UTF8);
+		
+		startFolder("", "", pathToBackup);
+		
+	}
+	
+	/**
+	 * adds an entry, the folders before it that are not a parent of the entry are closed
+	 */
+	public void write(CatalogEntry entry) throws IOException {
+		
+		String parentPath = entry.getParentPath();
+		
+		while (!openFolders.get(openFolders.size() - 1).relativePath.equals(parentPath)) {
+			
+			// the parent of an entry is always added before the entry
+			if (openFolders.size() == 1) {
+				throw new IOException("folder " + parentPath + " was not added before " + entry.getRelativePath());
+			}
+			
+			endFolder();
+			
+		}
+		
+		if (entry.isFolder()) {
+			
+			startFolder(entry.getRelativePath(), entry.getName(), entry.getPathToBackup());
+			
+		} else {
+			
+			generator.writeStartObject();
+			generator.writeStringField("type", "afile");
+			generator.writeStringField("name", entry.getName());
+			generator.writeStringField("pathToBackup", entry.getPathToBackup());
+			generator.writeNumberField("ts", entry.getts());
+			if (entry.getStoredAt() != null) {
+				generator.writeStringField("storedAt", entry.getStoredAt());
+			}
+			generator.writeEndObject();
+			
+			FileAndFolderUtilities.addFileToFolderDigest(openFolders.get(openFolders.size() - 1).messageDigest, entry.getName(), entry.getts(), entry.getPathToBackup(), entry.getStoredAt());
+			
+		}
+		
+	}
+	
+	/**
+	 * ends all open folders and closes the file
+	 */
+	public void close() throws IOException {
+		
+		while (openFolders.size() > 0) {
+			endFolder();
+		}
+		
+		generator.close();
+		
+	}
+	
+	private void startFolder(String relativePath, String name, String pathToBackup) throws IOException {
+		
+		generator.writeStartObject();
+		generator.writeStringField("type", "afolder");
+		generator.writeStringField("name", name);
+		generator.writeStringField("pathToBackup", pathToBackup);
+		generator.writeArrayFieldStart("fileOrFolderList");
+		
+		openFolders.add(new OpenFolder(relativePath, name));
+		
+	}
+	
+	private void endFolder() throws IOException {
+		
+		OpenFolder folder = openFolders.remove(openFolders.size() - 1);
+		String digest = FileAndFolderUtilities.getFolderDigest(folder.messageDigest);
+		
+		generator.writeEndArray();
+		generator.writeStringField("digest", digest);
+		generator.writeEndObject();
+		
+		if (openFolders.size() > 0) {
+			FileAndFolderUtilities.addFolderToFolderDigest(openFolders.get(openFolders.size() - 1).messageDigest, folder.name, digest);
+		}
+		
+	}
+	
+	private static class OpenFolder {
+		
+		private final String relativePath;
+		
+		private final String name;
+		
+		/**
+		 * the files and subfolders are added as they're written
+		 */
+		private final MessageDigest messageDigest = FileAndFolderUtilities.createFolderDigest();
+		
+		OpenFolder(String relativePath, String name) {
+			this.relativePath = relativePath;
+			this.name = name;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import model.Constants;
+
+/**
+ * the change journal is a text file in the destination folder, where the watcher (type W) writes the paths of files and folders that changed in the source<br>
+ * An incremental backup with usechangejournal then only needs to read the folders with changes.<br>
+ * <br>
+ * Lines in the journal:<br>
+ * - "P " followed by the path of a file or folder that changed, relative to the source folder, with / as separator<br>
+ * - "S " followed by the path of a folder that was created, everything in it changed too (eg a folder that was deleted and created again, or moved in)<br>
+ * - "BACKUP " followed by the backupfoldername of the backup that started this journal<br>
+ * - "RESCAN" written by the watcher when it starts, changes before that moment are not known<br>
+ * - "OVERFLOW" written by the watcher if events were lost<br>
+ * <br>
+ * The journal can only be used if the watcher is running (it keeps a lock on the first byte of changejournal.lock), if it was started by the previous backup, and if it has no RESCAN or OVERFLOW.
+ * In all other cases all folders are read.<br>
+ * <br>
+ * The watcher and the backup run in different processes. Appending to the journal and renaming it take a lock on the second byte of changejournal.lock,
+ * so that no change is written in the journal after the backup has read it.
+ */
+public class ChangeJournal {
+
+	public static final String PATH_PREFIX = "P ";
+
+	public static final String SUBTREE_PREFIX = "S ";
+
+	public static final String BACKUP_PREFIX = "BACKUP ";
+
+	public static final String RESCAN = "RESCAN";
+
+	public static final String OVERFLOW = "OVERFLOW";
+
+	/**
+	 * the returned set of changed paths has the path of a folder from a SUBTREE_PREFIX line with this suffix
+	 */
+	public static final String SUBTREE_SUFFIX = "/";
+
+	/**
+	 * position in changejournal.lock of the byte that the watcher locks as long as it runs
+	 */
+	private static final long WATCHER_LOCK_POSITION = 0;
+
+	/**
+	 * position in changejournal.lock of the byte that is locked while appending to or renaming the journal
+	 */
+	private static final long JOURNAL_LOCK_POSITION = 1;
+
+	/**
+	 * to be called by the watcher when it starts, the lock tells the backup that the watcher is running<br>
+	 * The channel must stay open as long as the watcher runs, and must be used for append, because on some systems closing any channel on the file releases all locks of the process.
+	 * @param lockChannel channel on changejournal.lock, opened for writing
+	 * @return the lock, null if another watcher is running
+	 * @throws IOException
+	 */
+	public static FileLock tryLockWatcher(FileChannel lockChannel) throws IOException {
+		return lockChannel.tryLock(WATCHER_LOCK_POSITION, 1, false);
+	}
+
+	/**
+	 * appends lines to the journal, the file is created if it doesn't exist<br>
+	 * Not to be used by the watcher, see tryLockWatcher
+	 * @param destinationFolderPath folder where the backups are stored
+	 * @param lines
+	 * @throws IOException
+	 */
+	public static void append(Path destinationFolderPath, List<String> lines) throws IOException {
+		try (FileChannel lockChannel = openLockFile(destinationFolderPath)) {
+			append(lockChannel, destinationFolderPath, lines);
+		}
+	}
+
+	/**
+	 * appends lines to the journal, the file is created if it doesn't exist<br>
+	 * Waits as long as a backup is renaming the journal.
+	 * @param lockChannel channel on changejournal.lock, opened for writing
+	 * @param destinationFolderPath folder where the backups are stored
+	 * @param lines
+	 * @throws IOException
+	 */
+	public static void append(FileChannel lockChannel, Path destinationFolderPath, List<String> lines) throws IOException {
+		FileLock journalLock = lockChannel.lock(JOURNAL_LOCK_POSITION, 1, false);
+		try {
+			appendLocked(destinationFolderPath, lines);
+		} finally {
+			journalLock.release();
+		}
+	}
+
+	/**
+	 * to be called at the start of a full or incremental backup<br>
+	 * The current journal is renamed, and a new journal is started, with the name of the new backup. The watcher will write new changes in the new journal.
+	 * @param destinationFolderPath folder where the backups are stored
+	 * @param previousBackupName name of the previous backup, example '2024-01-12 16;46;55 (Full)', null for a full backup
+	 * @param backupFolderName name of the new backup
+	 * @return the paths of the files and folders that changed since the previous backup, relative to the source folder with / as separator.
+	 * A path that ends with SUBTREE_SUFFIX is a folder of which everything in it changed. null if all folders need to be read
+	 */
+	public static Set<String> startBackup(Path destinationFolderPath, String previousBackupName, String backupFolderName) {
+
+		Path journalPath = destinationFolderPath.resolve(Constants.CHANGEJOURNAL_FILENAME);
+		Path journalInProgressPath = destinationFolderPath.resolve(Constants.CHANGEJOURNAL_INPROGRESS_FILENAME);
+
+		// one channel for all locks, closing another channel on the lock file could release them
+		try (FileChannel lockChannel = openLockFile(destinationFolderPath)) {
+
+			// a previous backup that used the journal did not finish, we don't know which of those changes are in the previous backup
+			boolean previousBackupFinished = !Files.exists(journalInProgressPath);
+			Files.deleteIfExists(journalInProgressPath);
+
+			if (!watcherIsRunning(lockChannel)) {
+				Logger.log("The watcher is not running, the change journal can not be used, all folders will be read");
+				return null;
+			}
+
+			List<String> lines;
+
+			// the watcher must not append while the journal is renamed and read, or a change could be written in the renamed journal after it was read
+			FileLock journalLock = lockChannel.lock(JOURNAL_LOCK_POSITION, 1, false);
+			try {
+
+				if (!Files.exists(journalPath)) {
+					appendLocked(destinationFolderPath, Arrays.asList(BACKUP_PREFIX + backupFolderName));
+					Logger.log("No change journal found, all folders will be read");
+					return null;
+				}
+
+				// from now on, the watcher writes in a new journal
+				Files.move(journalPath, journalInProgressPath, StandardCopyOption.ATOMIC_MOVE);
+				appendLocked(destinationFolderPath, Arrays.asList(BACKUP_PREFIX + backupFolderName));
+
+				lines = Files.readAllLines(journalInProgressPath, StandardCharsets.UTF_8);
+
+			} finally {
+				journalLock.release();
+			}
+
+			if (previousBackupName == null) {
+				return null;
+			}
+
+			if (!previousBackupFinished) {
+				Logger.log("The previous backup with change journal did not finish, all folders will be read");
+				return null;
+			}
+
+			Set<String> changedPaths = new HashSet<>();
+			boolean startedByPreviousBackup = false;
+
+			for (String line : lines) {
+
+				if (line.startsWith(PATH_PREFIX)) {
+					changedPaths.add(line.substring(PATH_PREFIX.length()));
+				} else if (line.startsWith(SUBTREE_PREFIX)) {
+					changedPaths.add(line.substring(SUBTREE_PREFIX.length()) + SUBTREE_SUFFIX);
+				} else if (line.equals(BACKUP_PREFIX + previousBackupName)) {
+					startedByPreviousBackup = true;
+				} else if (line.equals(RESCAN) || line.equals(OVERFLOW)) {
+					Logger.log("The change journal has " + line + ", all folders will be read");
+					return null;
+				}
+
+			}
+
+			if (!startedByPreviousBackup) {
+				Logger.log("The change journal was not started by the previous backup " + previousBackupName + ", all folders will be read");
+				return null;
+			}
+
+			Logger.log("Change journal has " + changedPaths.size() + " changed path(s), only the folders with changes will be read");
+
+			return changedPaths;
+
+		} catch (IOException e) {
+			Logger.log("Exception while reading the change journal, all folders will be read");
+			Logger.log(e.toString());
+			return null;
+		}
+
+	}
+
+	/**
+	 * to be called when a backup finished successfully, the journal that was renamed by startBackup is deleted
+	 * @param destinationFolderPath folder where the backups are stored
+	 */
+	public static void backupFinished(Path destinationFolderPath) {
+
+		try {
+			Files.deleteIfExists(destinationFolderPath.resolve(Constants.CHANGEJOURNAL_INPROGRESS_FILENAME));
+		} catch (IOException e) {
+			Logger.log("Failed to delete " + Constants.CHANGEJOURNAL_INPROGRESS_FILENAME + ", next backup will read all folders");
+		}
+
+	}
+
+	/**
+	 * converts a path relative to the source folder to the format used in the journal
+	 * @param relativePath
+	 * @return the path with / as separator
+	 */
+	public static String toJournalPath(Path relativePath) {
+		return relativePath.toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * appends lines to the journal, the caller has the journal lock
+	 */
+	private static void appendLocked(Path destinationFolderPath, List<String> lines) throws IOException {
+		Files.write(destinationFolderPath.resolve(Constants.CHANGEJOURNAL_FILENAME), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * opens changejournal.lock for writing, the file is created if it doesn't exist
+	 */
+	private static FileChannel openLockFile(Path destinationFolderPath) throws IOException {
+		return FileChannel.open(destinationFolderPath.resolve(Constants.CHANGEJOURNAL_LOCK_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * the watcher keeps a lock on the first byte of changejournal.lock as long as it runs
+	 * @param lockChannel channel on changejournal.lock, opened for writing
+	 * @return true if another process has the lock
+	 * @throws IOException
+	 */
+	private static boolean watcherIsRunning(FileChannel lockChannel) throws IOException {
+
+		FileLock fileLock = lockChannel.tryLock(WATCHER_LOCK_POSITION, 1, false);
+
+		if (fileLock == null) {return true;}
+
+		fileLock.release();
+
+		return false;
+
+	}
+
+}
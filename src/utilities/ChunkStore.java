@@ -0,0 +1,582 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CommandLineArguments;
+import model.Constants;
+
+/**
+ * with chunkstore, files are not copied to the backup folder, they're split in chunks which are stored once in the folder chunkstore in the destination folder<br>
+ * - a file is split where a rolling hash of the last 64 bytes has its Constants.CHUNK_MASK_BITS highest bits 0, so an insertion or deletion in a large file only changes
+ *   the chunks around it, the other chunks are the same as in the previous version<br>
+ * - a chunk is identified by its hash (Constants.HASH_ALGORITHM). A chunk that is already in the store is not stored again, also if it's part of another file<br>
+ * - new chunks are compressed and appended to pack files of at most Constants.CHUNKSTORE_PACK_SIZE<br>
+ * - the index, from hash to pack, position and length, is kept in memory while the backup runs and stored in chunkindex.dat, records of a fixed size, new chunks
+ *   are appended<br>
+ * The AFile in folderlist.json has the list of hashes of its chunks, see AFile.chunks. Files without chunks are stored as files in their backup folder, so
+ * backups with and without chunkstore can be mixed in the same destination.<br>
+ * The packs are written to disk before the index, and the index before folderlist.json, so a backup that stops in the middle leaves at most chunks that are not
+ * used.<br>
+ * With chunkthreads, the chunks of a file are hashed and compressed by that number of threads, while the file is read and split.
+ */
+public class ChunkStore {
+
+	/**
+	 * hash, pack number, position in the pack, stored length and length
+	 */
+	private static final int INDEX_RECORD_SIZE = 32 + 4 + 8 + 4 + 4;
+
+	/**
+	 * the random values of the rolling hash, always the same, otherwise the chunks would be different in each backup
+	 */
+	private static final long[] GEAR = new long[256];
+
+	static {
+		Random random = new Random(0x5043426163b75570L);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+	}
+
+	private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance(Constants.HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+	private static ChunkStore instance = null;
+
+	/**
+	 * where a chunk is stored
+	 */
+	private static class ChunkLocation {
+
+		private final int pack;
+
+		private final long position;
+
+		/**
+		 * the number of bytes in the pack, if it's the same as length, the chunk is not compressed
+		 */
+		private final int storedLength;
+
+		private final int length;
+
+		private ChunkLocation(int pack, long position, int storedLength, int length) {
+			this.pack = pack;
+			this.position = position;
+			this.storedLength = storedLength;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * a hash as key in the index, a byte array can't be used as key itself
+	 */
+	private static class ChunkKey {
+
+		private final byte[] hash;
+
+		private ChunkKey(byte[] hash) {
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			return (object instanceof ChunkKey) && Arrays.equals(hash, ((ChunkKey)object).hash);
+		}
+
+		@Override
+		public int hashCode() {
+			// the hash is already random
+			return ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+		}
+
+	}
+
+	private final Path storeFolderPath;
+
+	private final Map<ChunkKey, ChunkLocation> index = new ConcurrentHashMap<>();
+
+	/**
+	 * the chunks that are added in this backup, they're appended to the index file by close
+	 */
+	private final List<ChunkKey> newChunks = new ArrayList<>();
+
+	/**
+	 * the pack that new chunks are appended to, null if none open yet
+	 */
+	private FileChannel currentPack = null;
+
+	private int currentPackNumber;
+
+	/**
+	 * the packs that are read by restore
+	 */
+	private final Map<Integer, FileChannel> readPacks = new HashMap<>();
+
+	/**
+	 * per file stored in this backup, its path in the backup folder as it would be if it was copied, and its chunks, see addChunkLists
+	 */
+	private final Map<Path, List<String>> storedFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * hashes and compresses the chunks, null with one thread, then that's done by the thread that reads the file
+	 */
+	private final ExecutorService chunkers;
+
+	private final int chunkThreads;
+
+	private final AtomicLong storedFileCount = new AtomicLong();
+
+	private final AtomicLong readBytes = new AtomicLong();
+
+	private final AtomicLong chunkCount = new AtomicLong();
+
+	private final AtomicLong newChunkCount = new AtomicLong();
+
+	private final AtomicLong newBytes = new AtomicLong();
+
+	private final AtomicLong newStoredBytes = new AtomicLong();
+
+	private volatile long firstStoreTimeStamp = 0;
+
+	/**
+	 * the chunk store in the destination folder, created if it doesn't exist yet. The index is read the first time
+	 */
+	public static synchronized ChunkStore getInstance() {
+		if (instance == null) {
+			CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+			instance = new ChunkStore(Paths.get(commandLineArguments.destination).resolve(Constants.CHUNKSTORE_FOLDERNAME), commandLineArguments.chunkThreads);
+		}
+		return instance;
+	}
+
+	private ChunkStore(Path storeFolderPath, int chunkThreads) {
+
+		this.storeFolderPath = storeFolderPath;
+		this.chunkThreads = chunkThreads;
+		this.chunkers = (chunkThreads > 1) ? Executors.newFixedThreadPool(chunkThreads, runnable -> {
+			Thread thread = new Thread(runnable, "chunker");
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+
+		try {
+			Files.createDirectories(storeFolderPath);
+			readIndex();
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while reading the chunk store in " + storeFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * splits source in chunks and stores the chunks that are not yet in the store. Nothing is written at destination, it's the path the file would have in the backup
+	 * folder, addChunkLists uses it to find the chunks of the file
+	 */
+	public void store(Path source, Path destination) throws IOException {
+
+		if (firstStoreTimeStamp == 0) {firstStoreTimeStamp = System.currentTimeMillis();}
+
+		List<String> chunks = new ArrayList<>();
+		// the chunks that are being hashed and compressed, at most 2 per thread so a large file is not completely in memory
+		Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+		try (InputStream inputStream = Files.newInputStream(source)) {
+
+			byte[] buffer = new byte[Constants.CHUNK_MAX_SIZE];
+			int available = 0;
+			boolean endOfFile = false;
+
+			while (true) {
+
+				// fill the buffer
+				while (!endOfFile && available < buffer.length) {
+					int read = inputStream.read(buffer, available, buffer.length - available);
+					if (read < 0) {
+						endOfFile = true;
+					} else {
+						available += read;
+					}
+				}
+
+				if (available == 0) {break;}
+
+				int chunkLength = findChunkEnd(buffer, available);
+				byte[] chunk = Arrays.copyOf(buffer, chunkLength);
+				System.arraycopy(buffer, chunkLength, buffer, 0, available - chunkLength);
+				available -= chunkLength;
+				readBytes.addAndGet(chunkLength);
+
+				if (chunkers == null) {
+					chunks.add(HexFormat.of().formatHex(addChunk(chunk)));
+				} else {
+					pending.add(chunkers.submit(() -> addChunk(chunk)));
+					while (pending.size() >= 2 * chunkThreads) {
+						chunks.add(HexFormat.of().formatHex(waitForChunk(pending.poll())));
+					}
+				}
+
+			}
+
+		} finally {
+			while (!pending.isEmpty()) {
+				// also after an exception, so no chunker still writes for this file
+				try {
+					chunks.add(HexFormat.of().formatHex(waitForChunk(pending.peek())));
+				} finally {
+					pending.poll();
+				}
+			}
+		}
+
+		storedFiles.put(destination, chunks);
+		storedFileCount.incrementAndGet();
+
+	}
+
+	/**
+	 * writes the chunks to destination
+	 * @param file the file in folderlist.json, with chunks not null, its timestamp is set as last modified timestamp
+	 * @param replaceExisting if false and destination exists, FileAlreadyExistsException is thrown
+	 */
+	public void restore(AFile file, Path destination, boolean replaceExisting) throws IOException {
+
+		try (FileChannel out = FileChannel.open(destination, CopyStrategy.getWriteOptions(replaceExisting))) {
+
+			for (String hash : file.getChunks()) {
+
+				byte[] hashAsBytes = HexFormat.of().parseHex(hash);
+				ChunkLocation chunkLocation = index.get(new ChunkKey(hashAsBytes));
+				if (chunkLocation == null) {
+					throw new IOException("chunk " + hash + " is not in " + storeFolderPath.toString());
+				}
+
+				byte[] chunk = readChunk(chunkLocation);
+				if (!Arrays.equals(MESSAGE_DIGEST.get().digest(chunk), hashAsBytes)) {
+					throw new IOException("chunk " + hash + " in " + storeFolderPath.toString() + " is damaged, the hash is not the same");
+				}
+
+				ByteBuffer byteBuffer = ByteBuffer.wrap(chunk);
+				while (byteBuffer.hasRemaining()) {
+					out.write(byteBuffer);
+				}
+
+			}
+
+		}
+
+		Files.setLastModifiedTime(destination, FileTime.fromMillis(file.getts()));
+
+	}
+
+	/**
+	 * writes the packs and the new chunks in the index to disk, and logs the totals of this backup. Call this before folderlist.json is written
+	 */
+	public synchronized void close() {
+
+		try {
+
+			if (currentPack != null) {
+				currentPack.force(true);
+				currentPack.close();
+				currentPack = null;
+			}
+
+			try (FileChannel indexChannel = FileChannel.open(storeFolderPath.resolve(Constants.CHUNKSTORE_INDEX_FILENAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+					DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(indexChannel)))) {
+				for (ChunkKey chunkKey : newChunks) {
+					ChunkLocation chunkLocation = index.get(chunkKey);
+					dataOutputStream.write(chunkKey.hash);
+					dataOutputStream.writeInt(chunkLocation.pack);
+					dataOutputStream.writeLong(chunkLocation.position);
+					dataOutputStream.writeInt(chunkLocation.storedLength);
+					dataOutputStream.writeInt(chunkLocation.length);
+				}
+				// on disk before folderlist.json refers to the chunks
+				dataOutputStream.flush();
+				indexChannel.force(true);
+			}
+			newChunks.clear();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while writing the chunk store in " + storeFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+		long duration = (firstStoreTimeStamp == 0) ? 1 : Math.max(1, System.currentTimeMillis() - firstStoreTimeStamp);
+		Logger.log("Chunk store: " + storedFileCount.get() + " file(s), " + (readBytes.get() / 1024 / 1024) + " MB read in " + duration + " ms (" + String.format("%.1f", readBytes.get() / 1024.0 / 1024.0 / (duration / 1000.0)) + " MB/s), using " + chunkThreads + " thread(s) per file");
+		Logger.log("   " + chunkCount.get() + " chunk(s), " + newChunkCount.get() + " new, " + (newBytes.get() / 1024 / 1024) + " MB new data stored in " + (newStoredBytes.get() / 1024 / 1024) + " MB"
+				+ ", dedup ratio " + String.format("%.2f", readBytes.get() / (double)Math.max(1, newBytes.get())) + ", " + index.size() + " chunk(s) in the store");
+
+	}
+
+	/**
+	 * sets the chunks of each file in backup that is stored in this backup
+	 * @param backup folderlist.json of the new backup, before the foldername mapping
+	 * @param backupFolderPath the new backup folder
+	 * @param backupfoldername name of the new backup folder
+	 */
+	public void addChunkLists(AFolder backup, Path backupFolderPath, String backupfoldername) {
+
+		for (AFileOrAFolder aFileOrAFolder : backup.getFileOrFolderList()) {
+
+			Path path = backupFolderPath.resolve(aFileOrAFolder.getName());
+
+			if (aFileOrAFolder instanceof AFolder) {
+				addChunkLists((AFolder)aFileOrAFolder, path, backupfoldername);
+			} else if (aFileOrAFolder.getPathToBackup().equals(backupfoldername)) {
+				List<String> chunks = storedFiles.get(path);
+				if (chunks == null) {
+					Logger.log("The file " + path.toString() + " is not in the chunk store, looks like a coding error");
+					System.exit(1);
+				}
+				((AFile)aFileOrAFolder).setChunks(chunks);
+			}
+
+		}
+
+	}
+
+	/**
+	 * @return the number of bytes of the next chunk in buffer, the end is where the rolling hash has its highest bits 0, at least Constants.CHUNK_MIN_SIZE from the start
+	 */
+	private static int findChunkEnd(byte[] buffer, int available) {
+
+		if (available <= Constants.CHUNK_MIN_SIZE) {return available;}
+
+		// the highest bits depend on all 64 bytes, the lowest bits only on the last bytes
+		long mask = ((1L << Constants.CHUNK_MASK_BITS) - 1) << (64 - Constants.CHUNK_MASK_BITS);
+		long hash = 0;
+
+		// the bytes before CHUNK_MIN_SIZE - 64 don't influence the hash at CHUNK_MIN_SIZE, they're shifted out
+		for (int i = Constants.CHUNK_MIN_SIZE - 64; i < available; i++) {
+			hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+			if (i >= Constants.CHUNK_MIN_SIZE && (hash & mask) == 0) {
+				return i + 1;
+			}
+		}
+
+		return available;
+
+	}
+
+	/**
+	 * hashes chunk, and stores it if it's not yet in the store
+	 * @return the hash
+	 */
+	private byte[] addChunk(byte[] chunk) throws IOException {
+
+		byte[] hash = MESSAGE_DIGEST.get().digest(chunk);
+		ChunkKey chunkKey = new ChunkKey(hash);
+		chunkCount.incrementAndGet();
+
+		if (index.containsKey(chunkKey)) {return hash;}
+
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		deflater.setInput(chunk);
+		deflater.finish();
+		byte[] compressed = new byte[chunk.length];
+		int compressedLength = 0;
+		while (!deflater.finished() && compressedLength < compressed.length) {
+			compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+		}
+
+		// not smaller, then it's stored as it is
+		if (!deflater.finished() || compressedLength >= chunk.length) {
+			writeChunk(chunkKey, chunk, chunk.length, chunk.length);
+		} else {
+			writeChunk(chunkKey, compressed, compressedLength, chunk.length);
+		}
+
+		return hash;
+
+	}
+
+	/**
+	 * appends a chunk to the current pack, unless another thread stored the same chunk in the meantime
+	 */
+	private synchronized void writeChunk(ChunkKey chunkKey, byte[] bytes, int storedLength, int length) throws IOException {
+
+		if (index.containsKey(chunkKey)) {return;}
+
+		if (currentPack == null || currentPack.size() >= Constants.CHUNKSTORE_PACK_SIZE) {
+			if (currentPack != null) {
+				currentPack.force(true);
+				currentPack.close();
+				currentPackNumber++;
+			}
+			currentPack = FileChannel.open(getPackPath(currentPackNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		}
+
+		long position = currentPack.size();
+		ByteBuffer byteBuffer = ByteBuffer.wrap(bytes, 0, storedLength);
+		long writePosition = position;
+		while (byteBuffer.hasRemaining()) {
+			writePosition += currentPack.write(byteBuffer, writePosition);
+		}
+
+		index.put(chunkKey, new ChunkLocation(currentPackNumber, position, storedLength, length));
+		newChunks.add(chunkKey);
+		newChunkCount.incrementAndGet();
+		newBytes.addAndGet(length);
+		newStoredBytes.addAndGet(storedLength);
+
+	}
+
+	private synchronized byte[] readChunk(ChunkLocation chunkLocation) throws IOException {
+
+		FileChannel pack = readPacks.get(chunkLocation.pack);
+		if (pack == null) {
+			pack = FileChannel.open(getPackPath(chunkLocation.pack), StandardOpenOption.READ);
+			readPacks.put(chunkLocation.pack, pack);
+		}
+
+		ByteBuffer byteBuffer = ByteBuffer.allocate(chunkLocation.storedLength);
+		while (byteBuffer.hasRemaining()) {
+			if (pack.read(byteBuffer, chunkLocation.position + byteBuffer.position()) < 0) {
+				throw new EOFException("pack " + getPackPath(chunkLocation.pack).toString() + " is shorter than expected");
+			}
+		}
+
+		if (chunkLocation.storedLength == chunkLocation.length) {
+			return byteBuffer.array();
+		}
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(byteBuffer.array());
+			byte[] chunk = new byte[chunkLocation.length];
+			int length = 0;
+			while (length < chunk.length && !inflater.finished()) {
+				int inflated = inflater.inflate(chunk, length, chunk.length - length);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {break;}
+				length += inflated;
+			}
+			if (length != chunk.length) {
+				throw new IOException("chunk in pack " + getPackPath(chunkLocation.pack).toString() + " at " + chunkLocation.position + " is damaged");
+			}
+			return chunk;
+		} catch (DataFormatException e) {
+			throw new IOException("chunk in pack " + getPackPath(chunkLocation.pack).toString() + " at " + chunkLocation.position + " is damaged", e);
+		} finally {
+			inflater.end();
+		}
+
+	}
+
+	/**
+	 * reads chunkindex.dat, a record that is not complete is ignored, that's a backup that stopped while writing the index. New chunks are appended to the last
+	 * pack
+	 */
+	private void readIndex() throws IOException {
+
+		Path indexPath = storeFolderPath.resolve(Constants.CHUNKSTORE_INDEX_FILENAME);
+
+		if (Files.exists(indexPath)) {
+
+			long records = Files.size(indexPath) / INDEX_RECORD_SIZE;
+
+			try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+				for (long i = 0; i < records; i++) {
+					byte[] hash = new byte[32];
+					dataInputStream.readFully(hash);
+					ChunkLocation chunkLocation = new ChunkLocation(dataInputStream.readInt(), dataInputStream.readLong(), dataInputStream.readInt(), dataInputStream.readInt());
+					index.put(new ChunkKey(hash), chunkLocation);
+					currentPackNumber = Math.max(currentPackNumber, chunkLocation.pack);
+				}
+			}
+
+			if (Files.size(indexPath) % INDEX_RECORD_SIZE != 0) {
+				Logger.log("The last record of " + indexPath.toString() + " is not complete, it's removed");
+				try (FileChannel fileChannel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+					fileChannel.truncate(records * INDEX_RECORD_SIZE);
+				}
+			}
+
+		}
+
+	}
+
+	private Path getPackPath(int packNumber) {
+		return storeFolderPath.resolve(String.format("pack-%06d.pack", packNumber));
+	}
+
+	private static byte[] waitForChunk(Future<byte[]> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while storing chunks", e);
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.Constants;
+
+/**
+ * copies one large file in parts of Constants.CHUNKED_COPY_PART_SIZE, by several threads at the same time, with positional reads and writes on one FileChannel for
+ * the source and one for the destination<br>
+ * The destination gets its final size before the parts are written. The last modified timestamp and the permissions are set only after all parts are copied, so a file that is not
+ * completely copied never looks unchanged to the next backup: if a part fails, the destination is deleted.<br>
+ * The threads are shared by all files, so with copythreads the number of threads reading large files stays at chunkthreads.
+ */
+public class ChunkedCopier {
+
+	/**
+	 * per thread, the buffer to copy a part
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.COPY_BUFFER_SIZE));
+
+	/**
+	 * the threads that copy the parts, created at the first copy
+	 */
+	private static ExecutorService partCopiers = null;
+
+	/**
+	 * copies source to destination with threads threads
+	 * @param source
+	 * @param destination the parent folder must exist
+	 * @param threads number of threads that copy the parts, used when the threads are created, which is at the first copy
+	 * @param replaceExisting if false and destination exists, FileAlreadyExistsException is thrown
+	 * @throws IOException
+	 */
+	public static void copy(Path source, Path destination, int threads, boolean replaceExisting) throws IOException {
+		copy(source, destination, threads, replaceExisting, null);
+	}
+
+	/**
+	 * copies source to destination with threads threads, and adds the bytes that are written to contentHash. Each part is hashed by the thread that copies it,
+	 * see ContentHash. If the source became smaller while copying, nothing is added to contentHash
+	 * @param contentHash null if no hash is needed
+	 */
+	public static void copy(Path source, Path destination, int threads, boolean replaceExisting, ContentHash contentHash) throws IOException {
+
+		BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+
+		// false if opening fails, then an existing destination must not be deleted
+		boolean destinationOpened = false;
+
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ); FileChannel out = FileChannel.open(destination, CopyStrategy.getWriteOptions(replaceExisting))) {
+
+			destinationOpened = true;
+
+			long size = in.size();
+
+			// the end of the copied bytes, smaller than size if the source became smaller while copying
+			AtomicLong end = new AtomicLong(size);
+
+			if (size > 0) {
+				// Java has no fallocate, writing the last byte gives the destination its final size at once instead of growing it part by part
+				out.write(ByteBuffer.wrap(new byte[1]), size - 1);
+			}
+
+			int numberOfParts = (int)((size + Constants.CHUNKED_COPY_PART_SIZE - 1) / Constants.CHUNKED_COPY_PART_SIZE);
+			byte[][] partHashes = (contentHash == null) ? null : new byte[numberOfParts][];
+
+			List<Future<?>> parts = new ArrayList<>();
+			ExecutorService executorService = getPartCopiers(threads);
+			for (int part = 0; part < numberOfParts; part++) {
+				int partIndex = part;
+				long partStart = part * Constants.CHUNKED_COPY_PART_SIZE;
+				long partEnd = Math.min(size, partStart + Constants.CHUNKED_COPY_PART_SIZE);
+				parts.add(executorService.submit(() -> {
+					MessageDigest partDigest = (partHashes == null) ? null : ContentHash.createDigest();
+					copyPart(in, out, partStart, partEnd, end, partDigest);
+					if (partDigest != null) {
+						partHashes[partIndex] = partDigest.digest();
+					}
+					return null;
+				}));
+			}
+
+			waitForParts(parts);
+
+			if (end.get() < size) {
+				out.truncate(end.get());
+			} else if (contentHash != null) {
+				contentHash.addParts(partHashes, size);
+			}
+
+		} catch (IOException e) {
+			// the channels are closed before this catch, the incomplete copy is removed
+			if (destinationOpened) {
+				Files.deleteIfExists(destination);
+			}
+			throw e;
+		}
+
+		OtherUtilities.copyAttributes(source, destination, attributes);
+
+	}
+
+	/**
+	 * copies the bytes from partStart to partEnd, if the end of the source is reached before partEnd, end is set to the position where it was reached
+	 * @param partDigest if not null, the bytes are added to it
+	 */
+	private static void copyPart(FileChannel in, FileChannel out, long partStart, long partEnd, AtomicLong end, MessageDigest partDigest) throws IOException {
+
+		ByteBuffer buffer = BUFFER.get();
+		long position = partStart;
+
+		while (position < partEnd) {
+
+			buffer.clear();
+			buffer.limit((int)Math.min(buffer.capacity(), partEnd - position));
+
+			int read = in.read(buffer, position);
+			if (read < 0) {
+				end.accumulateAndGet(position, Math::min);
+				return;
+			}
+
+			buffer.flip();
+			if (partDigest != null) {
+				partDigest.update(buffer.duplicate());
+			}
+			long writePosition = position;
+			while (buffer.hasRemaining()) {
+				writePosition += out.write(buffer, writePosition);
+			}
+
+			position += read;
+
+		}
+
+	}
+
+	/**
+	 * waits until all parts are copied, if a part failed, the others are cancelled
+	 * @throws IOException the exception of the first part that failed
+	 */
+	private static void waitForParts(List<Future<?>> parts) throws IOException {
+
+		try {
+			for (Future<?> part : parts) {
+				part.get();
+			}
+		} catch (InterruptedException e) {
+			parts.forEach(part -> part.cancel(false));
+			throw new IOException("Interrupted while copying", e);
+		} catch (ExecutionException e) {
+			parts.forEach(part -> part.cancel(false));
+			waitForRunningParts(parts);
+			throw (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+
+	}
+
+	/**
+	 * after a failure, the parts that were already running must finish before the destination is closed and deleted
+	 */
+	private static void waitForRunningParts(List<Future<?>> parts) {
+		for (Future<?> part : parts) {
+			try {
+				if (!part.isCancelled()) {
+					part.get();
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				// the first exception is the one that is thrown
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getPartCopiers(int threads) {
+		if (partCopiers == null) {
+			partCopiers = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "copy-part");
+				// daemon threads, so they don't keep the program running
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return partCopiers;
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import model.Constants;
+
+/**
+ * the hash of the contents of a file as used by dedup, calculated from the bytes while they're copied, see DedupIndex<br>
+ * The file is hashed in parts of Constants.CHUNKED_COPY_PART_SIZE with Constants.HASH_ALGORITHM, the hash of the file is the hash of the hashes of the parts.
+ * So a file that is copied in parts by ChunkedCopier, by several threads and not in order, has the same hash as when it's copied from start to end.
+ */
+public class ContentHash {
+
+	/**
+	 * hashes the hashes of the parts
+	 */
+	private final MessageDigest fileDigest = createDigest();
+
+	/**
+	 * hashes the bytes of the current part
+	 */
+	private final MessageDigest partDigest = createDigest();
+
+	/**
+	 * number of bytes in the current part
+	 */
+	private long bytesInPart = 0;
+
+	/**
+	 * number of bytes hashed
+	 */
+	private long size = 0;
+
+	/**
+	 * adds the remaining bytes of buffer, the position of buffer is moved to its limit
+	 */
+	public void update(ByteBuffer buffer) {
+
+		while (buffer.hasRemaining()) {
+
+			int length = (int)Math.min(buffer.remaining(), Constants.CHUNKED_COPY_PART_SIZE - bytesInPart);
+			ByteBuffer part = buffer.slice(buffer.position(), length);
+			partDigest.update(part);
+			buffer.position(buffer.position() + length);
+
+			bytesInPart += length;
+			size += length;
+
+			if (bytesInPart == Constants.CHUNKED_COPY_PART_SIZE) {
+				fileDigest.update(partDigest.digest());
+				bytesInPart = 0;
+			}
+
+		}
+
+	}
+
+	/**
+	 * adds parts that are hashed separately, for ChunkedCopier
+	 * @param partHashes per part of Constants.CHUNKED_COPY_PART_SIZE, in the order of the file, the hash of its bytes, the last part may be smaller
+	 * @param length total number of bytes of the parts
+	 */
+	public void addParts(byte[][] partHashes, long length) {
+		for (byte[] partHash : partHashes) {
+			fileDigest.update(partHash);
+		}
+		size += length;
+	}
+
+	/**
+	 * @return number of bytes hashed
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the hash, call this once, after all bytes are added
+	 */
+	public byte[] digest() {
+		if (bytesInPart > 0) {
+			fileDigest.update(partDigest.digest());
+			bytesInPart = 0;
+		}
+		return fileDigest.digest();
+	}
+
+	/**
+	 * @return a new MessageDigest for Constants.HASH_ALGORITHM, to hash one part
+	 */
+	public static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(Constants.HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
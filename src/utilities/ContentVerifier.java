@@ -0,0 +1,304 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.AFile;
+import model.BackupPlan;
+import model.CommandLineArguments;
+import model.Constants;
+import model.HashCache;
+
+/**
+ * finds files of which only the last modified timestamp changed, so that they don't need to be copied again (verifycontent)<br>
+ * While comparing the source with the previous backup, FileAndFolderUtilities.compareAndUpdate gives the files with a new timestamp to the ContentVerifier, instead of adding them to the BackupPlan.<br>
+ * When the comparison is finished, addToPlan compares each of these files with its copy in the backup:<br>
+ * - if the size is different, the file is copied, without reading it<br>
+ * - otherwise the SHA-256 hashes are compared. The hashes are calculated in hashThreads threads, each file is read in blocks of Constants.HASH_BUFFER_SIZE<br>
+ * - if the hashes are the same, only the timestamp is updated in folderlist.json, the entry keeps the pathToBackup of the copy<br>
+ * The hashes are kept in hashcache.json in the destination folder, see HashCache. As the hash of the source is stored with the new timestamp, the copy in the backup
+ * is normally hashed only once, the next time the timestamp changes only the file in the source is read.
+ */
+public class ContentVerifier {
+
+	/**
+	 * folder with all the backups, ie without the backup foldername
+	 */
+	private final Path destinationFolderPath;
+
+	private final CommandLineArguments commandLineArguments;
+
+	private final HashCache hashCache;
+
+	/**
+	 * the files with a new timestamp, in the order they were found
+	 */
+	private final List<ModifiedFile> modifiedFiles = new ArrayList<>();
+
+	/**
+	 * buffer per thread, to read the files
+	 */
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.HASH_BUFFER_SIZE));
+
+	/**
+	 * reads hashcache.json in destinationFolderPath, if it exists
+	 * @param destinationFolderPath folder with all the backups, ie without the backup foldername
+	 * @param commandLineArguments
+	 */
+	public ContentVerifier(Path destinationFolderPath, CommandLineArguments commandLineArguments) {
+
+		this.destinationFolderPath = destinationFolderPath;
+		this.commandLineArguments = commandLineArguments;
+
+		HashCache hashCacheFromFile = null;
+		Path hashCachePath = destinationFolderPath.resolve(Constants.HASHCACHE_FILENAME);
+		if (Files.exists(hashCachePath)) {
+			try {
+				hashCacheFromFile = (new ObjectMapper()).readValue(Files.readString(hashCachePath, StandardCharsets.UTF_8), HashCache.class);
+			} catch (IOException e) {
+				Logger.log("Exception while converting file " + hashCachePath.toString() + " to json, it will not be used");
+				Logger.log(e.toString());
+			}
+		}
+		hashCache = (hashCacheFromFile == null) ? new HashCache() : hashCacheFromFile;
+
+	}
+
+	/**
+	 * adds a file of which the timestamp in the source is not the same as in the previous backup
+	 * @param sourceFile the file in the source
+	 * @param destFile the file in the previous backup, it will be updated by addToPlan
+	 * @param pathContext the folder that contains the file
+	 */
+	public void addModified(AFile sourceFile, AFile destFile, PathContext pathContext) {
+		modifiedFiles.add(new ModifiedFile(sourceFile, destFile, pathContext.getLogPath(sourceFile.getName()), pathContext.getSourcePath()));
+	}
+
+	/**
+	 * compares the files given with addModified with their copy in the backup, updates the entries in the previous backup, and adds the files that changed to backupPlan<br>
+	 * To be called after the complete comparison
+	 * @param backupPlan
+	 * @param backupFolderName name of the new backup folder, the pathToBackup of the files that are copied
+	 */
+	public void addToPlan(BackupPlan backupPlan, String backupFolderName) {
+
+		if (modifiedFiles.isEmpty()) {return;}
+
+		long startTimeStamp = System.currentTimeMillis();
+
+		// the comparisons are done in parallel, the results are processed in the original order
+		ExecutorService executorService = Executors.newFixedThreadPool(commandLineArguments.hashThreads);
+		List<Future<Boolean>> results = new ArrayList<>();
+		for (ModifiedFile modifiedFile : modifiedFiles) {
+			results.add(executorService.submit(() -> hasSameContent(modifiedFile)));
+		}
+
+		long unchangedFiles = 0;
+		long unchangedBytes = 0;
+
+		try {
+
+			for (int i = 0; i < modifiedFiles.size(); i++) {
+
+				ModifiedFile modifiedFile = modifiedFiles.get(i);
+				AFile sourceFile = modifiedFile.sourceFile;
+				AFile destFile = modifiedFile.destFile;
+
+				if (results.get(i).get()) {
+
+					Logger.log("   Not copying updated file " + modifiedFile.logPath + " - only the timestamp changed, the contents are the same as in " + destFile.getPathToBackup());
+					destFile.setts(sourceFile.getts());
+					unchangedFiles++;
+					unchangedBytes += modifiedFile.size;
+
+				} else {
+
+	            	// create logtext depending if getts > or <
+	            	String additionalLogTextString = "";
+	            	if (sourceFile.getts() < destFile.getts()) {
+	            		additionalLogTextString = " - this file has an older date in the source, looks like an older/restored version was stored.";
+	            	}
+
+	            	backupPlan.addPreviousVersion(modifiedFile.logPath, destFile);
+	            	destFile.setts(sourceFile.getts());
+	                Logger.log("   Copying updated file " + modifiedFile.logPath + additionalLogTextString);
+
+	                destFile.setPathToBackup(backupFolderName);
+	                destFile.setStoredAt(null);
+	                destFile.setChunks(null);
+
+	                backupPlan.addFile(modifiedFile.logPath, modifiedFile.size, sourceFile.getts());
+
+				}
+
+			}
+
+		} catch (InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+			Logger.log("Exception while comparing the contents of files");
+			Logger.log(e.toString());
+			System.exit(1);
+		} finally {
+			executorService.shutdown();
+		}
+
+		Logger.log("Comparing the contents of " + modifiedFiles.size() + " file(s) with a new timestamp took " + (System.currentTimeMillis() - startTimeStamp) + " ms, " + unchangedFiles + " file(s) (" + (unchangedBytes / 1024 / 1024) + " MB) have the same contents and are not copied");
+
+	}
+
+	/**
+	 * writes hashcache.json in the destination folder
+	 */
+	public void writeHashCache() {
+
+		try {
+
+			Logger.log("Writing " + Constants.HASHCACHE_FILENAME + " to " + destinationFolderPath.toString());
+
+			WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(hashCache), destinationFolderPath.toString() + File.separator + Constants.HASHCACHE_FILENAME);
+
+		} catch (IOException e) {
+			Logger.log("Failed to write json file " + Constants.HASHCACHE_FILENAME + " to  " + destinationFolderPath.toString());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * compares the file in the source with the copy in the backup, called in one of the hash threads<br>
+	 * Also sets modifiedFile.size and adds the hash of the file in the source to hashCache
+	 * @return true if the size and the hash are the same
+	 */
+	private boolean hasSameContent(ModifiedFile modifiedFile) throws IOException {
+
+		AFile sourceFile = modifiedFile.sourceFile;
+		AFile destFile = modifiedFile.destFile;
+
+		modifiedFile.size = FileAndFolderUtilities.getSize(sourceFile, modifiedFile.folderPath);
+
+		String storedAt = (destFile.getStoredAt() != null) ? destFile.getStoredAt() : FileAndFolderUtilities.getPathInBackup(modifiedFile.logPath, commandLineArguments);
+		Path storedPath = destinationFolderPath.resolve(destFile.getPathToBackup()).resolve(storedAt);
+
+		// a different size means different contents, no need to read the file. If the copy is not found, the file needs to be copied anyway
+		long storedSize;
+		try {
+			storedSize = Files.size(storedPath);
+		} catch (IOException e) {
+			return false;
+		}
+		if (storedSize != modifiedFile.size) {return false;}
+
+		String relativePath = modifiedFile.logPath.replace(File.separatorChar, '/');
+
+		String storedHash = hashCache.getHash(relativePath, storedSize, destFile.getts());
+		if (storedHash == null) {
+			storedHash = hash(storedPath);
+		}
+
+		String sourceHash = hashCache.getHash(relativePath, modifiedFile.size, sourceFile.getts());
+		if (sourceHash == null) {
+			sourceHash = hash(modifiedFile.folderPath.resolve(sourceFile.getName()));
+			hashCache.putHash(relativePath, modifiedFile.size, sourceFile.getts(), sourceHash);
+		}
+
+		return storedHash.equals(sourceHash);
+
+	}
+
+	/**
+	 * calculates the hash of a file, reading it block by block
+	 * @return the hash, hexadecimal
+	 */
+	private String hash(Path path) throws IOException {
+
+		MessageDigest messageDigest;
+		try {
+			messageDigest = MessageDigest.getInstance(Constants.HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		ByteBuffer buffer = buffers.get();
+
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer.clear();
+			while (fileChannel.read(buffer) >= 0) {
+				buffer.flip();
+				messageDigest.update(buffer);
+				buffer.clear();
+			}
+		}
+
+		return HexFormat.of().formatHex(messageDigest.digest());
+
+	}
+
+	/**
+	 * a file with a new timestamp in the source
+	 */
+	private static class ModifiedFile {
+
+		private final AFile sourceFile;
+
+		private final AFile destFile;
+
+		/**
+		 * path relative to the source folder, with the platform separator
+		 */
+		private final String logPath;
+
+		/**
+		 * folder in the source that has the file
+		 */
+		private final Path folderPath;
+
+		/**
+		 * size of the file in the source, set by hasSameContent
+		 */
+		private long size;
+
+		ModifiedFile(AFile sourceFile, AFile destFile, String logPath, Path folderPath) {
+			this.sourceFile = sourceFile;
+			this.destFile = destFile;
+			this.logPath = logPath;
+			this.folderPath = folderPath;
+		}
+
+	}
+
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyJob;
+
+/**
+ * copies files from the source to the backup in separate threads, while the source is still being read and compared<br>
+ * Jobs are added with submit. The queues are bounded, submit waits if the copy threads can not follow.<br>
+ * With copythreads = 1 there's one copy thread. With more threads, the files are split in two lanes, each with its own queue and threads: files smaller than
+ * Constants.COPY_LARGE_FILE_SIZE and new folders in the small lane, larger files in the large lane, with a quarter of the threads. So a few large files don't
+ * keep the small files waiting.<br>
+ * With a deadline, the jobs that are taken from the queue after the deadline are not done, they're returned by getNotCopied. A file in the large lane can be copied
+ * before the job of its new folder is taken in the small lane, such a folder is still created after the deadline. And nothing is copied in a new folder that was skipped.
+ */
+public class CopyStage {
+
+	/**
+	 * one queue with the threads that take jobs from it
+	 */
+	private static class Lane {
+
+		private final String name;
+
+		private final BlockingQueue<CopyJob> queue = new ArrayBlockingQueue<>(Constants.PIPELINE_COPY_QUEUE_SIZE);
+
+		private final List<Thread> threads = new ArrayList<>();
+
+		private final AtomicLong copiedFiles = new AtomicLong();
+
+		private final AtomicLong copiedBytes = new AtomicLong();
+
+		/**
+		 * timestamp when the first file in this lane started copying, 0 if none yet
+		 */
+		private volatile long firstCopyTimeStamp = 0;
+
+		/**
+		 * timestamp when the last file in this lane was copied
+		 */
+		private volatile long lastCopyTimeStamp = 0;
+
+		Lane(String name) {
+			this.name = name;
+		}
+
+	}
+
+	/**
+	 * added by finish, once per thread, tells a copy thread there are no more jobs
+	 */
+	private static final CopyJob END = new CopyJob(null, null, false);
+
+	private final CommandLineArguments commandLineArguments;
+
+	/**
+	 * how the files are copied, see CopyStrategySelector
+	 */
+	private final CopyStrategySelector copyStrategySelector;
+
+	/**
+	 * lane for the new folders and the files smaller than Constants.COPY_LARGE_FILE_SIZE, the only lane with one copy thread
+	 */
+	private final Lane smallFiles;
+
+	/**
+	 * lane for the files of at least Constants.COPY_LARGE_FILE_SIZE, null with one copy thread
+	 */
+	private final Lane largeFiles;
+
+	/**
+	 * folders that are known to exist in the backup
+	 */
+	private final Set<Path> createdFolders = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * new folders that were not created because of the deadline, nothing may be created in them anymore<br>
+	 * Also the lock for the decision to create or to skip a folder, when there's a deadline
+	 */
+	private final Set<Path> skippedFolders = new HashSet<>();
+
+	/**
+	 * timestamp when the first file was copied, 0 if none yet
+	 */
+	private volatile long firstCopyTimeStamp = 0;
+
+	private final AtomicLong createdFolderCount = new AtomicLong();
+
+	/**
+	 * timestamp after which no more jobs are done, 0 means no deadline
+	 */
+	private long deadlineTimeStamp = 0;
+
+	/**
+	 * the jobs that were not done because of the deadline
+	 */
+	private final List<CopyJob> notCopied = Collections.synchronizedList(new ArrayList<>());
+
+	public CopyStage(CommandLineArguments commandLineArguments) {
+
+		this.commandLineArguments = commandLineArguments;
+		this.copyStrategySelector = CopyStrategySelector.forBackup(commandLineArguments);
+
+		int copyThreads = Math.max(1, commandLineArguments.copyThreads);
+
+		if (copyThreads == 1) {
+			smallFiles = new Lane("copy");
+			largeFiles = null;
+			addThreads(smallFiles, 1);
+		} else {
+			int largeFilesThreads = Math.max(1, copyThreads / 4);
+			smallFiles = new Lane("small files");
+			largeFiles = new Lane("large files");
+			addThreads(smallFiles, copyThreads - largeFilesThreads);
+			addThreads(largeFiles, largeFilesThreads);
+		}
+
+	}
+
+	/**
+	 * to call before start
+	 * @param deadlineTimeStamp timestamp after which no more jobs are done, 0 means no deadline
+	 */
+	public void setDeadline(long deadlineTimeStamp) {
+		this.deadlineTimeStamp = deadlineTimeStamp;
+	}
+
+	public void start() {
+		for (Lane lane : getLanes()) {
+			for (Thread thread : lane.threads) {
+				thread.start();
+			}
+		}
+	}
+
+	/**
+	 * adds a job, waits if the queue of its lane is full
+	 * @param copyJob
+	 */
+	public void submit(CopyJob copyJob) {
+		put(getLane(copyJob), copyJob);
+	}
+
+	/**
+	 * waits until all submitted jobs are done
+	 * @param startTimeStamp start of the backup, to log how long it took before the first file was copied
+	 */
+	public void finish(long startTimeStamp) {
+
+		for (Lane lane : getLanes()) {
+			for (int i = 0; i < lane.threads.size(); i++) {
+				put(lane, END);
+			}
+		}
+
+		try {
+			for (Lane lane : getLanes()) {
+				for (Thread thread : lane.threads) {
+					thread.join();
+				}
+			}
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while waiting for the copy threads");
+			System.exit(1);
+		}
+
+		Logger.log("Copied " + getCopiedFiles() + " file(s) and created " + createdFolderCount.get() + " new folder(s)" + (firstCopyTimeStamp == 0 ? "" : ", first file copied " + (firstCopyTimeStamp - startTimeStamp) + " ms after the start"));
+
+		if (largeFiles != null) {
+			for (Lane lane : getLanes()) {
+				long duration = Math.max(1, lane.lastCopyTimeStamp - lane.firstCopyTimeStamp);
+				Logger.log("   " + lane.name + ": " + lane.copiedFiles.get() + " file(s), " + (lane.copiedBytes.get() / 1024 / 1024) + " MB with " + lane.threads.size() + " thread(s)"
+						+ (lane.firstCopyTimeStamp == 0 ? "" : " in " + duration + " ms (" + String.format("%.1f", lane.copiedBytes.get() / 1024.0 / 1024.0 / (duration / 1000.0)) + " MB/s, " + String.format("%.0f", lane.copiedFiles.get() / (duration / 1000.0)) + " files/s)"));
+			}
+		}
+
+	}
+
+	/**
+	 * to call after finish
+	 * @return the jobs that were not done because the deadline was reached
+	 */
+	public List<CopyJob> getNotCopied() {
+		return notCopied;
+	}
+
+	/**
+	 * to call after finish
+	 * @return the number of files copied
+	 */
+	public long getCopiedFiles() {
+		long copiedFiles = 0;
+		for (Lane lane : getLanes()) {
+			copiedFiles += lane.copiedFiles.get();
+		}
+		return copiedFiles;
+	}
+
+	/**
+	 * to call after finish
+	 * @return the number of bytes copied
+	 */
+	public long getCopiedBytes() {
+		long copiedBytes = 0;
+		for (Lane lane : getLanes()) {
+			copiedBytes += lane.copiedBytes.get();
+		}
+		return copiedBytes;
+	}
+
+	private List<Lane> getLanes() {
+		return (largeFiles == null) ? List.of(smallFiles) : List.of(smallFiles, largeFiles);
+	}
+
+	private void addThreads(Lane lane, int numberOfThreads) {
+		for (int i = 0; i < numberOfThreads; i++) {
+			lane.threads.add(new Thread(() -> copyJobs(lane), (numberOfThreads == 1) ? lane.name : lane.name + "-" + i));
+		}
+	}
+
+	/**
+	 * the lane for copyJob, if the size is not known it's read from the source
+	 */
+	private Lane getLane(CopyJob copyJob) {
+
+		if (largeFiles == null || copyJob.isFolder()) {return smallFiles;}
+
+		long size = copyJob.getSize();
+		if (size < 0) {
+			try {
+				size = Files.size(copyJob.getSource());
+			} catch (IOException e) {
+				// the copy will fail and report it
+				return smallFiles;
+			}
+		}
+
+		return (size >= Constants.COPY_LARGE_FILE_SIZE) ? largeFiles : smallFiles;
+
+	}
+
+	private void put(Lane lane, CopyJob copyJob) {
+		try {
+			lane.queue.put(copyJob);
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while adding a file to the copy queue");
+			System.exit(1);
+		}
+	}
+
+	private void copyJobs(Lane lane) {
+
+		try {
+
+			for (CopyJob copyJob = lane.queue.take(); copyJob != END; copyJob = lane.queue.take()) {
+				boolean afterDeadline = deadlineTimeStamp > 0 && System.currentTimeMillis() >= deadlineTimeStamp;
+				if (afterDeadline && !copyJob.isFolder()) {
+					notCopied.add(copyJob);
+				} else {
+					copy(copyJob, lane, afterDeadline);
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Logger.log("Copy thread interrupted");
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * @param afterDeadline true if the job was taken from the queue after the deadline, only for a folder
+	 */
+	private void copy(CopyJob copyJob, Lane lane, boolean afterDeadline) {
+
+		Path destination = copyJob.getDestination();
+
+		try {
+
+			if (copyJob.isFolder()) {
+
+				if (!createFolder(destination, afterDeadline)) {
+					notCopied.add(copyJob);
+					return;
+				}
+				createdFolderCount.incrementAndGet();
+
+			} else {
+
+				// create the folder in the destination if it doesn't exist yet, it's only added to createdFolders when it exists, another thread may be creating it
+				if (!createdFolders.contains(destination.getParent()) && !createFolder(destination.getParent(), false)) {
+					notCopied.add(copyJob);
+					return;
+				}
+
+				// the start, not the end, of the first copy, otherwise a lane with one large file shows no duration
+				if (lane.firstCopyTimeStamp == 0) {lane.firstCopyTimeStamp = System.currentTimeMillis();}
+
+				copyStrategySelector.copy(copyJob.getSource(), destination, copyJob.getSize(), false);
+
+				long now = System.currentTimeMillis();
+				if (firstCopyTimeStamp == 0) {firstCopyTimeStamp = now;}
+				lane.lastCopyTimeStamp = now;
+				lane.copiedFiles.incrementAndGet();
+				// the source, with chunkstore there's no file at destination
+				lane.copiedBytes.addAndGet((copyJob.getSize() >= 0) ? copyJob.getSize() : Files.size(copyJob.getSource()));
+
+			}
+
+			if (commandLineArguments.addpathlengthforfolderswithnewormodifiedcontent) {
+				System.out.println("path length = " + String.format("%5s", destination.toString().length()) + "; path = " + destination.toString());
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in CopyStage while copying " + copyJob.getSource().toString() + " to " + destination.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+	}
+
+	/**
+	 * creates folder and its parents if they don't exist, and adds it to createdFolders<br>
+	 * With a deadline, the folder is not created if it is in a folder that was skipped
+	 * @param folder
+	 * @param afterDeadline true for the job of a new folder that was taken after the deadline, it's skipped unless a file in the other lane already created it
+	 * @return false if the folder is not created because of the deadline
+	 * @throws IOException
+	 */
+	private boolean createFolder(Path folder, boolean afterDeadline) throws IOException {
+
+		if (deadlineTimeStamp == 0) {
+			Files.createDirectories(folder);
+			createdFolders.add(folder);
+			return true;
+		}
+
+		synchronized (skippedFolders) {
+
+			if (afterDeadline) {
+				if (!Files.exists(folder)) {
+					skippedFolders.add(folder);
+					return false;
+				}
+			} else if (!skippedFolders.isEmpty()) {
+				for (Path parent = folder; parent != null; parent = parent.getParent()) {
+					if (skippedFolders.contains(parent)) {return false;}
+				}
+			}
+
+			Files.createDirectories(folder);
+
+		}
+
+		createdFolders.add(folder);
+		return true;
+
+	}
+
+}
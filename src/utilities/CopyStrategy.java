@@ -0,0 +1,402 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+import model.Constants;
+
+/**
+ * the ways to copy a file, the strategy to use is chosen per file size by CopyStrategySelector<br>
+ * All strategies keep the timestamps and the permissions of the source, as Files.copy with COPY_ATTRIBUTES, and fail with FileAlreadyExistsException if the destination exists and replaceExisting is false.
+ */
+public enum CopyStrategy {
+
+	/**
+	 * Files.copy with COPY_ATTRIBUTES, as done before there were strategies
+	 */
+	FILESCOPY {
+		@Override
+		public void copy(Path source, Path destination, boolean replaceExisting, ContentHash contentHash) throws IOException {
+			// Files.copy doesn't give the bytes
+			if (contentHash != null) {
+				BUFFERED.copy(source, destination, replaceExisting, contentHash);
+				return;
+			}
+			if (replaceExisting) {
+				Files.copy(source, destination, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.copy(source, destination, StandardCopyOption.COPY_ATTRIBUTES);
+			}
+		}
+	},
+
+	/**
+	 * FileChannel.transferTo, on most systems the bytes are copied by the kernel without passing through the java heap
+	 */
+	TRANSFER {
+		@Override
+		public void copy(Path source, Path destination, boolean replaceExisting, ContentHash contentHash) throws IOException {
+
+			// the bytes are copied by the kernel, they can't be hashed
+			if (contentHash != null) {
+				BUFFERED.copy(source, destination, replaceExisting, contentHash);
+				return;
+			}
+
+			BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+
+			try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ); FileChannel out = FileChannel.open(destination, getWriteOptions(replaceExisting))) {
+				long size = in.size();
+				long position = 0;
+				while (position < size) {
+					long transferred = in.transferTo(position, size - position, out);
+					// the file became smaller while copying
+					if (transferred <= 0) {break;}
+					position += transferred;
+				}
+			}
+
+			OtherUtilities.copyAttributes(source, destination, attributes);
+
+		}
+	},
+
+	/**
+	 * two buffers of Constants.COPY_BUFFER_SIZE, the next part of the file is read while the previous part is written
+	 */
+	BUFFERED {
+		@Override
+		public void copy(Path source, Path destination, boolean replaceExisting, ContentHash contentHash) throws IOException {
+
+			BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+			ByteBuffer[] buffers = BUFFERS.get();
+
+			try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ); FileChannel out = FileChannel.open(destination, getWriteOptions(replaceExisting))) {
+
+				// a file that fits in one buffer is read and written without the reader thread
+				if (in.size() <= Constants.COPY_BUFFER_SIZE) {
+					ByteBuffer buffer = buffers[0];
+					buffer.clear();
+					readFully(in, buffer);
+					buffer.flip();
+					hash(contentHash, buffer);
+					writeFully(out, buffer);
+				} else {
+					copyDoubleBuffered(in, out, buffers, contentHash);
+				}
+
+			}
+
+			OtherUtilities.copyAttributes(source, destination, attributes);
+
+		}
+	},
+
+	/**
+	 * read and write with ExtendedOpenOption.DIRECT, bypassing the page cache, so a large backup doesn't push everything else out of memory<br>
+	 * If the filesystem of the source or the destination doesn't support it (eg tmpfs, or on Windows for some file systems), TRANSFER is used
+	 */
+	DIRECT {
+		@Override
+		public void copy(Path source, Path destination, boolean replaceExisting, ContentHash contentHash) throws IOException {
+
+			BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+			boolean destinationExisted = Files.exists(destination);
+
+			FileChannel in = openDirect(source, StandardOpenOption.READ);
+			FileChannel out;
+			try {
+				out = (in == null) ? null : openDirect(destination, getWriteOptions(replaceExisting));
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+
+			if (out == null) {
+				if (in != null) {in.close();}
+				// the failed open may have created the file
+				if (!destinationExisted) {Files.deleteIfExists(destination);}
+				TRANSFER.copy(source, destination, replaceExisting, contentHash);
+				return;
+			}
+
+			try (in; out) {
+
+				ByteBuffer buffer = DIRECT_BUFFER.get();
+				int blockSize = Constants.COPY_DIRECT_BLOCK_SIZE;
+				long size = 0;
+
+				while (true) {
+
+					// one read per part, with DIRECT a read only returns less than the buffer at the end of the file, and the next read must start at a complete block
+					buffer.clear();
+					int read = in.read(buffer);
+					if (read <= 0) {break;}
+					size += read;
+
+					// only the bytes read, not the padding
+					hash(contentHash, buffer.duplicate().flip());
+
+					// the last part is written as a complete block, the file is truncated afterwards
+					if (read % blockSize != 0) {
+						int padded = (read / blockSize + 1) * blockSize;
+						while (buffer.position() < padded) {
+							buffer.put((byte)0);
+						}
+					}
+
+					buffer.flip();
+					writeFully(out, buffer);
+
+					if (read % blockSize != 0) {break;}
+
+				}
+
+				out.truncate(size);
+
+			}
+
+			OtherUtilities.copyAttributes(source, destination, attributes);
+
+		}
+	};
+
+	/**
+	 * per copy thread, the two buffers for BUFFERED
+	 */
+	private static final ThreadLocal<ByteBuffer[]> BUFFERS = ThreadLocal.withInitial(() -> new ByteBuffer[] {ByteBuffer.allocateDirect(Constants.COPY_BUFFER_SIZE), ByteBuffer.allocateDirect(Constants.COPY_BUFFER_SIZE)});
+
+	/**
+	 * per copy thread, the buffer for DIRECT, aligned to Constants.COPY_DIRECT_BLOCK_SIZE
+	 */
+	private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.COPY_BUFFER_SIZE + Constants.COPY_DIRECT_BLOCK_SIZE).alignedSlice(Constants.COPY_DIRECT_BLOCK_SIZE));
+
+	/**
+	 * reads ahead for BUFFERED, the threads are daemon threads so they don't keep the program running
+	 */
+	private static final ExecutorService READER = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "copy-read-ahead");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * copies source to destination
+	 * @param source
+	 * @param destination the parent folder must exist
+	 * @param replaceExisting if false and destination exists, FileAlreadyExistsException is thrown
+	 * @throws IOException
+	 */
+	public void copy(Path source, Path destination, boolean replaceExisting) throws IOException {
+		copy(source, destination, replaceExisting, null);
+	}
+
+	/**
+	 * copies source to destination, and adds the bytes that are written to contentHash. filescopy and transfer don't read the bytes themselves, they copy
+	 * with buffered if contentHash is not null
+	 * @param contentHash null if no hash is needed
+	 */
+	public abstract void copy(Path source, Path destination, boolean replaceExisting, ContentHash contentHash) throws IOException;
+
+	/**
+	 * @return the name as used in the arguments and in copystrategy.json
+	 */
+	public String getName() {
+		return name().toLowerCase();
+	}
+
+	/**
+	 * @param name as used in the arguments and in copystrategy.json, not case sensitive
+	 * @return the strategy, null if there's no strategy with that name
+	 */
+	public static CopyStrategy fromName(String name) {
+		for (CopyStrategy copyStrategy : values()) {
+			if (copyStrategy.getName().equalsIgnoreCase(name)) {
+				return copyStrategy;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param folder an existing folder
+	 * @return true if a file in folder can be opened with ExtendedOpenOption.DIRECT, a test file is created and deleted
+	 */
+	public static boolean isDirectSupported(Path folder) {
+
+		Path testFile = folder.resolve(Constants.COPY_DIRECT_TEST_FILENAME);
+
+		try {
+			FileChannel channel = openDirect(testFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+			if (channel == null) {return false;}
+			channel.close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				Files.deleteIfExists(testFile);
+			} catch (IOException e) {
+				Logger.log("Failed to delete " + testFile.toString());
+			}
+		}
+
+	}
+
+	static OpenOption[] getWriteOptions(boolean replaceExisting) {
+		if (replaceExisting) {
+			return new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+		}
+		return new OpenOption[] {StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW};
+	}
+
+	/**
+	 * opens path with ExtendedOpenOption.DIRECT added to options
+	 * @return null if DIRECT is not supported for path
+	 * @throws IOException only FileAlreadyExistsException, other exceptions are left to the fallback
+	 */
+	private static FileChannel openDirect(Path path, OpenOption... options) throws IOException {
+
+		OpenOption[] directOptions = new OpenOption[options.length + 1];
+		System.arraycopy(options, 0, directOptions, 0, options.length);
+		directOptions[options.length] = ExtendedOpenOption.DIRECT;
+
+		try {
+			return FileChannel.open(path, directOptions);
+		} catch (FileAlreadyExistsException e) {
+			throw e;
+		} catch (UnsupportedOperationException | IOException e) {
+			return null;
+		}
+
+	}
+
+	/**
+	 * copies in parts of Constants.COPY_BUFFER_SIZE, while a part is written, the next part is read by READER
+	 */
+	private static void copyDoubleBuffered(FileChannel in, FileChannel out, ByteBuffer[] buffers, ContentHash contentHash) throws IOException {
+
+		int current = 0;
+		Future<Integer> read = READER.submit(() -> readFully(in, clear(buffers[0])));
+
+		try {
+
+			while (read.get() > 0) {
+
+				ByteBuffer full = buffers[current];
+				current = 1 - current;
+				ByteBuffer next = buffers[current];
+				read = READER.submit(() -> readFully(in, clear(next)));
+
+				full.flip();
+				hash(contentHash, full);
+				writeFully(out, full);
+
+			}
+
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while copying", e);
+		} catch (ExecutionException e) {
+			throw (e.getCause() instanceof IOException) ? (IOException)e.getCause() : new IOException(e.getCause());
+		} finally {
+			// if the write failed, the read ahead is still filling a buffer of this thread, which the next copy would use
+			waitForRead(read);
+		}
+
+	}
+
+	/**
+	 * waits until read is done, the result and the exception are ignored<br>
+	 * The read is not cancelled, a cancelled Future can not be waited for, and it only reads one buffer
+	 */
+	private static void waitForRead(Future<Integer> read) {
+
+		boolean interrupted = false;
+
+		while (true) {
+			try {
+				read.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException | CancellationException e) {
+				break;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+	}
+
+	/**
+	 * adds the remaining bytes of buffer to contentHash, if not null, without moving the position of buffer
+	 */
+	private static void hash(ContentHash contentHash, ByteBuffer buffer) {
+		if (contentHash != null) {
+			contentHash.update(buffer.duplicate());
+		}
+	}
+
+	private static ByteBuffer clear(ByteBuffer buffer) {
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * reads until buffer is full or the end of the file
+	 * @return the number of bytes read, -1 at the end of the file
+	 */
+	private static int readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int read = in.read(buffer);
+			if (read < 0) {
+				return (total == 0) ? -1 : total;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+}
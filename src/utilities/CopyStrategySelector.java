@@ -0,0 +1,274 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyCalibration;
+
+/**
+ * chooses the CopyStrategy for a file, depending on its size<br>
+ * - with the argument copystrategy, that strategy is used for all files<br>
+ * - otherwise, for a backup, the strategies in copystrategy.json in the destination folder, as found by calibrate (type T)<br>
+ * - otherwise FILESCOPY<br>
+ * With chunkthreads, files of Constants.CHUNKED_COPY_MIN_SIZE or more are copied in parts by ChunkedCopier, whatever the strategy.<br>
+ * With chunkstore, a backup doesn't copy, all files are stored in the ChunkStore.<br>
+ * With dedup, files are hashed while they're copied, and not kept if the DedupIndex has a stored copy.
+ */
+public class CopyStrategySelector {
+
+	/**
+	 * per size class, the largest size + 1, sorted, the last one is Long.MAX_VALUE
+	 */
+	private final long[] maxSizes;
+
+	/**
+	 * per size class, the strategy
+	 */
+	private final CopyStrategy[] strategies;
+
+	/**
+	 * number of threads that copy a large file in parts, 1 means large files are copied with their strategy
+	 */
+	private int chunkThreads = 1;
+
+	/**
+	 * if not null, files are stored in the chunk store instead of copied
+	 */
+	private ChunkStore chunkStore = null;
+
+	/**
+	 * if not null, files are hashed and not copied if the same contents are already stored in a backup
+	 */
+	private DedupIndex dedupIndex = null;
+
+	/**
+	 * per copy thread, with dedup, the buffer for files smaller than Constants.COPY_BUFFER_SIZE, one byte larger to see if a file became larger
+	 */
+	private static final ThreadLocal<ByteBuffer> DEDUP_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.COPY_BUFFER_SIZE + 1));
+
+	private CopyStrategySelector(long[] maxSizes, CopyStrategy[] strategies) {
+		this.maxSizes = maxSizes;
+		this.strategies = strategies;
+	}
+
+	/**
+	 * the strategies to copy from the source to the destination
+	 * @param commandLineArguments
+	 */
+	public static CopyStrategySelector forBackup(CommandLineArguments commandLineArguments) {
+		CopyStrategySelector copyStrategySelector = readStrategies(commandLineArguments);
+		copyStrategySelector.chunkThreads = commandLineArguments.chunkThreads;
+		if (commandLineArguments.chunkStore) {
+			copyStrategySelector.chunkStore = ChunkStore.getInstance();
+		}
+		if (commandLineArguments.dedup) {
+			copyStrategySelector.dedupIndex = DedupIndex.getInstance();
+		}
+		return copyStrategySelector;
+	}
+
+	private static CopyStrategySelector readStrategies(CommandLineArguments commandLineArguments) {
+
+		if (commandLineArguments.copyStrategy != null) {
+			return forStrategy(commandLineArguments.copyStrategy);
+		}
+
+		Path calibrationPath = Paths.get(commandLineArguments.destination).resolve(Constants.COPYCALIBRATION_FILENAME);
+		if (!Files.exists(calibrationPath)) {
+			return forStrategy(CopyStrategy.FILESCOPY);
+		}
+
+		try {
+
+			List<CopyCalibration.SizeClass> sizeClasses = (new ObjectMapper()).readValue(Files.readString(calibrationPath, StandardCharsets.UTF_8), CopyCalibration.class).getSizeClasses();
+
+			long[] maxSizes = new long[sizeClasses.size()];
+			CopyStrategy[] strategies = new CopyStrategy[sizeClasses.size()];
+			StringBuilder logText = new StringBuilder();
+
+			for (int i = 0; i < sizeClasses.size(); i++) {
+				maxSizes[i] = (i == sizeClasses.size() - 1) ? Long.MAX_VALUE : sizeClasses.get(i).getMaxSize();
+				strategies[i] = CopyStrategy.fromName(sizeClasses.get(i).getStrategy());
+				if (strategies[i] == null) {
+					Logger.log("Unknown copy strategy " + sizeClasses.get(i).getStrategy() + " in " + calibrationPath.toString() + ", " + CopyStrategy.FILESCOPY.getName() + " is used");
+					strategies[i] = CopyStrategy.FILESCOPY;
+				}
+				logText.append((i == 0) ? "" : ", ").append((maxSizes[i] == Long.MAX_VALUE) ? "larger files" : "smaller than " + (maxSizes[i] / 1024) + " KB").append(": ").append(strategies[i].getName());
+			}
+
+			if (strategies.length == 0) {
+				return forStrategy(CopyStrategy.FILESCOPY);
+			}
+
+			Logger.log("Copy strategies from " + Constants.COPYCALIBRATION_FILENAME + ": " + logText.toString());
+			return new CopyStrategySelector(maxSizes, strategies);
+
+		} catch (IOException e) {
+			Logger.log("Exception while reading " + calibrationPath.toString() + ", " + CopyStrategy.FILESCOPY.getName() + " is used");
+			Logger.log(e.toString());
+			return forStrategy(CopyStrategy.FILESCOPY);
+		}
+
+	}
+
+	/**
+	 * the strategy to copy from a backup to the restore folder, copystrategy.json is not used because it's measured in the other direction
+	 * @param commandLineArguments
+	 */
+	public static CopyStrategySelector forRestore(CommandLineArguments commandLineArguments) {
+		CopyStrategySelector copyStrategySelector = forStrategy((commandLineArguments.copyStrategy != null) ? commandLineArguments.copyStrategy : CopyStrategy.FILESCOPY);
+		copyStrategySelector.chunkThreads = commandLineArguments.chunkThreads;
+		return copyStrategySelector;
+	}
+
+	/**
+	 * @return a selector that uses copyStrategy for all files
+	 */
+	public static CopyStrategySelector forStrategy(CopyStrategy copyStrategy) {
+		return new CopyStrategySelector(new long[] {Long.MAX_VALUE}, new CopyStrategy[] {copyStrategy});
+	}
+
+	/**
+	 * @param size size of the file
+	 */
+	public CopyStrategy select(long size) {
+		for (int i = 0; i < maxSizes.length - 1; i++) {
+			if (size < maxSizes[i]) {
+				return strategies[i];
+			}
+		}
+		return strategies[strategies.length - 1];
+	}
+
+	/**
+	 * copies source to destination with the strategy for its size, or in parts if it's large and chunkthreads is set. With dedup it's not copied if the same contents are already stored in a backup
+	 * @param size size of the source, -1 if not known, then it's read from the source if needed
+	 * @param replaceExisting if false and destination exists, FileAlreadyExistsException is thrown
+	 */
+	public void copy(Path source, Path destination, long size, boolean replaceExisting) throws IOException {
+
+		if (chunkStore != null) {
+			chunkStore.store(source, destination);
+			return;
+		}
+
+		if (size < 0 && (strategies.length > 1 || chunkThreads > 1 || dedupIndex != null)) {
+			size = Files.size(source);
+		}
+
+		// an empty file takes no space, there's nothing to gain
+		if (dedupIndex != null && size > 0) {
+			copyWithDedup(source, destination, size, replaceExisting);
+			return;
+		}
+
+		if (chunkThreads > 1 && size >= Constants.CHUNKED_COPY_MIN_SIZE) {
+			ChunkedCopier.copy(source, destination, chunkThreads, replaceExisting);
+			return;
+		}
+
+		select(size).copy(source, destination, replaceExisting);
+
+	}
+
+	/**
+	 * copies source to destination and hashes it while it's read, see DedupIndex. The hash is of the bytes that are written, also if the source is modified while
+	 * it's copied<br>
+	 * A file that fits in DEDUP_BUFFER is read and hashed first, and only written if there's no stored copy. A larger file is hashed while it's copied, and
+	 * deleted again if there's a stored copy.
+	 */
+	private void copyWithDedup(Path source, Path destination, long size, boolean replaceExisting) throws IOException {
+
+		ContentHash contentHash = new ContentHash();
+
+		if (size <= Constants.COPY_BUFFER_SIZE) {
+
+			BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+			ByteBuffer buffer = DEDUP_BUFFER.get();
+			buffer.clear();
+
+			try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+				while (buffer.hasRemaining() && in.read(buffer) >= 0) {}
+			}
+
+			// if the buffer is full, the source became larger after its size was read, it's copied as a large file
+			if (buffer.hasRemaining()) {
+
+				buffer.flip();
+				contentHash.update(buffer.duplicate());
+				byte[] hash = contentHash.digest();
+
+				if (dedupIndex.useStoredCopy(hash, contentHash.getSize(), destination)) {
+					return;
+				}
+
+				try (FileChannel out = FileChannel.open(destination, CopyStrategy.getWriteOptions(replaceExisting))) {
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+				}
+				OtherUtilities.copyAttributes(source, destination, attributes);
+
+				dedupIndex.add(hash, contentHash.getSize(), destination);
+				return;
+
+			}
+
+			contentHash = new ContentHash();
+
+		}
+
+		if (chunkThreads > 1 && size >= Constants.CHUNKED_COPY_MIN_SIZE) {
+			ChunkedCopier.copy(source, destination, chunkThreads, replaceExisting, contentHash);
+		} else {
+			select(size).copy(source, destination, replaceExisting, contentHash);
+		}
+
+		byte[] hash = contentHash.digest();
+
+		// if not all bytes that are written are hashed, because the source became smaller while it was copied in parts, the copy is kept but not added
+		long copiedSize = Files.size(destination);
+		if (contentHash.getSize() != copiedSize) {
+			return;
+		}
+
+		if (dedupIndex.useStoredCopy(hash, copiedSize, destination)) {
+			Files.delete(destination);
+			return;
+		}
+
+		dedupIndex.add(hash, copiedSize, destination);
+
+	}
+
+}
@@ -24,10 +24,10 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -35,6 +35,7 @@ import model.AFile;
 import model.AFileOrAFolder;
 import model.AFolder;
 import model.CommandLineArguments;
+import model.CopyJob;
 
 public class CreateFullBackup {
 
@@ -54,13 +55,45 @@ public class CreateFullBackup {
 		}
 		
 		// copy files that are in aFileOrAFolderSourceFolder
-		copyFilesAndFoldersFromSourceToDest(listOfFilesAndFoldersInSourceFolder.getFileOrFolderList(), sourceFolderPath, destinationFolderPath, true);
+		if (commandLineArguments.hddMode) {
+			
+			// first create the folders and collect the files, then copy them in the order of the disk
+			List<CopyJob> copyJobs = new ArrayList<>();
+			copyFilesAndFoldersFromSourceToDest(listOfFilesAndFoldersInSourceFolder.getFileOrFolderList(), sourceFolderPath, destinationFolderPath, true, copyJobs::add);
+			SequentialCopier.copy(copyJobs);
+			
+		} else {
+			
+			// the folders are created while going through the list, the files are copied by the copy threads
+			long copyStartTimeStamp = System.currentTimeMillis();
+			CopyStage copyStage = new CopyStage(commandLineArguments);
+			copyStage.start();
+			copyFilesAndFoldersFromSourceToDest(listOfFilesAndFoldersInSourceFolder.getFileOrFolderList(), sourceFolderPath, destinationFolderPath, true, copyStage::submit);
+			copyStage.finish(copyStartTimeStamp);
+			long copiedBytes = copyStage.getCopiedBytes();
+			long duration = Math.max(1, System.currentTimeMillis() - copyStartTimeStamp);
+			Logger.log((copiedBytes / 1024 / 1024) + " MB copied in " + duration + " ms (" + String.format("%.1f", copiedBytes / 1024.0 / 1024.0 / (duration / 1000.0)) + " MB/s)");
+			
+		}
+		
+		// the chunks are added before the foldername mapping, they're found by the path the file would have in the backup folder
+		if (commandLineArguments.chunkStore) {
+			ChunkStore.getInstance().close();
+			ChunkStore.getInstance().addChunkLists(listOfFilesAndFoldersInSourceFolder, destinationFolderPath, destinationFolderPath.getFileName().toString());
+		}
+		
+		// a full backup doesn't point to other backups, its files are only added to the dedup index
+		if (commandLineArguments.dedup) {
+			DedupIndex.getInstance().close();
+		}
 		
 		// do the foldername mapping
 		OtherUtilities.doFolderNameMapping(listOfFilesAndFoldersInSourceFolder, commandLineArguments, destinationFolderPath);
 
 		// store folderlist.json on disk
 		try {
+			FileAndFolderUtilities.calculateDigests(listOfFilesAndFoldersInSourceFolder);
+			
     		// write the json file to destination folder
     		WriteToFile.writeToFile((new ObjectMapper()).writeValueAsString(listOfFilesAndFoldersInSourceFolder), destinationFolderPath.toString() + File.separator + "folderlist.json");
         	
@@ -76,7 +109,11 @@ public class CreateFullBackup {
         return Collections.max(backupFolders);
     }
 
-	private static void copyFilesAndFoldersFromSourceToDest(List<AFileOrAFolder> listOfFilesAndFoldersInSourceFolder, Path sourceFolderPath, Path destinationFolderPath, boolean createEmptyFolders) {
+	/**
+	 * creates the folders in listOfFilesAndFoldersInSourceFolder and gives a CopyJob for each file to copyJobs, recursively
+	 * @param copyJobs receives the files to copy, the folders are already created when a file in it is given
+	 */
+	private static void copyFilesAndFoldersFromSourceToDest(List<AFileOrAFolder> listOfFilesAndFoldersInSourceFolder, Path sourceFolderPath, Path destinationFolderPath, boolean createEmptyFolders, Consumer<CopyJob> copyJobs) {
 
 		for (AFileOrAFolder aFileOrAFolder: listOfFilesAndFoldersInSourceFolder) {
 			
@@ -88,22 +125,8 @@ public class CreateFullBackup {
 			if (aFileOrAFolder instanceof AFile) {
 
 				// we need to copy the file from source to dest
-				
-				try {
-					
-					// no need to create the subfolder here because, as we create all (even empty) folders in the full backup, it's already there
-					
-					Files.copy(sourcePathToCopyFrom, destinationPathToCopyTo, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
-					
-				} catch (IOException e) {
-					
-					e.printStackTrace();
-					
-					Logger.log("Exception occurred while copying from " + sourcePathToCopyFrom.toString() + " to " + destinationPathToCopyTo.toString());
-					
-					System.exit(1);
-					
-				}
+				// no need to create the subfolder here because, as we create all (even empty) folders in the full backup, it's already there
+				copyJobs.accept(new CopyJob(sourcePathToCopyFrom, destinationPathToCopyTo, false, ((AFile)aFileOrAFolder).getSize()));
 				
 			} else if (aFileOrAFolder instanceof AFolder){
 				
@@ -114,7 +137,7 @@ public class CreateFullBackup {
 				
 				AFolder afolder = (AFolder)aFileOrAFolder;
 				
-				copyFilesAndFoldersFromSourceToDest(afolder.getFileOrFolderList(), sourceFolderPath.resolve(afolder.getName()), destinationFolderPath.resolve(afolder.getName()), createEmptyFolders);
+				copyFilesAndFoldersFromSourceToDest(afolder.getFileOrFolderList(), sourceFolderPath.resolve(afolder.getName()), destinationFolderPath.resolve(afolder.getName()), createEmptyFolders, copyJobs);
 				
 			} else {
 				
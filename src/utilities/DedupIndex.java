@@ -0,0 +1,431 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CommandLineArguments;
+import model.Constants;
+
+/**
+ * with dedup, a new or modified file that has the same contents as a file that is already stored in a backup in the destination folder is not copied, the file
+ * in folderlist.json gets the pathToBackup and storedAt of the stored copy, the same as a moved file (see MoveDetector)<br>
+ * Each file is hashed while it's read to be copied, see ContentHash and CopyStrategySelector, so the hash in the index is the hash of the bytes that are stored.
+ * The hash is looked up in the index of the files copied by earlier backups with dedup. A file that is copied is added to the index. A full backup only
+ * adds its files, it doesn't point to other backups.<br>
+ * The index is stored in two files that are only appended to:<br>
+ * - dedupindex.dat, per stored file a record of a fixed size: hash, size and the position of the path in dedupindex-paths.dat<br>
+ * - dedupindex-paths.dat, the paths, backup folder name and path within the backup folder<br>
+ * In memory there are only the first 8 bytes of each hash and the record number, in an open addressing table, about 16 bytes per stored file. The complete record is
+ * read from dedupindex.dat when the first 8 bytes match. A stored copy that no longer exists, or has another size, is not used, the file is copied again and
+ * replaces it in the index.
+ */
+public class DedupIndex {
+
+	/**
+	 * hash, size and position of the path
+	 */
+	private static final int RECORD_SIZE = 32 + 8 + 8;
+
+	private static DedupIndex instance = null;
+
+	/**
+	 * a file that is stored in a backup
+	 */
+	private static class StoredFile {
+
+		private final byte[] hash;
+
+		private final long size;
+
+		/**
+		 * name of the backup folder
+		 */
+		private final String backupFolderName;
+
+		/**
+		 * path within the backup folder, with '/' as separator and the foldername mapping applied, as AFile.storedAt
+		 */
+		private final String storedAt;
+
+		private StoredFile(byte[] hash, long size, String backupFolderName, String storedAt) {
+			this.hash = hash;
+			this.size = size;
+			this.backupFolderName = backupFolderName;
+			this.storedAt = storedAt;
+		}
+
+	}
+
+	/**
+	 * from the first 8 bytes of a hash to a record number, open addressing with linear probing
+	 */
+	private static class HashPrefixTable {
+
+		private long[] prefixes;
+
+		/**
+		 * record number + 1, 0 is an empty slot
+		 */
+		private int[] records;
+
+		private int size = 0;
+
+		private HashPrefixTable(long expectedSize) {
+			int capacity = 16;
+			while (capacity < expectedSize * 4 / 3 + 1) {
+				capacity *= 2;
+			}
+			prefixes = new long[capacity];
+			records = new int[capacity];
+		}
+
+		/**
+		 * @return the record number, -1 if not found
+		 */
+		private int get(long prefix) {
+			int mask = records.length - 1;
+			// the hash is already random, its lowest bits are a good slot
+			for (int slot = (int)prefix & mask; records[slot] != 0; slot = (slot + 1) & mask) {
+				if (prefixes[slot] == prefix) {
+					return records[slot] - 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * adds the record, or replaces the record with the same prefix
+		 */
+		private void put(long prefix, int record) {
+
+			int mask = records.length - 1;
+			int slot = (int)prefix & mask;
+			while (records[slot] != 0 && prefixes[slot] != prefix) {
+				slot = (slot + 1) & mask;
+			}
+
+			if (records[slot] == 0) {
+				size++;
+			}
+			prefixes[slot] = prefix;
+			records[slot] = record + 1;
+
+			if (size > records.length * 3 / 4) {
+				grow();
+			}
+
+		}
+
+		private void grow() {
+			long[] oldPrefixes = prefixes;
+			int[] oldRecords = records;
+			prefixes = new long[oldPrefixes.length * 2];
+			records = new int[oldRecords.length * 2];
+			size = 0;
+			for (int i = 0; i < oldRecords.length; i++) {
+				if (oldRecords[i] != 0) {
+					put(oldPrefixes[i], oldRecords[i] - 1);
+				}
+			}
+		}
+
+	}
+
+	private final Path destinationFolderPath;
+
+	private final CommandLineArguments commandLineArguments;
+
+	private final HashPrefixTable table;
+
+	/**
+	 * number of records in dedupindex.dat when it was read, the records after that are in newFiles
+	 */
+	private final int storedRecords;
+
+	/**
+	 * the files copied in this backup, record number storedRecords + index in the list, they're appended to the index files by close
+	 */
+	private final List<StoredFile> newFiles = new ArrayList<>();
+
+	/**
+	 * per file that is not copied, its path in the backup folder as it would be if it was copied, and the stored copy, see applyDuplicates
+	 */
+	private final Map<Path, StoredFile> duplicates = new ConcurrentHashMap<>();
+
+	private final AtomicLong hashedFiles = new AtomicLong();
+
+	private final AtomicLong hashedBytes = new AtomicLong();
+
+	private final AtomicLong duplicateBytes = new AtomicLong();
+
+	/**
+	 * the index of the destination folder, read the first time
+	 */
+	public static synchronized DedupIndex getInstance() {
+		if (instance == null) {
+			CommandLineArguments commandLineArguments = CommandLineArguments.getInstance();
+			instance = new DedupIndex(Paths.get(commandLineArguments.destination), commandLineArguments);
+		}
+		return instance;
+	}
+
+	private DedupIndex(Path destinationFolderPath, CommandLineArguments commandLineArguments) {
+
+		this.destinationFolderPath = destinationFolderPath;
+		this.commandLineArguments = commandLineArguments;
+
+		Path indexPath = destinationFolderPath.resolve(Constants.DEDUPINDEX_FILENAME);
+		long startTimeStamp = System.currentTimeMillis();
+		int records = 0;
+		HashPrefixTable hashPrefixTable = null;
+
+		try {
+
+			if (Files.exists(indexPath)) {
+
+				records = (int)(Files.size(indexPath) / RECORD_SIZE);
+				hashPrefixTable = new HashPrefixTable(records);
+
+				// only the prefixes are kept, the rest of the record is read when needed
+				ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+				try (FileChannel fileChannel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+					int record = 0;
+					while (record < records) {
+						buffer.clear();
+						buffer.limit(Math.min(buffer.capacity(), (records - record) * RECORD_SIZE));
+						while (buffer.hasRemaining() && fileChannel.read(buffer) >= 0) {}
+						buffer.flip();
+						while (buffer.remaining() >= RECORD_SIZE) {
+							hashPrefixTable.put(buffer.getLong(buffer.position()), record++);
+							buffer.position(buffer.position() + RECORD_SIZE);
+						}
+					}
+				}
+
+				if (Files.size(indexPath) % RECORD_SIZE != 0) {
+					Logger.log("The last record of " + indexPath.toString() + " is not complete, it's removed");
+					try (FileChannel fileChannel = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+						fileChannel.truncate((long)records * RECORD_SIZE);
+					}
+				}
+
+				Logger.log("Read " + records + " stored file(s) from " + Constants.DEDUPINDEX_FILENAME + " in " + (System.currentTimeMillis() - startTimeStamp) + " ms");
+
+			} else {
+				hashPrefixTable = new HashPrefixTable(0);
+			}
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while reading " + indexPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+		this.storedRecords = records;
+		this.table = hashPrefixTable;
+
+	}
+
+	/**
+	 * looks for a stored copy with hash and size. If found, the file is not kept in the new backup, applyDuplicates gives the file in folderlist.json the backup
+	 * folder and path of the stored copy. In a full backup no stored copy is used
+	 * @param hash see ContentHash
+	 * @param destination the path of the file in the backup folder
+	 * @return true if a stored copy is found, then the file must not be written, or must be deleted if it's already written
+	 */
+	public boolean useStoredCopy(byte[] hash, long size, Path destination) throws IOException {
+
+		hashedFiles.incrementAndGet();
+		hashedBytes.addAndGet(size);
+
+		if (commandLineArguments.fullBackup) {return false;}
+
+		StoredFile storedFile = find(hash);
+		if (storedFile == null || storedFile.size != size) {return false;}
+
+		// the backup folder may have been removed
+		Path storedPath = destinationFolderPath.resolve(storedFile.backupFolderName).resolve(storedFile.storedAt);
+		try {
+			if (Files.size(storedPath) != size) {return false;}
+		} catch (IOException e) {
+			return false;
+		}
+
+		duplicates.put(destination, storedFile);
+		duplicateBytes.addAndGet(size);
+		Logger.log("   Not copying " + getLogPath(destination) + " - the same contents are stored in " + storedFile.backupFolderName + File.separator + storedFile.storedAt);
+		return true;
+
+	}
+
+	/**
+	 * adds a file that is copied to the index
+	 * @param destination the copy, in the backup folder
+	 */
+	public synchronized void add(byte[] hash, long size, Path destination) {
+		Path relativePath = destinationFolderPath.relativize(destination);
+		newFiles.add(new StoredFile(hash, size, relativePath.getName(0).toString(), FileAndFolderUtilities.getPathInBackup(getLogPath(destination), commandLineArguments)));
+		table.put(getPrefix(hash), storedRecords + newFiles.size() - 1);
+	}
+
+	/**
+	 * gives each file in backup that is not copied because of a stored copy the pathToBackup and storedAt of that copy
+	 * @param backup folderlist.json of the new backup, before the foldername mapping
+	 * @param backupFolderPath the new backup folder
+	 * @param backupfoldername name of the new backup folder
+	 */
+	public void applyDuplicates(AFolder backup, Path backupFolderPath, String backupfoldername) {
+
+		for (AFileOrAFolder aFileOrAFolder : backup.getFileOrFolderList()) {
+
+			Path path = backupFolderPath.resolve(aFileOrAFolder.getName());
+
+			if (aFileOrAFolder instanceof AFolder) {
+				applyDuplicates((AFolder)aFileOrAFolder, path, backupfoldername);
+			} else if (aFileOrAFolder.getPathToBackup().equals(backupfoldername)) {
+				StoredFile storedFile = duplicates.get(path);
+				if (storedFile != null) {
+					aFileOrAFolder.setPathToBackup(storedFile.backupFolderName);
+					((AFile)aFileOrAFolder).setStoredAt(storedFile.storedAt.equals(FileAndFolderUtilities.getPathInBackup(getLogPath(path), commandLineArguments)) ? null : storedFile.storedAt);
+				}
+			}
+
+		}
+
+	}
+
+	/**
+	 * appends the files copied in this backup to the index files, and logs the totals. Call this before folderlist.json is written
+	 */
+	public synchronized void close() {
+
+		Path indexPath = destinationFolderPath.resolve(Constants.DEDUPINDEX_FILENAME);
+		Path pathsPath = destinationFolderPath.resolve(Constants.DEDUPINDEX_PATHS_FILENAME);
+
+		try {
+
+			long pathsPosition = Files.exists(pathsPath) ? Files.size(pathsPath) : 0;
+			ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(newFiles.size() * RECORD_SIZE);
+			DataOutputStream records = new DataOutputStream(recordBytes);
+
+			// the paths first, so a record never points to a path that is not written, both on disk before folderlist.json refers to the stored files
+			try (FileChannel pathsChannel = FileChannel.open(pathsPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+					DataOutputStream paths = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(pathsChannel)))) {
+				for (StoredFile storedFile : newFiles) {
+					records.write(storedFile.hash);
+					records.writeLong(storedFile.size);
+					records.writeLong(pathsPosition + paths.size());
+					paths.writeUTF(storedFile.backupFolderName);
+					paths.writeUTF(storedFile.storedAt);
+				}
+				paths.flush();
+				pathsChannel.force(true);
+			}
+
+			try (FileChannel indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				ByteBuffer buffer = ByteBuffer.wrap(recordBytes.toByteArray());
+				while (buffer.hasRemaining()) {
+					indexChannel.write(buffer);
+				}
+				indexChannel.force(true);
+			}
+			newFiles.clear();
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while writing " + indexPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+
+		Logger.log("Dedup: " + hashedFiles.get() + " file(s) hashed, " + (hashedBytes.get() / 1024 / 1024) + " MB, " + duplicates.size() + " file(s) not copied because the same contents are already stored, "
+				+ (duplicateBytes.get() / 1024 / 1024) + " MB, " + table.size + " stored file(s) in the index");
+
+	}
+
+	/**
+	 * @return the stored file with hash, null if not found
+	 */
+	private synchronized StoredFile find(byte[] hash) throws IOException {
+
+		int record = table.get(getPrefix(hash));
+		if (record < 0) {return null;}
+
+		StoredFile storedFile = (record >= storedRecords) ? newFiles.get(record - storedRecords) : readRecord(record);
+
+		// only the first 8 bytes are compared by the table
+		return Arrays.equals(storedFile.hash, hash) ? storedFile : null;
+
+	}
+
+	private StoredFile readRecord(int record) throws IOException {
+
+		byte[] hash = new byte[32];
+		long size;
+		long pathPosition;
+		try (RandomAccessFile indexFile = new RandomAccessFile(destinationFolderPath.resolve(Constants.DEDUPINDEX_FILENAME).toFile(), "r")) {
+			indexFile.seek((long)record * RECORD_SIZE);
+			indexFile.readFully(hash);
+			size = indexFile.readLong();
+			pathPosition = indexFile.readLong();
+		}
+
+		try (RandomAccessFile pathsFile = new RandomAccessFile(destinationFolderPath.resolve(Constants.DEDUPINDEX_PATHS_FILENAME).toFile(), "r")) {
+			pathsFile.seek(pathPosition);
+			return new StoredFile(hash, size, pathsFile.readUTF(), pathsFile.readUTF());
+		}
+
+	}
+
+	/**
+	 * @return path relative to the backup folder, with the platform separator, as in the log
+	 */
+	private String getLogPath(Path destination) {
+		Path relativePath = destinationFolderPath.relativize(destination);
+		return relativePath.subpath(1, relativePath.getNameCount()).toString();
+	}
+
+	private static long getPrefix(byte[] hash) {
+		return ByteBuffer.wrap(hash).getLong();
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * decides which files and folders in the source are excluded, based on the lines in excludedfilelist and excludedpathlist<br>
+ * The rules are compiled once, when the arguments are read:<br>
+ * - a line in excludedfilelist is an exact, case sensitive, file name, unless it starts with "glob:" or "regex:", then it's a pattern that is matched against the file name (see FileSystem.getPathMatcher)<br>
+ * - a line in excludedpathlist is a folder path, relative to the source folder, example submap1/submap2 (/ or \ can be used). Lines starting with "glob:" or "regex:" are matched against that relative path.<br>
+ * &nbsp &nbsp &nbsp &nbsp For backwards compatibility, a folder is also excluded if its full path equals the line.<br>
+ * An excluded folder is never opened, so everything below it is skipped.<br>
+ * <br>
+ * Per rule, the number of excluded files and folders is counted, see logStatistics
+ */
+public class ExclusionMatcher {
+
+	/**
+	 * one line in excludedfilelist or excludedpathlist, or the built-in rule for Microsoft hidden files
+	 */
+	private static class Rule {
+
+		private final String ruleText;
+
+		/**
+		 * null for exact names and paths
+		 */
+		private final PathMatcher pathMatcher;
+
+		private final LongAdder excludedFiles = new LongAdder();
+
+		private final LongAdder excludedFolders = new LongAdder();
+
+		Rule(String ruleText, PathMatcher pathMatcher) {
+			this.ruleText = ruleText;
+			this.pathMatcher = pathMatcher;
+		}
+
+	}
+
+	/**
+	 * exact file names, key is the file name
+	 */
+	private final Map<String, Rule> excludedFileNames = new HashMap<>();
+
+	/**
+	 * glob and regex rules from excludedfilelist
+	 */
+	private final List<Rule> fileNamePatterns = new ArrayList<>();
+
+	/**
+	 * exact folder paths, key is the relative path with / as separator, without leading or trailing /
+	 */
+	private final Map<String, Rule> excludedRelativePaths = new HashMap<>();
+
+	/**
+	 * exact folder paths, key is the line as it was in excludedpathlist, trimmed. Used to compare to the full path of a folder
+	 */
+	private final Map<String, Rule> excludedFullPaths = new HashMap<>();
+
+	/**
+	 * glob and regex rules from excludedpathlist
+	 */
+	private final List<Rule> relativePathPatterns = new ArrayList<>();
+
+	/**
+	 * files of format .849C9593-D756-4E56-8D6E-42412F2A707B, see OtherUtilities.fileNeedsToBeIgnored
+	 */
+	private final Rule hiddenFileRule = new Rule("Microsoft hidden files", null);
+
+	/**
+	 * all rules in the order they were read, for the statistics
+	 */
+	private final List<Rule> allRules = new ArrayList<>();
+
+	/**
+	 * compiles the rules
+	 * @param excludedFiles lines in excludedfilelist
+	 * @param excludedPaths lines in excludedpathlist
+	 * @throws IllegalArgumentException if a glob or regex is invalid
+	 */
+	public ExclusionMatcher(List<String> excludedFiles, List<String> excludedPaths) {
+
+		for (String excludedFile : excludedFiles) {
+
+			if (isPattern(excludedFile)) {
+				fileNamePatterns.add(addRule(new Rule(excludedFile, FileSystems.getDefault().getPathMatcher(excludedFile.trim()))));
+			} else if (!excludedFileNames.containsKey(excludedFile)) {
+				excludedFileNames.put(excludedFile, addRule(new Rule(excludedFile, null)));
+			}
+
+		}
+
+		for (String excludedPath : excludedPaths) {
+
+			if (excludedPath.trim().length() == 0) {continue;}
+
+			if (isPattern(excludedPath)) {
+				relativePathPatterns.add(addRule(new Rule(excludedPath, FileSystems.getDefault().getPathMatcher(excludedPath.trim()))));
+			} else if (!excludedFullPaths.containsKey(excludedPath.trim())) {
+				Rule rule = addRule(new Rule(excludedPath, null));
+				excludedFullPaths.put(excludedPath.trim(), rule);
+				excludedRelativePaths.put(normalizeRelativePath(excludedPath), rule);
+			}
+
+		}
+
+		addRule(hiddenFileRule);
+
+	}
+
+	/**
+	 * checks if a file needs to be excluded
+	 * @param fileName just the name of the file, not the full path
+	 * @return true if the file must be excluded
+	 */
+	public boolean isExcludedFile(Path fileName) {
+
+		String fileNameAsString = fileName.toString();
+
+		Rule rule = excludedFileNames.get(fileNameAsString);
+
+		if (rule == null && OtherUtilities.fileNeedsToBeIgnored(fileNameAsString)) {
+			rule = hiddenFileRule;
+		}
+
+		for (int i = 0; rule == null && i < fileNamePatterns.size(); i++) {
+			if (fileNamePatterns.get(i).pathMatcher.matches(fileName)) {
+				rule = fileNamePatterns.get(i);
+			}
+		}
+
+		if (rule == null) {return false;}
+
+		rule.excludedFiles.increment();
+
+		return true;
+
+	}
+
+	/**
+	 * checks if a folder needs to be excluded, logs it if so
+	 * @param relativePath path of the folder, relative to the source folder
+	 * @param fullPath full path of the folder
+	 * @return true if the folder must be excluded, in which case it should not be opened
+	 */
+	public boolean isExcludedFolder(Path relativePath, Path fullPath) {
+
+		if (excludedRelativePaths.isEmpty() && relativePathPatterns.isEmpty()) {return false;}
+
+		Rule rule = excludedRelativePaths.get(normalizeRelativePath(relativePath.toString()));
+
+		if (rule == null) {
+			rule = excludedFullPaths.get(fullPath.toString().trim());
+		}
+
+		for (int i = 0; rule == null && i < relativePathPatterns.size(); i++) {
+			if (relativePathPatterns.get(i).pathMatcher.matches(relativePath)) {
+				rule = relativePathPatterns.get(i);
+			}
+		}
+
+		if (rule == null) {return false;}
+
+		rule.excludedFolders.increment();
+
+		Logger.log("      Excluding folder '" + relativePath.toString() + "' because of '" + rule.ruleText + "' in the file excludedpathlist");
+
+		return true;
+
+	}
+
+	/**
+	 * logs per rule how many files and folders were excluded
+	 */
+	public void logStatistics() {
+
+		for (Rule rule : allRules) {
+
+			long files = rule.excludedFiles.sum();
+			long folders = rule.excludedFolders.sum();
+
+			if (rule == hiddenFileRule && files == 0) {continue;}
+
+			Logger.log("   Exclusion rule '" + rule.ruleText + "' : " + files + " file(s) and " + folders + " folder(s) skipped");
+
+		}
+
+	}
+
+	private Rule addRule(Rule rule) {
+		allRules.add(rule);
+		return rule;
+	}
+
+	private static boolean isPattern(String line) {
+		return line.trim().startsWith("glob:") || line.trim().startsWith("regex:");
+	}
+
+	/**
+	 * converts a relative path to a string with / as separator, and without leading or trailing /
+	 * @param relativePath
+	 * @return
+	 */
+	private static String normalizeRelativePath(String relativePath) {
+
+		String returnValue = relativePath.trim().replace(File.separatorChar, '/').replace('\\', '/');
+
+		while (returnValue.startsWith("/")) {returnValue = returnValue.substring(1);}
+		while (returnValue.endsWith("/")) {returnValue = returnValue.substring(0, returnValue.length() - 1);}
+
+		return returnValue;
+
+	}
+
+}
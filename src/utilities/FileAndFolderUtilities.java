@@ -18,15 +18,23 @@
  */
 package utilities;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -35,8 +43,11 @@ import model.AFileOrAFolderForFullPath;
 import model.AFileWithLastModified;
 import model.AFolder;
 import model.AFolderWithFullPath;
+import model.BackupPlan;
 import model.CommandLineArguments;
 import model.Constants;
+import model.FolderTimestampIndex;
+import model.PlannedCopy;
 import model.AFile;
 
 /**
@@ -44,103 +55,43 @@ import model.AFile;
  */
 public class FileAndFolderUtilities {
 
-    /**
-     * creates an instance of AFileOrAFolder for folderPath.<br>
-     * @param folderOrStringPath can be path to a folder or a file
-     * @param backupFolderName just a foldername of the full or incremental backup where to find the file, example '2024-01-12 16;46;55 (Full)' This is actually not used just stored in an instance of AFile (not if it's a folder) 
-     * @return an instance of either a folder or a file
-     * @param excludefilelist array of strings that should be ignored as filename
-     * @param excludedpathlist array of strings that should be ignored as foldername
-     * @param addpathlength for testing only
-     * @throws IOException
-     */
-    public static AFileOrAFolder createAFileOrAFolder(Path folderOrStringPath, String backupFolderName, List<String> excludefilelist, List<String> excludedpathlist, boolean addpathlength) throws IOException {
-
-    	String fileOrFolderNameWithoutFullPath = folderOrStringPath.getFileName().toString();
-
-    	if (Files.isDirectory(folderOrStringPath)) {
-    		
-    		AFolder returnValue = new AFolder(fileOrFolderNameWithoutFullPath, backupFolderName);
-
-    		/**
-    		 * FOLLOWING CODE REPEATS IN BACKUP.JAVA, If you're changing anything here, check if the same change is necessary in BACKUP.JAVA
-    		 */
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(folderOrStringPath)) {
-            	
-            	directoryLoop: for (Path path : directoryStream) {
-                	   
-                	//  if it's a file, check if it's in the excludefilelist
-                	if (!(Files.isDirectory(path))) {
-                		
-                		// check if the file is in the list of files to exclude, example .DS_Store
-                		if (excludefilelist.contains(path.getFileName().toString())) {
-                    		continue;
-                		}
-                		
-                		// check if the file is of format .849C9593-D756-4E56-8D6E-42412F2A707B seems a Microsoft hidden file
-                		if (OtherUtilities.fileNeedsToBeIgnored(path.getFileName().toString())) {
-                			continue;
-                		}
-                		
-                	} else {
-                		// check if folder is in excludedPaths
-                		for (String excludedPath : excludedpathlist) {
-                			
-                			if (path.toString().trim().equals(excludedPath.trim())) {
-                				Logger.log("      Excluding folder '" + excludedPath + "' because " + excludedPath + " is in the file excludedpathlist");
-                				continue directoryLoop;
-                			}
-                		}
-                		
-                	}
-                	
-                	returnValue.addFileOrFolder(createAFileOrAFolder(path, backupFolderName, excludefilelist, excludedpathlist, addpathlength));
-                		
-                }
-                
-            }
-            
-            if (addpathlength) {
-                System.out.println("path length = " + String.format("%5s", folderOrStringPath.toString().length()) + "; path = " + folderOrStringPath.toString());
-            }
-            
-            return returnValue;
-            
-    	} else {
-    		
-    		return new AFile(fileOrFolderNameWithoutFullPath, Files.getLastModifiedTime(folderOrStringPath).toMillis(), backupFolderName); 
+    	/**
+    	 * order of the files and folders in a folder, in folderlist.json and in the result of FolderScanner: first the files, then the folders, each sorted by name<br>
+    	 * The same folder always gives the same list, and two lists can be compared in one pass, see compareAndUpdateFolders
+    	 */
+    	public static final Comparator<AFileOrAFolder> CANONICAL_ORDER = Comparator.comparing((AFileOrAFolder fileOrFolder) -> fileOrFolder instanceof AFolder).thenComparing(AFileOrAFolder::getName);
 
-    	}
-    
-    }
-    
     	/**
     	 * compares source and dest which are both intance of AFileOrAFolder<br>
     	 * Updates dest:<br>
     	 * - If there's a folder in source, that is not in dest, then the folder must be added in dest<br>
     	 * - If there's a folder in dest, that is not in source, then the folder must be deleted in dest<br>
     	 * - If a file in source has a more recent last modified timestamp than the same file in dest, then the entry in dest must be updated with the new timestamp<br>
-    	 *    - in that case the actual file is also copied to the destination folder
+    	 *    - in that case the actual file is also added to backupPlan, to be copied to the destination folder
     	 * - If there's a file in source, that is not in dest, then the file must be added in dest<br>
-    	 *    - in that case the actual file is also copied to the destination folder
+    	 *    - in that case the actual file is also added to backupPlan, to be copied to the destination folder
     	 * - If there's a file in dest that is not found in source, then the entry in dest must be deleted<br>
-    	 * @param sourceFolderPath the source root path where the actual source files are stored
-    	 * @param destBackupFolderPath the source backup folder path where files need to be copied to
+    	 * Nothing is copied here, see PlanExecutor<br>
     	 * @param sourceFileOrFolder instance of AFileOrAFolder that represents the contents in sourceFolderPath
-    	 * @param subfolders is an arraylist of strings, representing the subfolders. We need to pass them through as we go recursively through the function. It's needed in case a file copy needs to be made to make sure we put it in the right folder.
+    	 * @param pathContext the folder in the source and in the backup that contains sourceFileOrFolder. We need to pass it through as we go recursively through the function. It's needed in case a file copy needs to be made to make sure we put it in the right folder.
     	 * @param level first folder is treated a bit different when it comes to deletion, that's why this level is used
     	 * @param backupFolderName needed to write the pathToBackup
     	 * @param commandLineArguments the commandlinearguments
+    	 * @param backupPlan gets the files and folders that need to be copied
+    	 * @param moveDetector if not null, then the new and removed files and folders are given to moveDetector, and the new ones are not added to backupPlan. See MoveDetector.addToPlan
+    	 * @param contentVerifier if not null, then the files with a new timestamp are given to contentVerifier, they are not updated and not added to backupPlan. See ContentVerifier.addToPlan
     	 */
-        public static void compareAndUpdate(AFileOrAFolder sourceFileOrFolder, AFileOrAFolder destFileOrFolder, Path sourceFolderPath, Path destBackupFolderPath, ArrayList<String> subfolders, String backupFolderName, Integer level, CommandLineArguments commandLineArguments) {
+        public static void compareAndUpdate(AFileOrAFolder sourceFileOrFolder, AFileOrAFolder destFileOrFolder, PathContext pathContext, String backupFolderName, Integer level, CommandLineArguments commandLineArguments, BackupPlan backupPlan, MoveDetector moveDetector, ContentVerifier contentVerifier) {
         	
             // Compare and update files and folders
             if (sourceFileOrFolder instanceof AFile  && destFileOrFolder instanceof AFile) {
                 // Compare and update files
-                compareAndUpdateFiles((AFile) sourceFileOrFolder, (AFile) destFileOrFolder, sourceFolderPath, destBackupFolderPath, subfolders, backupFolderName, commandLineArguments);
+                compareAndUpdateFiles((AFile) sourceFileOrFolder, (AFile) destFileOrFolder, pathContext, backupFolderName, backupPlan, contentVerifier);
             } else if (!(sourceFileOrFolder instanceof AFile) && !(destFileOrFolder instanceof AFile)) {
                 // Compare and update folders
-                compareAndUpdateFolders((AFolder) sourceFileOrFolder, (AFolder) destFileOrFolder, sourceFolderPath, destBackupFolderPath, OtherUtilities.addString(subfolders, sourceFileOrFolder.getName()), backupFolderName, level, commandLineArguments);
+                pathContext.push(sourceFileOrFolder.getName());
+                compareAndUpdateFolders((AFolder) sourceFileOrFolder, (AFolder) destFileOrFolder, pathContext, backupFolderName, level, commandLineArguments, backupPlan, moveDetector, contentVerifier);
+                pathContext.pop();
             } else {
             	Logger.log("In compareAndUpdate(AFileOrAFolder source, AFileOrAFolder dest), not both File and not both Folder");
             	Logger.log("   this is a difficult situation. It looks like an item that was previously a file is now a folder with the same name, or vice versa.");
@@ -165,6 +116,9 @@ public class FileAndFolderUtilities {
                 ObjectMapper objectMapper = new ObjectMapper();
                 listOfFilesAndFoldersInPreviousBackupFolder = objectMapper.readValue(Files.readString(folderlistPath, StandardCharsets.UTF_8), AFileOrAFolder.class);
                 
+                // folderlist.json files of older versions are not sorted
+                sortInCanonicalOrder(listOfFilesAndFoldersInPreviousBackupFolder);
+                
             } catch (IOException e) {
                 // Handle IOException (e.g., file not found or permission issues)
             	e.printStackTrace();
@@ -178,6 +132,27 @@ public class FileAndFolderUtilities {
 
         }
         
+        /**
+         * reads folderindex.json
+         * @param folderindexPath Path for the folderindex.json
+         * @return null if the file does not exist or can not be parsed
+         */
+        public static FolderTimestampIndex fromFolderindexDotJsonToFolderTimestampIndex(Path folderindexPath) {
+        	
+        	if (!Files.exists(folderindexPath)) {return null;}
+        	
+            try {
+
+                return (new ObjectMapper()).readValue(Files.readString(folderindexPath, StandardCharsets.UTF_8), FolderTimestampIndex.class);
+                
+            } catch (IOException e) {
+                Logger.log("Exception while converting file " + folderindexPath.toString() + " to json, it will not be used");
+                Logger.log(e.toString());
+                return null;
+            }
+        	
+        }
+        
         /**
          * search in destContents for sourceItem
          * @param sourceItem
@@ -192,6 +167,101 @@ public class FileAndFolderUtilities {
                     .orElse(null);
         }
 
+        /**
+         * calculates the digest of folder and of all its subfolders, recursively, see AFolder.digest<br>
+         * The digest of a folder is calculated from the names, timestamps, pathToBackup and storedAt of the files in it, and the names and the digests of the subfolders, in CANONICAL_ORDER.
+         * The name of the folder itself is not used, it's used in the digest of the parent.<br>
+         * To call just before writing folderlist.json, after the foldername mapping
+         * @param folder
+         * @return the digest of folder
+         */
+        public static String calculateDigests(AFolder folder) {
+        	
+        	MessageDigest messageDigest = createFolderDigest();
+        	
+        	for (AFileOrAFolder child : folder.getFileOrFolderList()) {
+        		
+        		if (child instanceof AFile) {
+        			AFile file = (AFile)child;
+        			addFileToFolderDigest(messageDigest, file.getName(), file.getts(), file.getPathToBackup(), file.getStoredAt());
+        		} else {
+        			addFolderToFolderDigest(messageDigest, child.getName(), calculateDigests((AFolder)child));
+        		}
+        		
+        	}
+        	
+        	String digest = getFolderDigest(messageDigest);
+        	folder.setDigest(digest);
+        	return digest;
+        	
+        }
+        
+        /**
+         * creates the MessageDigest to calculate the digest of one folder, see calculateDigests<br>
+         * The files and subfolders must be added in CANONICAL_ORDER
+         */
+        public static MessageDigest createFolderDigest() {
+        	try {
+        		return MessageDigest.getInstance(Constants.HASH_ALGORITHM);
+        	} catch (NoSuchAlgorithmException e) {
+        		throw new IllegalStateException(e);
+        	}
+        }
+        
+        /**
+         * adds a file to the digest of the folder that has it
+         * @param storedAt null if not set
+         */
+        public static void addFileToFolderDigest(MessageDigest messageDigest, String name, long ts, String pathToBackup, String storedAt) {
+        	messageDigest.update((byte)'f');
+        	updateDigest(messageDigest, name);
+        	updateDigest(messageDigest, Long.toString(ts));
+        	updateDigest(messageDigest, pathToBackup);
+        	updateDigest(messageDigest, (storedAt == null) ? "" : storedAt);
+        }
+        
+        /**
+         * adds a subfolder, with its own digest, to the digest of the folder that has it
+         */
+        public static void addFolderToFolderDigest(MessageDigest messageDigest, String name, String digest) {
+        	messageDigest.update((byte)'d');
+        	updateDigest(messageDigest, name);
+        	updateDigest(messageDigest, digest);
+        }
+        
+        /**
+         * @return the digest of the folder, after all files and subfolders are added
+         */
+        public static String getFolderDigest(MessageDigest messageDigest) {
+        	return HexFormat.of().formatHex(messageDigest.digest(), 0, Constants.FOLDER_DIGEST_BYTES);
+        }
+        
+        /**
+         * each value is followed by a separator that can't be in a name, so that different lists can not give the same bytes
+         */
+        private static void updateDigest(MessageDigest messageDigest, String value) {
+        	messageDigest.update(value.getBytes(StandardCharsets.UTF_8));
+        	messageDigest.update((byte)0);
+        }
+
+        /**
+         * sorts the files and folders in each folder, recursively, in CANONICAL_ORDER<br>
+         * Lists that are already sorted are checked in one pass
+         * @param fileOrFolder
+         */
+        public static void sortInCanonicalOrder(AFileOrAFolder fileOrFolder) {
+        	
+        	if (!(fileOrFolder instanceof AFolder)) {return;}
+        	
+        	List<AFileOrAFolder> fileOrFolderList = ((AFolder)fileOrFolder).getFileOrFolderList();
+        	fileOrFolderList.sort(CANONICAL_ORDER);
+        	
+        	for (AFileOrAFolder child : fileOrFolderList) {
+        		sortInCanonicalOrder(child);
+        	}
+        	
+        }
+
         /**
          * this function creates an instance of AFileOrAFolderForFullPath, starting from an instance of AFileOrAFolder<br>
          * It's called recursively, that's why it has also as arguments an array of subfolders and the parentFolder which is an instance of AFolderWithFullPath<br>
@@ -216,6 +286,7 @@ public class FileAndFolderUtilities {
         		
         		AFileWithLastModified returnValueAFile = new AFileWithLastModified(aFileOrAFolder.getName(), aFileOrAFolderAsFile.getPathToBackup());
         		returnValueAFile.setts(OtherUtilities.dateToString(new Date(aFileOrAFolderAsFile.getts()), Constants.OUTPUTDATEFORMAT_STRING));
+        		returnValueAFile.setStoredAt(aFileOrAFolderAsFile.getStoredAt());
         		
         		if (parentFolder != null) {
 
@@ -245,127 +316,274 @@ public class FileAndFolderUtilities {
         	
         }
         
-        private static void compareAndUpdateFiles(AFile sourceFile, AFile destFile, Path sourceFolderPath, Path destBackupFolderPath, ArrayList<String> subfolders, String backupFolderName, CommandLineArguments commandLineArguments) {
+        private static void compareAndUpdateFiles(AFile sourceFile, AFile destFile, PathContext pathContext, String backupFolderName, BackupPlan backupPlan, ContentVerifier contentVerifier) {
             // Compare and update files based on last modified timestamp
             if (sourceFile.getts() != destFile.getts()) {
             	
+            	// the contents are compared later, maybe only the timestamp changed
+            	if (contentVerifier != null) {
+            		contentVerifier.addModified(sourceFile, destFile, pathContext);
+            		return;
+            	}
+            	
             	// create logtext depending if getts > or < 
             	String additionalLogTextString = "";
             	if (sourceFile.getts() < destFile.getts()) {
             		additionalLogTextString = " - this file has an older date in the source, looks like an older/restored version was stored.";
             	} 
             	
+                // keep the previous version, in case the file is not copied before the deadline
+                backupPlan.addPreviousVersion(pathContext.getLogPath(sourceFile.getName()), destFile);
+                
                 // Update destFile with the new timestamp
                 destFile.setts(sourceFile.getts());
-                Logger.log("   Copying updated file " + OtherUtilities.concatenateStrings(OtherUtilities.addString(subfolders, sourceFile.getName())) + additionalLogTextString);
+                Logger.log("   Copying updated file " + pathContext.getLogPath(sourceFile.getName()) + additionalLogTextString);
                 
-                // set also the backup foldername
+                // set also the backup foldername, the new copy is stored at the same path as in folderlist.json
                 destFile.setPathToBackup(backupFolderName);
+                destFile.setStoredAt(null);
+                destFile.setChunks(null);
                 
-                // create the folder in the destination if it doesn't exist yet
-                try {
-					Files.createDirectories(PathUtilities.concatenatePaths(destBackupFolderPath, subfolders));
-				} catch (IOException e) {
-					e.printStackTrace();
-		            Logger.log("Exception in compareAndUpdateFiles(AFile,AFile) while creating the directory " + PathUtilities.concatenatePaths(destBackupFolderPath, subfolders).toString());
-		            Logger.log(e.toString());
-		            System.exit(1);
-				}
-                
-                try {
-                	// add sourcefile name to dest and source file, it's the same name
-                	Path destPath = PathUtilities.concatenatePaths(destBackupFolderPath, OtherUtilities.addString(subfolders, sourceFile.getName()));
-					Files.copy(PathUtilities.concatenatePaths(sourceFolderPath, OtherUtilities.addString(subfolders, sourceFile.getName())), destPath, StandardCopyOption.COPY_ATTRIBUTES);
-	                if (commandLineArguments.addpathlengthforfolderswithnewormodifiedcontent) {
-	                    System.out.println("path length = " + String.format("%5s", destPath.toString().length()) + "; path = " + destPath.toString());
-	                }
-
-				} catch (IOException e) {
-					e.printStackTrace();
-		            Logger.log("Exception in compareAndUpdateFiles(AFile,AFile) while copying a file from " + PathUtilities.concatenatePaths(sourceFolderPath, subfolders).toString() + " to " + PathUtilities.concatenatePaths(destBackupFolderPath, subfolders));
-		            Logger.log(e.toString());
-		            System.exit(1);
-				}
+                addFileToPlan(sourceFile, pathContext, backupPlan);
                 
             } 
         }
+        
+        /**
+         * adds a new or modified file to backupPlan, with its current size in the source
+         * @param sourceFile the file, in the current folder of pathContext
+         */
+        private static void addFileToPlan(AFile sourceFile, PathContext pathContext, BackupPlan backupPlan) {
+        	
+        	backupPlan.addFile(pathContext.getLogPath(sourceFile.getName()), getSize(sourceFile, pathContext.getSourcePath()), sourceFile.getts());
+        	
+        }
+        
+        /**
+         * adds a new folder to backupPlan, with all files and subfolders in it<br>
+         * The contents are taken from folder, as read by FolderScanner, so the folder is not read again, and the same files and folders are excluded
+         * @param folder the new folder, as read by FolderScanner
+         * @param relativePath path of folder relative to the source folder, with the platform separator
+         * @param sourcePath folder in the source
+         * @param backupPlan
+         */
+        public static void addNewFolderToPlan(AFolder folder, String relativePath, Path sourcePath, BackupPlan backupPlan) {
+        	
+        	backupPlan.addFolder(relativePath);
+        	addContentsOfNewFolderToPlan(folder, relativePath, sourcePath, backupPlan);
+        	
+        }
+        
+        private static void addContentsOfNewFolderToPlan(AFolder folder, String relativePath, Path sourcePath, BackupPlan backupPlan) {
+        	
+        	// in CANONICAL_ORDER, so the files first, then the subfolders
+        	for (AFileOrAFolder child : folder.getFileOrFolderList()) {
+        		
+        		String childRelativePath = relativePath + File.separator + child.getName();
+        		
+        		if (child instanceof AFile) {
+        			backupPlan.addFileInNewFolder(childRelativePath, getSize((AFile)child, sourcePath), ((AFile)child).getts());
+        		} else {
+        			backupPlan.addFolderInNewFolder(childRelativePath);
+        			addContentsOfNewFolderToPlan((AFolder)child, childRelativePath, sourcePath.resolve(child.getName()), backupPlan);
+        		}
+        		
+        	}
+        	
+        }
+        
+        /**
+         * undoes the changes in backup for the copies that were not done, because the deadline was reached<br>
+         * A modified file gets the values of the previous backup again, see BackupPlan.addPreviousVersion. A new file or folder is removed. So folderlist.json only
+         * has files that exist in a backup, and the next incremental backup finds the same files as new or modified.<br>
+         * To call before the foldername mapping, the folders directly in backup must have the names of the source
+         * @param backup the new backup, after compareAndUpdate
+         * @param notCopied the copies that were not done
+         * @param backupPlan
+         */
+        public static void undoNotCopied(AFolder backup, List<PlannedCopy> notCopied, BackupPlan backupPlan) {
+        	
+        	// per folder, the names of the items that were not copied, so each folder is searched only once
+        	Map<String, Set<String>> namesPerFolder = new HashMap<>();
+        	for (PlannedCopy plannedCopy : notCopied) {
+        		String relativePath = plannedCopy.getRelativePath();
+        		int lastSeparator = relativePath.lastIndexOf(File.separator);
+        		namesPerFolder.computeIfAbsent(lastSeparator < 0 ? "" : relativePath.substring(0, lastSeparator), folderPath -> new HashSet<>()).add(relativePath.substring(lastSeparator + 1));
+        	}
+        	
+        	for (Map.Entry<String, Set<String>> entry : namesPerFolder.entrySet()) {
+        		
+        		// null if the folder itself is new and was not created, then it's removed from its parent
+        		AFolder folder = getFolder(backup, entry.getKey());
+        		if (folder == null) {continue;}
+        		
+        		Set<String> names = entry.getValue();
+        		String folderPath = entry.getKey();
+        		
+        		folder.getFileOrFolderList().removeIf(item -> {
+        			
+        			if (!names.contains(item.getName())) {return false;}
+        			
+        			AFile previousVersion = (item instanceof AFile) ? backupPlan.getPreviousVersion(folderPath.length() == 0 ? item.getName() : folderPath + File.separator + item.getName()) : null;
+        			if (previousVersion == null) {return true;}
+        			
+        			AFile file = (AFile)item;
+        			file.setts(previousVersion.getts());
+        			file.setPathToBackup(previousVersion.getPathToBackup());
+        			file.setStoredAt(previousVersion.getStoredAt());
+        			file.setChunks(previousVersion.getChunks());
+        			return false;
+        			
+        		});
+        		
+        	}
+        	
+        }
+        
+        /**
+         * @param folder
+         * @param relativePath path relative to folder, with the platform separator, an empty string for folder itself
+         * @return the subfolder of folder at relativePath, null if it doesn't exist
+         */
+        private static AFolder getFolder(AFolder folder, String relativePath) {
+        	
+        	if (relativePath.length() == 0) {return folder;}
+        	
+        	for (String name : relativePath.split(Pattern.quote(File.separator))) {
+        		
+        		AFileOrAFolder child = folder.getFileOrFolderList().stream().filter(item -> item.getName().equals(name)).findFirst().orElse(null);
+        		if (!(child instanceof AFolder)) {return null;}
+        		folder = (AFolder)child;
+        		
+        	}
+        	
+        	return folder;
+        	
+        }
+        
+        /**
+         * the path within a backup folder of a file or folder, with '/' as separator<br>
+         * The first folder is the folder directly in the source, in the backup it has the name after the foldername mapping
+         * @param logPath path relative to the source folder, with the platform separator
+         * @param commandLineArguments
+         */
+        public static String getPathInBackup(String logPath, CommandLineArguments commandLineArguments) {
+        	
+        	String[] names = logPath.split(Pattern.quote(File.separator));
+        	String mappedName = commandLineArguments.folderNameMapping.get(names[0]);
+        	if (mappedName != null) {
+        		names[0] = mappedName;
+        	}
+        	
+        	return String.join("/", names);
+        	
+        }
+        
+        /**
+         * the size of a file in the source, as read by FolderScanner, or read from the filesystem if FolderScanner didn't read it
+         * @param file the file
+         * @param folderPath the folder in the source that has the file
+         */
+        public static long getSize(AFile file, Path folderPath) {
+        	
+        	if (file.getSize() >= 0) {
+        		return file.getSize();
+        	}
+        	
+        	try {
+        		return Files.size(folderPath.resolve(file.getName()));
+			} catch (IOException e) {
+				e.printStackTrace();
+	            Logger.log("Exception while reading the size of " + folderPath.resolve(file.getName()).toString());
+	            Logger.log(e.toString());
+	            System.exit(1);
+	            return 0;
+			}
+        	
+        }
 
-        private static void compareAndUpdateFolders(AFolder sourceFolder, AFolder destFolder, Path sourceFolderPath, Path destBackupFolderPath, ArrayList<String> subfolders, String backupFolderName, Integer level, CommandLineArguments commandLineArguments) {
+        private static void compareAndUpdateFolders(AFolder sourceFolder, AFolder destFolder, PathContext pathContext, String backupFolderName, Integer level, CommandLineArguments commandLineArguments, BackupPlan backupPlan, MoveDetector moveDetector, ContentVerifier contentVerifier) {
             // Compare and update folders based on content
             List<AFileOrAFolder> sourceContents = sourceFolder.getFileOrFolderList();
             List<AFileOrAFolder> destContents = destFolder.getFileOrFolderList();
-
-            // Process files and folders in source
-            for (AFileOrAFolder sourceItem : sourceContents) {
+            
+            // both lists are in CANONICAL_ORDER, except at level 1 where source folders are compared with the mapped name, which may give another order
+            if (level == 1 && !commandLineArguments.folderNameMapping.isEmpty()) {
+            	sourceContents = new ArrayList<>(sourceContents);
+            	sourceContents.sort(Comparator.comparing((AFileOrAFolder sourceItem) -> sourceItem instanceof AFolder).thenComparing(sourceItem -> getNameInDest(sourceItem, level, commandLineArguments)));
+            }
+            
+            // Find the corresponding item in dest for each item in source, with one pass through both lists
+            AFileOrAFolder[] matchingDestItems = new AFileOrAFolder[sourceContents.size()];
+            boolean[] destItemMatched = new boolean[destContents.size()];
+            int destIndex = 0;
+            for (int sourceIndex = 0; sourceIndex < sourceContents.size(); sourceIndex++) {
             	
-            	// for the foldername mapping, we need to compare to the mapped name, so if a mapping is found, then we store the original name
-            	String originalSourceItemName = sourceItem.getName();
-            	String newSourceItemName = originalSourceItemName;
+            	AFileOrAFolder sourceItem = sourceContents.get(sourceIndex);
+            	boolean isFolder = sourceItem instanceof AFolder;
+            	String nameInDest = getNameInDest(sourceItem, level, commandLineArguments);
             	
-            	// If it's a folder, and if it's the first level, then we'll do foldernamemapping
-            	if (
-            			   (level == 1) 
-            			&& (sourceItem instanceof AFolder) 
-            			&& (commandLineArguments.folderNameMapping.containsKey((originalSourceItemName)))
-            			&& (commandLineArguments.folderNameMapping.get(originalSourceItemName) != null)
-            		) {
-            		newSourceItemName = commandLineArguments.folderNameMapping.get(originalSourceItemName);
-            		sourceItem.setName(newSourceItemName);
+            	// items in dest that come before sourceItem don't exist in source
+            	while (destIndex < destContents.size() && compareToCanonicalOrder(destContents.get(destIndex), isFolder, nameInDest) < 0) {
+            		destIndex++;
             	}
             	
-                // Find the corresponding item in dest
-                AFileOrAFolder matchingDestItem = findMatchingItem(sourceItem, destContents);
+            	if (destIndex < destContents.size() && compareToCanonicalOrder(destContents.get(destIndex), isFolder, nameInDest) == 0) {
+            		matchingDestItems[sourceIndex] = destContents.get(destIndex);
+            		destItemMatched[destIndex] = true;
+            		destIndex++;
+            	}
+            	
+            }
+            
+            // files and folders are compared separately, a file that is now a folder with the same name or vice versa is not matched
+            // names of the items in dest without match, usually there are only a few
+            Set<String> unmatchedDestNames = new HashSet<>();
+            for (int i = 0; i < destContents.size(); i++) {
+            	if (!destItemMatched[i]) {unmatchedDestNames.add(destContents.get(i).getName());}
+            }
+            for (int i = 0; i < sourceContents.size(); i++) {
+            	if (matchingDestItems[i] == null && unmatchedDestNames.contains(getNameInDest(sourceContents.get(i), level, commandLineArguments))) {
+                	Logger.log("In compareAndUpdate(AFileOrAFolder source, AFileOrAFolder dest), not both File and not both Folder");
+                	Logger.log("   this is a difficult situation. It looks like an item that was previously a file is now a folder with the same name, or vice versa.");
+                	Logger.log("   Backup interrupted");
+                	System.exit(1);
+            	}
+            }
+            
+            // new items are added to destContents at the end, after removing the items that don't exist anymore
+            List<AFileOrAFolder> newDestItems = new ArrayList<>();
 
-                // set back the original source item name, we will replace again later on by calling the funcion doFolderNameMapping, somewhere else
-            	sourceItem.setName(originalSourceItemName);
+            // Process files and folders in source
+            for (int sourceIndex = 0; sourceIndex < sourceContents.size(); sourceIndex++) {
+            	
+            	AFileOrAFolder sourceItem = sourceContents.get(sourceIndex);
+            	
+            	// for the foldername mapping, the item was compared with the mapped name, the original name is used to copy
+            	String originalSourceItemName = sourceItem.getName();
+            	
+                AFileOrAFolder matchingDestItem = matchingDestItems[sourceIndex];
 
                 if (matchingDestItem == null) {
                 	
-                    destContents.add(sourceItem);
-                	if (sourceItem instanceof AFile) {
-
-                    	Logger.log("   Adding new file : " + OtherUtilities.concatenateStrings(OtherUtilities.addString(subfolders, originalSourceItemName)));
+                    newDestItems.add(sourceItem);
+                    if (moveDetector != null) {
                     	
-                        // create the folder in the destination if it doesn't exist yet
-                        try {
-        					Files.createDirectories(PathUtilities.concatenatePaths(destBackupFolderPath, subfolders));
-        				} catch (IOException e) {
-        					e.printStackTrace();
-        		            Logger.log("Exception in compareAndUpdateFiles(AFileOrAFolder, AFileOrAFolder.. while creating the directory " + PathUtilities.concatenatePaths(destBackupFolderPath, subfolders).toString());
-        		            Logger.log(e.toString());
-        		            System.exit(1);
-        				}
-                        
-                        try {
-                        	// add sourcefile name to dest and source file, it's the same name
-                        	Path destPath = PathUtilities.concatenatePaths(destBackupFolderPath, OtherUtilities.addString(subfolders, originalSourceItemName));
-        					Files.copy(PathUtilities.concatenatePaths(sourceFolderPath, OtherUtilities.addString(subfolders, originalSourceItemName)), destPath, StandardCopyOption.COPY_ATTRIBUTES);
-        	                if (commandLineArguments.addpathlengthforfolderswithnewormodifiedcontent) {
-        	                    System.out.println("path length = " + String.format("%5s", destPath.toString().length()) + "; path = " + destPath.toString());
-        	                }
-
-
-        				} catch (IOException e) {
-        					e.printStackTrace();
-        		            Logger.log("Exception in compareAndUpdateFiles(AFileOrAFolder, AFileOrAFolder.. while copying a file from " + PathUtilities.concatenatePaths(sourceFolderPath, subfolders).toString() + " to " + PathUtilities.concatenatePaths(destBackupFolderPath, subfolders));
-        		            Logger.log(e.toString());
-        		            System.exit(1);
-        				}
+                    	// added to backupPlan later, if not moved
+                    	moveDetector.addNew(sourceItem, pathContext);
+                    	
+                    } else if (sourceItem instanceof AFile) {
 
+                    	Logger.log("   Adding new file : " + pathContext.getLogPath(originalSourceItemName));
+                    	
+                    	addFileToPlan((AFile)sourceItem, pathContext, backupPlan);
 
                 	} else if (sourceItem instanceof AFolder) {// it has to be an instance of AFolder but let's check anyway
                 		
-                    	Logger.log("   Adding new folder and it's contents : " + OtherUtilities.concatenateStrings(OtherUtilities.addString(subfolders, originalSourceItemName)));
+                    	Logger.log("   Adding new folder and it's contents : " + pathContext.getLogPath(originalSourceItemName));
 
-                		// we need to copy the complete contents of the folder from source to dest
-                		try {
-							OtherUtilities.copyFolder(PathUtilities.concatenatePaths(sourceFolderPath, OtherUtilities.addString(subfolders, originalSourceItemName)), PathUtilities.concatenatePaths(destBackupFolderPath, OtherUtilities.addString(subfolders, originalSourceItemName)), commandLineArguments);
-						} catch (IOException e) {
-							e.printStackTrace();
-        		            Logger.log("Exception in compareAndUpdateFiles(AFileOrAFolder, AFileOrAFolder.. while copying a folder from " + PathUtilities.concatenatePaths(sourceFolderPath, subfolders).toString() + " to " + PathUtilities.concatenatePaths(destBackupFolderPath, subfolders));
-        		            Logger.log(e.toString());
-        		            System.exit(1);
-						}
+                		// the complete contents of the folder will be copied from source to dest
+                    	addNewFolderToPlan((AFolder)sourceItem, pathContext.getLogPath(originalSourceItemName), pathContext.getSourcePath(originalSourceItemName), backupPlan);
                 		
                 	}
                 	
@@ -373,7 +591,7 @@ public class FileAndFolderUtilities {
                 } else {
                 	
                     // Recursively compare and update the matching items
-                    compareAndUpdate(sourceItem, matchingDestItem, sourceFolderPath, destBackupFolderPath, subfolders, backupFolderName, level + 1, commandLineArguments);
+                    compareAndUpdate(sourceItem, matchingDestItem, pathContext, backupFolderName, level + 1, commandLineArguments, backupPlan, moveDetector, contentVerifier);
                     
                     // before leaving the function set matchingDestItem name to the originalSourceItemName
                     // later on we will call doFolderNameMapping, which iterates through the destination folder list. It will see that there's a mapping to be applied and then also rename the backuped folder
@@ -386,30 +604,68 @@ public class FileAndFolderUtilities {
             // but only for not level 1 folders, meaning once a backup is taken of a sharepoint library, it will not be removed anymore in the backup
             if (level > 1) {
             	
-            	int cntr = 0;
-            	while (cntr < destContents.size()) {
+            	// the remaining items are moved to the front in one pass, instead of shifting the list for each removed item
+            	int remaining = 0;
+            	for (int i = 0; i < destContents.size(); i++) {
             		
-            		AFileOrAFolder destItem = destContents.get(cntr);
+            		AFileOrAFolder destItem = destContents.get(i);
             		
-            		// Find the corresponding item in sourceContents
-                    AFileOrAFolder matchingSourceItem = findMatchingItem(destItem, sourceContents);
-                    
-                    if (matchingSourceItem == null) {
-                    	// there's no item in source with the same name, so we can remove it from dest
-                    	destContents.remove(cntr);
-                    	String fullPathString = OtherUtilities.concatenateStrings(OtherUtilities.addString(subfolders, destItem.getName()));
-                    	if (destItem instanceof AFolder) {
-                        	Logger.log("   Removed folder " + fullPathString);
-                    	} else {
-                    		Logger.log("   Removed file " + fullPathString);
-                    	}
-                    } else {
-                    	cntr = cntr +1;
+                    if (destItemMatched[i]) {
+                    	destContents.set(remaining, destItem);
+                    	remaining++;
+                    	continue;
                     }
                     
+                	// there's no item in source with the same name, so we can remove it from dest
+                	String fullPathString = pathContext.getLogPath(destItem.getName());
+                	if (destItem instanceof AFolder) {
+                    	Logger.log("   Removed folder " + fullPathString);
+                	} else {
+                		Logger.log("   Removed file " + fullPathString);
+                	}
+                	
+                	if (moveDetector != null) {
+                		moveDetector.addRemoved(destItem, pathContext);
+                	}
+                    
             	}
+            	destContents.subList(remaining, destContents.size()).clear();
             	
             }
+            
+            // keep destContents in CANONICAL_ORDER, the new items are sorted already, so it's merging two sorted lists
+            if (newDestItems.size() > 0) {
+            	destContents.addAll(newDestItems);
+            	destContents.sort(CANONICAL_ORDER);
+            }
+            
+        }
+        
+        /**
+         * name to use for sourceItem when comparing with dest, for folders at level 1 that's the name after foldername mapping
+         */
+        private static String getNameInDest(AFileOrAFolder sourceItem, Integer level, CommandLineArguments commandLineArguments) {
+        	
+        	if (level == 1 && sourceItem instanceof AFolder && commandLineArguments.folderNameMapping.get(sourceItem.getName()) != null) {
+        		return commandLineArguments.folderNameMapping.get(sourceItem.getName());
+        	}
+        	
+        	return sourceItem.getName();
+        	
+        }
+        
+        /**
+         * compares item with a file or folder with the given name, in CANONICAL_ORDER
+         * @return negative if item comes first, 0 if same type and name, positive if item comes after
+         */
+        private static int compareToCanonicalOrder(AFileOrAFolder item, boolean isFolder, String name) {
+        	
+        	if ((item instanceof AFolder) != isFolder) {
+        		return isFolder ? -1 : 1;
+        	}
+        	
+        	return item.getName().compareTo(name);
+        	
         }
 
 }
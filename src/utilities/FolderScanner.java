@@ -0,0 +1,760 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CommandLineArguments;
+import model.FolderTimestampIndex;
+import model.ScannedFolder;
+
+/**
+ * reads all files and folders in the source and builds the instance of AFolder that represents the source<br>
+ * One ForkJoinTask is created per directory, the tasks run in a ForkJoinPool with parallelism commandLineArguments.scanThreads<br>
+ * Within a folder, the children are always stored in FileAndFolderUtilities.CANONICAL_ORDER, no matter in which order the DirectoryStream returns them or which thread finishes first. This means
+ * a serial scan (scanThreads = 1) and a parallel scan produce exactly the same AFolder, and so the same folderlist.json<br>
+ * <br>
+ * With singleStatScan, the type and last modified timestamp of each entry are read in one call, instead of calling Files.isDirectory and Files.getLastModifiedTime.
+ * The number of filesystem calls per scanned entry is logged at the end of the scan.<br>
+ * <br>
+ * Which files and folders are excluded is decided by commandLineArguments.exclusionMatcher. Excluded folders are never opened.<br>
+ * <br>
+ * Optionally the previous backup is reused for folders that did not change, see FolderTimestampIndex and ChangeJournal.<br>
+ * <br>
+ * Optionally each folder is published as soon as it is read, see IncrementalBackupPipeline.
+ */
+public class FolderScanner {
+
+	/**
+	 * scans sourceFolderPath recursively
+	 * @param sourceFolderPath the folder to backup
+	 * @param backupFolderName foldername of the full or incremental backup, example '2024-01-12 16;46;55 (Full)', stored in each instance of AFile and AFolder
+	 * @param commandLineArguments needed for the excluded files and paths, the number of threads and the scan mode
+	 * @return an instance of AFolder, with name the full sourceFolderPath and pathToBackup an empty string
+	 * @throws IOException
+	 */
+	public static AFolder scan(Path sourceFolderPath, String backupFolderName, CommandLineArguments commandLineArguments) throws IOException {
+		return scan(sourceFolderPath, backupFolderName, commandLineArguments, null, null, null, null, null);
+	}
+
+	/**
+	 * scans sourceFolderPath recursively, reusing the list of children of the previous backup for folders that did not change, according to previousFolderIndex<br>
+	 * For such a folder, the files are taken from previousBackup, including their last modified timestamp. The subfolders are still checked one by one, because
+	 * a change deeper in the tree does not change the last modified timestamp of the folder.<br>
+	 * If the attributes of such a subfolder can not be read (eg it was removed and the folder timestamp was reset), then the folder is read anyway.
+	 * @param sourceFolderPath the folder to backup
+	 * @param backupFolderName foldername of the full or incremental backup, example '2024-01-12 16;46;55 (Full)', stored in each instance of AFile and AFolder
+	 * @param commandLineArguments needed for the excluded files and paths, the number of threads and the scan mode
+	 * @param previousBackup contents of folderlist.json of the previous backup, null if no reuse is needed
+	 * @param previousFolderIndex contents of folderindex.json of the previous backup, null if no reuse is needed
+	 * @param folderIndex will get the last modified timestamp and number of children of each folder that is scanned, can be null
+	 * @param changedPaths paths that changed since the previous backup according to the change journal, relative to the source folder with / as separator.
+	 * A path that ends with ChangeJournal.SUBTREE_SUFFIX is a folder that was created, all its subfolders are read too.
+	 * If not null, then only the folders with changes are read, previousFolderIndex is then not used to decide which folders to read. See ChangeJournal
+	 * @param folderListener if not null, called with the contents of each folder as soon as it is read, a folder is always published before its subfolders.<br>
+	 * The list of children of previousBackup is not used by the scanner anymore once the folder is published, so the listener may change it.<br>
+	 * In that case the returned AFolder has no children, to avoid keeping the complete source in memory.
+	 * @return an instance of AFolder, with name the full sourceFolderPath and pathToBackup an empty string
+	 * @throws IOException
+	 */
+	public static AFolder scan(Path sourceFolderPath, String backupFolderName, CommandLineArguments commandLineArguments, AFolder previousBackup, FolderTimestampIndex previousFolderIndex, FolderTimestampIndex folderIndex, Set<String> changedPaths, Consumer<ScannedFolder> folderListener) throws IOException {
+
+		ScanContext scanContext = new ScanContext(backupFolderName, commandLineArguments, (previousBackup == null) ? null : previousFolderIndex, folderIndex, (previousBackup == null) ? null : changedPaths, folderListener);
+		
+		ForkJoinPool forkJoinPool = new ForkJoinPool(commandLineArguments.scanThreads);
+
+		try {
+
+			AFolder returnValue = forkJoinPool.invoke(new ScanTask(sourceFolderPath, Paths.get(""), null, (scanContext.previousFolderIndex == null && scanContext.changedFolders == null) ? null : previousBackup, 0, scanContext));
+			
+			scanContext.logStatistics();
+			commandLineArguments.exclusionMatcher.logStatistics();
+			
+			return returnValue;
+
+		} catch (UncheckedIOException e) {
+			// thrown by one of the tasks, the original IOException is the cause
+			throw e.getCause();
+		} finally {
+			forkJoinPool.shutdown();
+		}
+
+	}
+	
+	/**
+	 * compares two instances of AFolder, for instance the result of a scan that reused the previous backup and the result of a scan that read all folders<br>
+	 * The order of the children is not taken into account. Each difference is logged.
+	 * @param expected
+	 * @param actual
+	 * @param path used in the log, "" for the source folder
+	 * @return the number of differences
+	 */
+	public static int logDifferences(AFolder expected, AFolder actual, String path) {
+		
+		int differences = 0;
+		
+		Map<String, AFileOrAFolder> actualChildren = new HashMap<>();
+		for (AFileOrAFolder actualChild : actual.getFileOrFolderList()) {
+			actualChildren.put(actualChild.getName(), actualChild);
+		}
+		
+		for (AFileOrAFolder expectedChild : expected.getFileOrFolderList()) {
+			
+			String childPath = path.length() == 0 ? expectedChild.getName() : path + File.separator + expectedChild.getName();
+			AFileOrAFolder actualChild = actualChildren.remove(expectedChild.getName());
+			
+			if (actualChild == null) {
+				Logger.log("   missing " + childPath);
+				differences++;
+			} else if (expectedChild instanceof AFolder && actualChild instanceof AFolder) {
+				differences += logDifferences((AFolder)expectedChild, (AFolder)actualChild, childPath);
+			} else if (expectedChild instanceof AFile && actualChild instanceof AFile) {
+				if (((AFile)expectedChild).getts() != ((AFile)actualChild).getts()) {
+					Logger.log("   different timestamp for " + childPath);
+					differences++;
+				}
+			} else {
+				Logger.log("   file instead of folder or vice versa " + childPath);
+				differences++;
+			}
+			
+		}
+		
+		for (String name : actualChildren.keySet()) {
+			Logger.log("   not expected " + (path.length() == 0 ? name : path + File.separator + name));
+			differences++;
+		}
+		
+		return differences;
+		
+	}
+	
+	/**
+	 * everything the tasks of one scan share
+	 */
+	private static class ScanContext {
+		
+		private final String backupFolderName;
+
+		private final CommandLineArguments commandLineArguments;
+		
+		/**
+		 * number of calls to the filesystem (directory listings, isDirectory, reading of attributes ...)
+		 */
+		private final LongAdder fileSystemCalls = new LongAdder();
+		
+		/**
+		 * number of files and folders found in the source, excluded files and folders included
+		 */
+		private final LongAdder scannedEntries = new LongAdder();
+		
+		/**
+		 * number of files and folders taken from the previous backup, for folders that did not change
+		 */
+		private final LongAdder reusedEntries = new LongAdder();
+		
+		/**
+		 * null if nothing needs to be reused
+		 */
+		private final FolderTimestampIndex previousFolderIndex;
+		
+		/**
+		 * null if no index needs to be created
+		 */
+		private final FolderTimestampIndex folderIndex;
+		
+		/**
+		 * folders that need to be read because a file or folder in it changed, according to the change journal<br>
+		 * null if the change journal is not used
+		 */
+		private final Set<String> changedFolders;
+		
+		/**
+		 * folders that have a change somewhere deeper, including the folders in changedFolders and "" for the source folder
+		 */
+		private final Set<String> foldersWithChanges;
+		
+		/**
+		 * folders that were created according to the change journal, the folder and all folders in it need to be read<br>
+		 * Such a folder may have been deleted and created again, or moved in, so the previous backup has nothing to reuse for any of them
+		 */
+		private final Set<String> changedSubtrees;
+		
+		/**
+		 * null if the folders don't need to be published
+		 */
+		private final Consumer<ScannedFolder> folderListener;
+		
+		ScanContext(String backupFolderName, CommandLineArguments commandLineArguments, FolderTimestampIndex previousFolderIndex, FolderTimestampIndex folderIndex, Set<String> changedPaths, Consumer<ScannedFolder> folderListener) {
+			
+			this.backupFolderName = backupFolderName;
+			this.commandLineArguments = commandLineArguments;
+			this.previousFolderIndex = previousFolderIndex;
+			this.folderIndex = folderIndex;
+			this.folderListener = folderListener;
+			
+			if (changedPaths == null) {
+				changedFolders = null;
+				foldersWithChanges = null;
+				changedSubtrees = null;
+				return;
+			}
+			
+			changedFolders = new HashSet<>();
+			foldersWithChanges = new HashSet<>();
+			foldersWithChanges.add("");
+			changedSubtrees = new HashSet<>();
+			
+			for (String changedPath : changedPaths) {
+				
+				if (changedPath.endsWith(ChangeJournal.SUBTREE_SUFFIX)) {
+					changedPath = changedPath.substring(0, changedPath.length() - ChangeJournal.SUBTREE_SUFFIX.length());
+					changedSubtrees.add(changedPath);
+				}
+				
+				// the changed path itself may be a folder (eg a folder that was created), its parent has a changed list of children
+				changedFolders.add(changedPath);
+				int separatorIndex = changedPath.lastIndexOf('/');
+				changedFolders.add(separatorIndex < 0 ? "" : changedPath.substring(0, separatorIndex));
+				
+				for (separatorIndex = changedPath.indexOf('/'); separatorIndex >= 0; separatorIndex = changedPath.indexOf('/', separatorIndex + 1)) {
+					foldersWithChanges.add(changedPath.substring(0, separatorIndex));
+				}
+				foldersWithChanges.add(changedPath);
+				
+			}
+			
+		}
+		
+		/**
+		 * true if the folder needs to be read because of a change in it, according to the change journal
+		 */
+		private boolean isChanged(String relativePath) {
+			return changedFolders.contains(relativePath) || isInChangedSubtree(relativePath);
+		}
+		
+		/**
+		 * true if there's a change in the folder or somewhere deeper, according to the change journal
+		 */
+		private boolean hasChanges(String relativePath) {
+			return foldersWithChanges.contains(relativePath) || isInChangedSubtree(relativePath);
+		}
+		
+		/**
+		 * true if relativePath or one of its parent folders is in changedSubtrees
+		 */
+		private boolean isInChangedSubtree(String relativePath) {
+			
+			if (changedSubtrees.isEmpty()) {return false;}
+			
+			for (String path = relativePath; ; ) {
+				if (changedSubtrees.contains(path)) {return true;}
+				int separatorIndex = path.lastIndexOf('/');
+				if (separatorIndex < 0) {return false;}
+				path = path.substring(0, separatorIndex);
+			}
+			
+		}
+		
+		private void logStatistics() {
+			long entries = scannedEntries.sum();
+			long calls = fileSystemCalls.sum();
+			Logger.log("Scanned " + entries + " files and folders with " + calls + " filesystem calls (" + String.format("%.2f", entries == 0 ? 0.0 : (double)calls / entries) + " per entry, " + (commandLineArguments.singleStatScan ? "single stat scan" : "standard scan") + ")");
+			if (previousFolderIndex != null || changedFolders != null) {
+				Logger.log("   " + reusedEntries.sum() + " files and folders taken from the previous backup, for folders that did not change");
+			}
+		}
+		
+	}
+
+	/**
+	 * creates an instance of AFolder for one folder<br>
+	 * A new ScanTask is forked for each subfolder
+	 */
+	private static class ScanTask extends RecursiveTask<AFolder> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * path to the folder
+		 */
+		private final Path folderPath;
+		
+		/**
+		 * path to the folder, relative to the source folder, an empty path for the source folder itself
+		 */
+		private final Path relativePath;
+		
+		/**
+		 * attributes of the folder, as read while listing the parent folder<br>
+		 * null for the source folder itself and if singleStatScan is false
+		 */
+		private final BasicFileAttributes folderAttributes;
+		
+		/**
+		 * the same folder in the previous backup, null if not reusing or if it's a new folder
+		 */
+		private final AFolder previousFolder;
+		
+		/**
+		 * subfolders of previousFolder by name, only created when needed
+		 */
+		private Map<String, AFolder> previousSubFolders = null;
+
+		/**
+		 * 0 for the source folder itself, 1 for the folders in the source folder, ...
+		 */
+		private final int level;
+
+		private final ScanContext scanContext;
+
+		// the children in the order of the listing. For folders, the element is an empty AFolder until the subtask is joined
+		private final List<AFileOrAFolder> children = new ArrayList<>();
+
+		// subtasks, with at the same index in subTaskIndexes, the index in children where the result must be stored
+		private final List<ScanTask> subTasks = new ArrayList<>();
+		private final List<Integer> subTaskIndexes = new ArrayList<>();
+
+		ScanTask(Path folderPath, Path relativePath, BasicFileAttributes folderAttributes, AFolder previousFolder, int level, ScanContext scanContext) {
+			this.folderPath = folderPath;
+			this.relativePath = relativePath;
+			this.folderAttributes = folderAttributes;
+			this.previousFolder = previousFolder;
+			this.level = level;
+			this.scanContext = scanContext;
+		}
+
+		@Override
+		protected AFolder compute() {
+
+			try {
+
+				return scanFolder();
+
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+		}
+
+		private AFolder scanFolder() throws IOException {
+
+			// for the source folder itself, we use the full path as name and an empty pathToBackup, as was done before
+			// the name is set to "" later on anyway
+			AFolder returnValue = (level == 0) ? new AFolder(folderPath.toString(), "") : new AFolder(folderPath.getFileName().toString(), scanContext.backupFolderName);
+
+			String relativePathAsString = relativePath.toString().replace(File.separatorChar, '/');
+
+			// with the change journal, a folder without any change in it or deeper is copied from the previous backup as a whole, without reading anything
+			if (level > 0 && previousFolder != null && scanContext.changedFolders != null && !scanContext.hasChanges(relativePathAsString)) {
+				AFolder copy = copyPreviousFolder(previousFolder, folderPath, relativePath, relativePathAsString);
+				if (scanContext.folderListener != null) {
+					publishCopiedFolder(copy, relativePathAsString, level);
+					return new AFolder(copy.getName(), scanContext.backupFolderName);
+				}
+				return copy;
+			}
+			
+			// the folder timestamp is needed to reuse the previous backup and to create the index
+			BasicFileAttributes attributes = folderAttributes;
+			if (attributes == null && ((scanContext.previousFolderIndex != null && scanContext.changedFolders == null) || scanContext.folderIndex != null)) {
+				scanContext.fileSystemCalls.increment();
+				attributes = Files.readAttributes(folderPath, BasicFileAttributes.class);
+			}
+			
+			// the source folder itself is always read, it's only a few folders and the foldername mapping applies to it
+			boolean reused = false;
+			if (level > 0 && previousFolder != null) {
+				if (scanContext.changedFolders != null) {
+					// the change journal says there are changes deeper, but not in the folder itself
+					reused = !scanContext.isChanged(relativePathAsString) && reusePreviousFolder(false);
+				} else {
+					reused = scanContext.previousFolderIndex.isUnchanged(relativePathAsString, attributes.lastModifiedTime().toMillis(), previousFolder.getFileOrFolderList().size())
+							&& reusePreviousFolder(true);
+				}
+			}
+			
+			if (!reused) {
+				if (scanContext.commandLineArguments.singleStatScan) {
+					listFolderWithAttributes();
+				} else {
+					listFolder();
+				}
+			}
+			
+			// the folder is published before the subtasks are forked, so that it's always published before its subfolders
+			if (scanContext.folderListener != null) {
+				List<AFileOrAFolder> sortedChildren = new ArrayList<>(children);
+				sortedChildren.sort(FileAndFolderUtilities.CANONICAL_ORDER);
+				scanContext.folderListener.accept(new ScannedFolder(relativePathAsString, level, sortedChildren));
+				for (ScanTask subTask : subTasks) {
+					subTask.fork();
+				}
+			}
+
+	        // join in reverse order of forking, the most recently forked task is most likely still in our own queue
+	        for (int i = subTasks.size() - 1; i >= 0; i--) {
+	        	children.set(subTaskIndexes.get(i), subTasks.get(i).join());
+	        }
+
+	        // with a folderListener, the folders are already published, no need to keep them
+	        if (scanContext.folderListener == null) {
+	        	children.sort(FileAndFolderUtilities.CANONICAL_ORDER);
+		        for (AFileOrAFolder child : children) {
+		        	returnValue.addFileOrFolder(child);
+		        }
+	        }
+	        
+	        if (scanContext.folderIndex != null) {
+	        	scanContext.folderIndex.putFolder(relativePathAsString, attributes.lastModifiedTime().toMillis(), children.size());
+	        }
+
+            if (level > 0 && scanContext.commandLineArguments.addpathlengthforallfolders) {
+                System.out.println("path length = " + String.format("%5s", folderPath.toString().length()) + "; path = " + folderPath.toString());
+            }
+
+	        // the task is kept by the parent task until the parent is done, with a folderListener the children are not needed anymore
+	        if (scanContext.folderListener != null) {
+	        	children.clear();
+	        	subTasks.clear();
+	        }
+
+	        return returnValue;
+
+		}
+		
+		/**
+		 * creates the children based on previousFolder, without reading the folder
+		 * @param checkSubFolders if true, the attributes of the subfolders are read
+		 * @return false if a subfolder does not exist anymore or is not a folder anymore, in that case nothing is added to children
+		 */
+		private boolean reusePreviousFolder(boolean checkSubFolders) {
+			
+			List<BasicFileAttributes> subFolderAttributes = new ArrayList<>();
+			
+			for (AFileOrAFolder previousChild : previousFolder.getFileOrFolderList()) {
+				
+				if (previousChild instanceof AFolder) {
+					
+					if (!checkSubFolders) {
+						subFolderAttributes.add(null);
+						continue;
+					}
+					
+					try {
+						scanContext.fileSystemCalls.increment();
+						BasicFileAttributes attributes = Files.readAttributes(folderPath.resolve(previousChild.getName()), BasicFileAttributes.class);
+						if (!attributes.isDirectory()) {return false;}
+						subFolderAttributes.add(attributes);
+					} catch (IOException e) {
+						return false;
+					}
+					
+				}
+				
+			}
+			
+			int subFolderCounter = 0;
+			
+			for (AFileOrAFolder previousChild : previousFolder.getFileOrFolderList()) {
+				
+				scanContext.reusedEntries.increment();
+				
+				if (previousChild instanceof AFolder) {
+					
+					Path path = folderPath.resolve(previousChild.getName());
+					Path relativeFolderPath = relativePath.resolve(previousChild.getName());
+					
+					// excludedpathlist may have changed since the previous backup
+	        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFolder(relativeFolderPath, path)) {
+	        			subFolderCounter++;
+	        			continue;
+	        		}
+	        		
+	        		addSubTask(path, relativeFolderPath, subFolderAttributes.get(subFolderCounter), (AFolder)previousChild);
+	        		subFolderCounter++;
+					
+				} else {
+					
+					// excludedfilelist may have changed since the previous backup
+	        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFile(Paths.get(previousChild.getName()))) {
+	            		continue;
+	        		}
+	        		
+	        		children.add(new AFile(previousChild.getName(), ((AFile)previousChild).getts(), scanContext.backupFolderName));
+					
+				}
+				
+			}
+			
+			return true;
+			
+		}
+		
+		/**
+		 * creates a copy of a folder in the previous backup, with all its subfolders, without reading anything in the source<br>
+		 * The excluded files and paths are applied again, because they may have changed since the previous backup.
+		 * @param previousFolder the folder in the previous backup
+		 * @param path path to the folder in the source
+		 * @param relativePath path to the folder, relative to the source folder
+		 * @param relativePathAsString the same, with / as separator
+		 * @return the copy, with backupFolderName as pathToBackup for each file and folder
+		 */
+		private AFolder copyPreviousFolder(AFolder previousFolder, Path path, Path relativePath, String relativePathAsString) {
+			
+			AFolder returnValue = new AFolder(previousFolder.getName(), scanContext.backupFolderName);
+			
+			for (AFileOrAFolder previousChild : previousFolder.getFileOrFolderList()) {
+				
+				scanContext.reusedEntries.increment();
+				
+				if (previousChild instanceof AFolder) {
+					
+					Path relativeFolderPath = relativePath.resolve(previousChild.getName());
+					
+					Path subFolderPath = path.resolve(previousChild.getName());
+					
+	        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFolder(relativeFolderPath, subFolderPath)) {
+	        			continue;
+	        		}
+	        		
+	        		returnValue.addFileOrFolder(copyPreviousFolder((AFolder)previousChild, subFolderPath, relativeFolderPath, relativePathAsString + "/" + previousChild.getName()));
+					
+				} else {
+					
+	        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFile(Paths.get(previousChild.getName()))) {
+	            		continue;
+	        		}
+	        		
+	        		returnValue.addFileOrFolder(new AFile(previousChild.getName(), ((AFile)previousChild).getts(), scanContext.backupFolderName));
+					
+				}
+				
+			}
+			
+			// the folder is not read, so the entry of the previous index is kept
+			if (scanContext.folderIndex != null && scanContext.previousFolderIndex != null && scanContext.previousFolderIndex.getFolders().get(relativePathAsString) != null) {
+				scanContext.folderIndex.getFolders().put(relativePathAsString, scanContext.previousFolderIndex.getFolders().get(relativePathAsString));
+			}
+			
+			return returnValue;
+			
+		}
+		
+		/**
+		 * lists the folder with a DirectoryStream, for each entry Files.isDirectory is called and for files also Files.getLastModifiedTime
+		 * @throws IOException
+		 */
+		private void listFolder() throws IOException {
+			
+			scanContext.fileSystemCalls.increment();
+			
+	        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(folderPath)) {
+
+	        	for (Path path : directoryStream) {
+
+	        		scanContext.fileSystemCalls.increment();
+	        		
+	        		processEntry(path, Files.isDirectory(path), null);
+	        		
+	        	}
+	        	
+	        }
+			
+		}
+		
+		/**
+		 * lists the folder with Files.walkFileTree, limited to depth 1. The type and the last modified timestamp of each entry are read in one call<br>
+		 * On Windows, the attributes are even returned by the directory listing itself, no extra call is needed.
+		 * @throws IOException
+		 */
+		private void listFolderWithAttributes() throws IOException {
+			
+			// one call to read the attributes of the folder itself, one to open it
+			scanContext.fileSystemCalls.add(2);
+			
+			Files.walkFileTree(folderPath, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<Path>() {
+				
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+					
+					scanContext.fileSystemCalls.increment();
+					
+					// links are not followed by walkFileTree, but they are by Files.isDirectory, which is what the standard scan uses
+					if (attributes.isSymbolicLink()) {
+						scanContext.fileSystemCalls.increment();
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					}
+					
+					processEntry(path, attributes.isDirectory(), attributes);
+					
+					return FileVisitResult.CONTINUE;
+					
+				}
+				
+			});
+			
+		}
+		
+		/**
+		 * processes one entry in the folder: checks if it needs to be excluded, if not, creates an AFile or forks a new ScanTask
+		 * @param path the file or folder
+		 * @param isDirectory true if it's a folder
+		 * @param attributes the attributes of the file or folder, if null (standard scan), the last modified timestamp of a file will be read from the filesystem
+		 * @throws IOException
+		 */
+		private void processEntry(Path path, boolean isDirectory, BasicFileAttributes attributes) throws IOException {
+
+    		String fileOrFolderName = path.getFileName().toString();
+
+    		// with subfoldertobackup, only that folder is read, the comparison keeps the other ones from the previous backup
+    		if (level == 0 && scanContext.commandLineArguments.subfolderToBackup.length() > 0 && !fileOrFolderName.equals(scanContext.commandLineArguments.subfolderToBackup)) {
+    			return;
+    		}
+
+			scanContext.scannedEntries.increment();
+
+    		if (!isDirectory) {
+
+        		// check if the file is in excludedfilelist, example .DS_Store, or if it's a Microsoft hidden file
+        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFile(path.getFileName())) {
+            		return;
+        		}
+        		
+        		long lastModified = 0;
+        		if (attributes != null) {
+        			lastModified = attributes.lastModifiedTime().toMillis();
+        		} else {
+        			scanContext.fileSystemCalls.increment();
+        			lastModified = Files.getLastModifiedTime(path).toMillis();
+        		}
+
+        		AFile aFile = new AFile(fileOrFolderName, lastModified, scanContext.backupFolderName);
+        		
+        		// the size is kept for the BackupPlan, so that new files don't need to be read again
+        		if (attributes != null) {
+        			aFile.setSize(attributes.size());
+        		}
+        		
+        		children.add(aFile);
+
+    		} else {
+
+        		Path relativeFolderPath = relativePath.resolve(fileOrFolderName);
+        		
+        		// check if folder is in excludedpathlist, if so it's not opened
+        		if (scanContext.commandLineArguments.exclusionMatcher.isExcludedFolder(relativeFolderPath, path)) {
+        			return;
+        		}
+
+        		if (level == 0) {
+        			Logger.log("   Reading files in folder \"" + fileOrFolderName + "\"");
+        		}
+
+        		addSubTask(path, relativeFolderPath, attributes, getPreviousSubFolder(fileOrFolderName));
+
+    		}
+			
+		}
+		
+		/**
+		 * forks a new ScanTask for a subfolder, and reserves its place in children<br>
+		 * With a folderListener, the task is forked after publishing this folder
+		 */
+		private void addSubTask(Path path, Path relativeFolderPath, BasicFileAttributes attributes, AFolder previousSubFolder) {
+			
+    		ScanTask subTask = new ScanTask(path, relativeFolderPath, attributes, previousSubFolder, level + 1, scanContext);
+    		if (scanContext.folderListener == null) {
+    			subTask.fork();
+    		}
+    		subTasks.add(subTask);
+    		subTaskIndexes.add(children.size());
+    		children.add(new AFolder(path.getFileName().toString(), scanContext.backupFolderName));
+			
+		}
+		
+		/**
+		 * publishes a folder that was copied from the previous backup, and all its subfolders, parent before child
+		 */
+		private void publishCopiedFolder(AFolder copy, String copyRelativePath, int copyLevel) {
+			
+			scanContext.folderListener.accept(new ScannedFolder(copyRelativePath, copyLevel, copy.getFileOrFolderList()));
+			
+			for (AFileOrAFolder child : copy.getFileOrFolderList()) {
+				if (child instanceof AFolder) {
+					publishCopiedFolder((AFolder)child, copyRelativePath + "/" + child.getName(), copyLevel + 1);
+				}
+			}
+			
+		}
+		
+		/**
+		 * finds the subfolder with name subFolderName in previousFolder
+		 * @param subFolderName name of the subfolder in the source. For the folders in the source folder itself, the foldername mapping is applied, because that's the name in folderlist.json
+		 * @return null if not found or if not reusing
+		 */
+		private AFolder getPreviousSubFolder(String subFolderName) {
+			
+			if (previousFolder == null) {return null;}
+			
+			if (previousSubFolders == null) {
+				previousSubFolders = new HashMap<>();
+				for (AFileOrAFolder previousChild : previousFolder.getFileOrFolderList()) {
+					if (previousChild instanceof AFolder) {
+						previousSubFolders.put(previousChild.getName(), (AFolder)previousChild);
+					}
+				}
+			}
+			
+			String nameInPreviousBackup = subFolderName;
+			if (level == 0 && scanContext.commandLineArguments.folderNameMapping.get(subFolderName) != null) {
+				nameInPreviousBackup = scanContext.commandLineArguments.folderNameMapping.get(subFolderName);
+			}
+			
+			return previousSubFolders.get(nameInPreviousBackup);
+			
+		}
+
+	}
+
+}
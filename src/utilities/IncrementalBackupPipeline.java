@@ -0,0 +1,257 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyJob;
+import model.FolderTimestampIndex;
+import model.ScannedFolder;
+
+/**
+ * incremental backup in three stages that run at the same time:<br>
+ * - the scanner reads the source and publishes each folder as soon as it is read (see FolderScanner)<br>
+ * - the comparison, in the calling thread, takes each folder, compares it with the same folder in the previous backup and updates the previous backup, the same way as FileAndFolderUtilities.compareAndUpdate<br>
+ * - the copy stage copies the new and modified files (see CopyStage)<br>
+ * The stages are connected with bounded queues, a stage waits when the next one can not follow. So copying starts as soon as the first modified file is found,
+ * and the source is never completely in memory, only the previous backup, which is needed anyway to create the new folderlist.json
+ */
+public class IncrementalBackupPipeline {
+
+	/**
+	 * published by the scanner thread when the scan is finished
+	 */
+	private static final ScannedFolder END = new ScannedFolder(null, 0, null);
+
+	/**
+	 * runs the incremental backup<br>
+	 * previousBackup is updated so that it represents the new backup, ready to be written as folderlist.json. The foldername mapping still needs to be done
+	 * @param sourceFolderPath the folder to backup
+	 * @param destBackupFolderPath folder of the new backup, including the backup foldername
+	 * @param previousBackup contents of folderlist.json of the previous backup, with name ""
+	 * @param backupFolderName name of the new backup, example '2024-01-12 16;46;55 (Incremental)'
+	 * @param commandLineArguments
+	 * @param previousFolderIndex see FolderScanner.scan
+	 * @param folderIndex see FolderScanner.scan
+	 * @param changedPaths see FolderScanner.scan
+	 */
+	public static void run(Path sourceFolderPath, Path destBackupFolderPath, AFolder previousBackup, String backupFolderName, CommandLineArguments commandLineArguments, FolderTimestampIndex previousFolderIndex, FolderTimestampIndex folderIndex, Set<String> changedPaths) {
+
+		long startTimeStamp = System.currentTimeMillis();
+
+		BlockingQueue<ScannedFolder> scannedFolders = new ArrayBlockingQueue<>(Constants.PIPELINE_FOLDER_QUEUE_SIZE);
+
+		Thread scanThread = new Thread(() -> {
+
+			try {
+				FolderScanner.scan(sourceFolderPath, backupFolderName, commandLineArguments, previousBackup, previousFolderIndex, folderIndex, changedPaths, scannedFolder -> put(scannedFolders, scannedFolder));
+				Logger.log("Reading the source took " + (System.currentTimeMillis() - startTimeStamp) + " ms, using " + commandLineArguments.scanThreads + " thread(s)");
+			} catch (IOException e) {
+	            e.printStackTrace();
+	            Logger.log("Exception in IncrementalBackupPipeline, while reading the source");
+	            Logger.log(e.toString());
+	            System.exit(1);
+			}
+
+			put(scannedFolders, END);
+
+		}, "scan");
+
+		CopyStage copyStage = new CopyStage(commandLineArguments);
+
+		/**
+		 * folders in previousBackup for the folders that are published but not yet compared, key = relative path in the source with / as separator
+		 */
+		Map<String, AFolder> foldersToCompare = new HashMap<>();
+		foldersToCompare.put("", previousBackup);
+
+		/**
+		 * relative paths of the folders that did not exist in the previous backup
+		 */
+		Set<String> newFolders = new HashSet<>();
+
+		copyStage.start();
+		scanThread.start();
+
+		try {
+
+			for (ScannedFolder scannedFolder = scannedFolders.take(); scannedFolder != END; scannedFolder = scannedFolders.take()) {
+				compareFolder(scannedFolder, foldersToCompare, newFolders, sourceFolderPath, destBackupFolderPath, backupFolderName, commandLineArguments, copyStage);
+			}
+
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while comparing the source with the previous backup");
+			System.exit(1);
+		}
+
+		copyStage.finish(startTimeStamp);
+
+	}
+
+	/**
+	 * compares one folder of the source with the same folder in the previous backup, and creates the copy jobs, see FileAndFolderUtilities.compareAndUpdate
+	 */
+	private static void compareFolder(ScannedFolder scannedFolder, Map<String, AFolder> foldersToCompare, Set<String> newFolders, Path sourceFolderPath, Path destBackupFolderPath, String backupFolderName, CommandLineArguments commandLineArguments, CopyStage copyStage) {
+
+		String relativePath = scannedFolder.getRelativePath();
+
+		AFolder destFolder = foldersToCompare.remove(relativePath);
+
+		// the parent is always compared first, so this should not happen
+		if (destFolder == null) {
+			Logger.log("In IncrementalBackupPipeline, folder " + relativePath + " not found in the previous backup");
+			System.exit(1);
+		}
+
+		boolean isNewFolder = newFolders.remove(relativePath);
+
+		Path sourcePath = sourceFolderPath.resolve(relativePath);
+		Path destPath = destBackupFolderPath.resolve(relativePath);
+
+		Map<String, AFileOrAFolder> destContents = new HashMap<>();
+		for (AFileOrAFolder destItem : destFolder.getFileOrFolderList()) {
+			destContents.put(destItem.getName(), destItem);
+		}
+
+		Set<String> sourceNames = new HashSet<>();
+
+		for (AFileOrAFolder sourceItem : scannedFolder.getChildren()) {
+
+			String sourceItemName = sourceItem.getName();
+			String childRelativePath = relativePath.length() == 0 ? sourceItemName : relativePath + "/" + sourceItemName;
+
+			// for the folders in the source folder itself, compare with the mapped name
+			String nameInPreviousBackup = sourceItemName;
+			if (scannedFolder.getLevel() == 0 && sourceItem instanceof AFolder && commandLineArguments.folderNameMapping.get(sourceItemName) != null) {
+				nameInPreviousBackup = commandLineArguments.folderNameMapping.get(sourceItemName);
+			}
+
+			sourceNames.add(nameInPreviousBackup);
+
+			AFileOrAFolder destItem = destContents.get(nameInPreviousBackup);
+
+			if (destItem == null) {
+
+				if (sourceItem instanceof AFile) {
+
+					if (!isNewFolder) {
+						Logger.log("   Adding new file : " + toLogPath(childRelativePath));
+					}
+
+					destFolder.addFileOrFolder(sourceItem);
+					copyStage.submit(new CopyJob(sourcePath.resolve(sourceItemName), destPath.resolve(sourceItemName), false, ((AFile)sourceItem).getSize()));
+
+				} else {
+
+					if (!isNewFolder) {
+						Logger.log("   Adding new folder and it's contents : " + toLogPath(childRelativePath));
+					}
+
+					AFolder newFolder = new AFolder(sourceItemName, backupFolderName);
+					destFolder.addFileOrFolder(newFolder);
+					foldersToCompare.put(childRelativePath, newFolder);
+					newFolders.add(childRelativePath);
+					copyStage.submit(new CopyJob(sourcePath.resolve(sourceItemName), destPath.resolve(sourceItemName), true));
+
+				}
+
+			} else if (sourceItem instanceof AFile && destItem instanceof AFile) {
+
+				AFile sourceFile = (AFile)sourceItem;
+				AFile destFile = (AFile)destItem;
+
+				if (sourceFile.getts() != destFile.getts()) {
+
+	            	String additionalLogTextString = "";
+	            	if (sourceFile.getts() < destFile.getts()) {
+	            		additionalLogTextString = " - this file has an older date in the source, looks like an older/restored version was stored.";
+	            	}
+
+	                destFile.setts(sourceFile.getts());
+	                destFile.setPathToBackup(backupFolderName);
+	                destFile.setStoredAt(null);
+	                destFile.setChunks(null);
+	                Logger.log("   Copying updated file " + toLogPath(childRelativePath) + additionalLogTextString);
+
+					copyStage.submit(new CopyJob(sourcePath.resolve(sourceItemName), destPath.resolve(sourceItemName), false, sourceFile.getSize()));
+
+				}
+
+			} else if (sourceItem instanceof AFolder && destItem instanceof AFolder) {
+
+				// the backup uses the name in the source, doFolderNameMapping will rename it again
+				destItem.setName(sourceItemName);
+				foldersToCompare.put(childRelativePath, (AFolder)destItem);
+
+			} else {
+            	Logger.log("In IncrementalBackupPipeline, not both File and not both Folder for " + toLogPath(childRelativePath));
+            	Logger.log("   this is a difficult situation. It looks like an item that was previously a file is now a folder with the same name, or vice versa.");
+            	Logger.log("   Backup interrupted");
+            	System.exit(1);
+			}
+
+		}
+
+		// remove items that don't exist anymore in the source, except in the source folder itself,
+		// meaning once a backup is taken of a sharepoint library, it will not be removed anymore in the backup
+		if (scannedFolder.getLevel() > 0) {
+
+			destFolder.getFileOrFolderList().removeIf(destItem -> {
+				if (sourceNames.contains(destItem.getName())) {return false;}
+				Logger.log("   Removed " + (destItem instanceof AFolder ? "folder " : "file ") + toLogPath(relativePath + "/" + destItem.getName()));
+				return true;
+			});
+
+		}
+
+		// new items are added at the end, keep the folder in canonical order
+		destFolder.getFileOrFolderList().sort(FileAndFolderUtilities.CANONICAL_ORDER);
+
+	}
+
+	/**
+	 * converts a relative path with / as separator to the platform separator, as used in the log by FileAndFolderUtilities
+	 */
+	private static String toLogPath(String relativePath) {
+		return relativePath.replace('/', File.separatorChar);
+	}
+
+	private static void put(BlockingQueue<ScannedFolder> scannedFolders, ScannedFolder scannedFolder) {
+		try {
+			scannedFolders.put(scannedFolder);
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while adding a folder to the queue");
+			System.exit(1);
+		}
+	}
+
+}
@@ -29,7 +29,7 @@ public class Logger {
 	static BufferedWriter staticwriter = null;
 	
 	//@SuppressWarnings("static-access")
-	public static void log(String texttoLog) {
+	public static synchronized void log(String texttoLog) {
 		
 		// always log to System.out
 		System.out.println(texttoLog);
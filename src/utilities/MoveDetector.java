@@ -0,0 +1,301 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.BackupPlan;
+import model.CommandLineArguments;
+
+/**
+ * finds files that were moved or renamed in the source, so that they don't need to be copied again<br>
+ * While comparing the source with the previous backup, FileAndFolderUtilities.compareAndUpdate gives the removed and the new files and folders to the MoveDetector, instead of adding the new ones to the BackupPlan.<br>
+ * When the comparison is finished, addToPlan matches each new file with the removed files: same name, same last modified timestamp, and same size as the copy in the earlier backup.
+ * A new file that matches is not copied, its entry in folderlist.json gets the pathToBackup of the removed file and storedAt, the path where that copy is stored. The other new files and folders are added to the BackupPlan.<br>
+ * A removed file is used only once.
+ */
+public class MoveDetector {
+
+	/**
+	 * folder with all the backups, ie without the backup foldername
+	 */
+	private final Path destinationFolderPath;
+
+	private final CommandLineArguments commandLineArguments;
+
+	/**
+	 * the removed files, key is the name and the last modified timestamp, see getKey
+	 */
+	private final Map<String, List<RemovedFile>> removedFiles = new HashMap<>();
+
+	/**
+	 * the new files and folders, in the order they were found
+	 */
+	private final List<NewItem> newItems = new ArrayList<>();
+
+	/**
+	 * @param destinationFolderPath folder with all the backups, ie without the backup foldername
+	 * @param commandLineArguments needed for the foldername mapping
+	 */
+	public MoveDetector(Path destinationFolderPath, CommandLineArguments commandLineArguments) {
+		this.destinationFolderPath = destinationFolderPath;
+		this.commandLineArguments = commandLineArguments;
+	}
+
+	/**
+	 * adds a file or folder that is removed from the previous backup, for a folder all files in it are added
+	 * @param removedItem file or folder in the previous backup
+	 * @param pathContext the folder that contains removedItem
+	 */
+	public void addRemoved(AFileOrAFolder removedItem, PathContext pathContext) {
+		addRemoved(removedItem, FileAndFolderUtilities.getPathInBackup(pathContext.getLogPath(removedItem.getName()), commandLineArguments));
+	}
+
+	/**
+	 * adds a new file or folder, it will be added to the BackupPlan or matched with a removed file in addToPlan
+	 * @param newItem file or folder in the source
+	 * @param pathContext the folder that contains newItem
+	 */
+	public void addNew(AFileOrAFolder newItem, PathContext pathContext) {
+		newItems.add(new NewItem(newItem, pathContext.getLogPath(newItem.getName()), pathContext.getSourcePath(newItem.getName())));
+	}
+
+	/**
+	 * adds the new files and folders that are not moved to backupPlan, to be called after the complete comparison<br>
+	 * - a new file that matches a removed file is only counted in backupPlan, as moved file<br>
+	 * - a new folder without moved files is added with all its contents, as without MoveDetector<br>
+	 * - for a new folder with moved files, the folder and its subfolders are added, and each file that is not moved
+	 * @param backupPlan
+	 */
+	public void addToPlan(BackupPlan backupPlan) {
+
+		for (NewItem newItem : newItems) {
+
+			if (newItem.item instanceof AFile) {
+
+				AFile newFile = (AFile)newItem.item;
+				long movedSize = getSizeIfMoved(newFile, newItem.logPath, newItem.sourcePath);
+
+				if (movedSize >= 0) {
+					Logger.log("   Adding moved file : " + newItem.logPath + " - stored in " + newFile.getPathToBackup() + File.separator + getStoredAt(newFile, newItem.logPath));
+					backupPlan.addMovedFile(movedSize);
+				} else {
+					Logger.log("   Adding new file : " + newItem.logPath);
+					backupPlan.addFile(newItem.logPath, FileAndFolderUtilities.getSize(newFile, newItem.sourcePath.getParent()), newFile.getts());
+				}
+
+			} else {
+
+				List<NewItem> filesInFolder = new ArrayList<>();
+				addFilesInFolder((AFolder)newItem.item, newItem.logPath, newItem.sourcePath, filesInFolder);
+
+				// first check which files are moved, the folder is only split up if there is at least one
+				Set<AFileOrAFolder> movedFiles = Collections.newSetFromMap(new IdentityHashMap<>());
+				for (NewItem fileInFolder : filesInFolder) {
+					long movedSize = getSizeIfMoved((AFile)fileInFolder.item, fileInFolder.logPath, fileInFolder.sourcePath);
+					if (movedSize >= 0) {
+						backupPlan.addMovedFile(movedSize);
+						movedFiles.add(fileInFolder.item);
+					}
+				}
+
+				if (movedFiles.isEmpty()) {
+
+					Logger.log("   Adding new folder and it's contents : " + newItem.logPath);
+					FileAndFolderUtilities.addNewFolderToPlan((AFolder)newItem.item, newItem.logPath, newItem.sourcePath, backupPlan);
+
+				} else {
+
+					Logger.log("   Adding new folder : " + newItem.logPath + " - " + movedFiles.size() + " moved file(s), " + (filesInFolder.size() - movedFiles.size()) + " file(s) to copy");
+					// the folder and all its subfolders are created, also the ones that are empty or only have moved files, they are in folderlist.json
+					backupPlan.addFolder(newItem.logPath);
+					addNotMovedContentsToPlan((AFolder)newItem.item, newItem.logPath, newItem.sourcePath, movedFiles, backupPlan);
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * checks if newFile matches a removed file. If yes, then newFile gets the pathToBackup and storedAt of the copy of the removed file<br>
+	 * The size is only read if there's a removed file with the same name and timestamp
+	 * @param newFile the new file
+	 * @param logPath path of newFile relative to the source folder
+	 * @param sourcePath newFile in the source
+	 * @return the size of newFile if it is moved, -1 if not
+	 */
+	private long getSizeIfMoved(AFile newFile, String logPath, Path sourcePath) {
+
+		List<RemovedFile> candidates = removedFiles.get(getKey(newFile.getName(), newFile.getts()));
+		if (candidates == null || candidates.isEmpty()) {return -1;}
+		
+		long size = FileAndFolderUtilities.getSize(newFile, sourcePath.getParent());
+
+		for (Iterator<RemovedFile> iterator = candidates.iterator(); iterator.hasNext(); ) {
+
+			RemovedFile candidate = iterator.next();
+
+			// the size of the stored copy is compared, this also checks that the copy still exists
+			try {
+				if (Files.size(destinationFolderPath.resolve(candidate.pathToBackup).resolve(candidate.storedAt)) != size) {continue;}
+			} catch (IOException e) {
+				continue;
+			}
+
+			iterator.remove();
+			newFile.setPathToBackup(candidate.pathToBackup);
+			newFile.setStoredAt(candidate.storedAt.equals(FileAndFolderUtilities.getPathInBackup(logPath, commandLineArguments)) ? null : candidate.storedAt);
+			return size;
+
+		}
+
+		return -1;
+
+	}
+
+	private void addRemoved(AFileOrAFolder removedItem, String pathInBackup) {
+
+		if (removedItem instanceof AFile) {
+
+			AFile removedFile = (AFile)removedItem;
+			String storedAt = (removedFile.getStoredAt() != null) ? removedFile.getStoredAt() : pathInBackup;
+			removedFiles.computeIfAbsent(getKey(removedFile.getName(), removedFile.getts()), key -> new ArrayList<>()).add(new RemovedFile(removedFile.getPathToBackup(), storedAt));
+
+		} else {
+
+			for (AFileOrAFolder child : ((AFolder)removedItem).getFileOrFolderList()) {
+				addRemoved(child, pathInBackup + "/" + child.getName());
+			}
+
+		}
+
+	}
+
+	/**
+	 * adds the files in folder and its subfolders to filesInFolder
+	 */
+	private static void addFilesInFolder(AFolder folder, String logPath, Path sourcePath, List<NewItem> filesInFolder) {
+
+		for (AFileOrAFolder child : folder.getFileOrFolderList()) {
+
+			String childLogPath = logPath + File.separator + child.getName();
+			Path childSourcePath = sourcePath.resolve(child.getName());
+
+			if (child instanceof AFile) {
+				filesInFolder.add(new NewItem(child, childLogPath, childSourcePath));
+			} else {
+				addFilesInFolder((AFolder)child, childLogPath, childSourcePath, filesInFolder);
+			}
+
+		}
+
+	}
+
+	/**
+	 * adds the subfolders of a new folder and the files that are not moved to backupPlan, in the same order as FileAndFolderUtilities.addNewFolderToPlan
+	 */
+	private static void addNotMovedContentsToPlan(AFolder folder, String logPath, Path sourcePath, Set<AFileOrAFolder> movedFiles, BackupPlan backupPlan) {
+
+		for (AFileOrAFolder child : folder.getFileOrFolderList()) {
+
+			String childLogPath = logPath + File.separator + child.getName();
+
+			if (child instanceof AFile) {
+				if (!movedFiles.contains(child)) {
+					backupPlan.addFileInNewFolder(childLogPath, FileAndFolderUtilities.getSize((AFile)child, sourcePath), ((AFile)child).getts());
+				}
+			} else {
+				backupPlan.addFolderInNewFolder(childLogPath);
+				addNotMovedContentsToPlan((AFolder)child, childLogPath, sourcePath.resolve(child.getName()), movedFiles, backupPlan);
+			}
+
+		}
+
+	}
+
+	private String getStoredAt(AFile file, String logPath) {
+		return (file.getStoredAt() != null) ? file.getStoredAt() : FileAndFolderUtilities.getPathInBackup(logPath, commandLineArguments);
+	}
+
+	private static String getKey(String name, long ts) {
+		return name + "/" + ts;
+	}
+
+	/**
+	 * a file that is removed from the previous backup
+	 */
+	private static class RemovedFile {
+
+		/**
+		 * backup folder that has the copy
+		 */
+		private final String pathToBackup;
+
+		/**
+		 * path of the copy within pathToBackup, with '/' as separator
+		 */
+		private final String storedAt;
+
+		RemovedFile(String pathToBackup, String storedAt) {
+			this.pathToBackup = pathToBackup;
+			this.storedAt = storedAt;
+		}
+
+	}
+
+	/**
+	 * a new file or folder in the source
+	 */
+	private static class NewItem {
+
+		private final AFileOrAFolder item;
+
+		/**
+		 * path relative to the source folder, with the platform separator
+		 */
+		private final String logPath;
+
+		private final Path sourcePath;
+
+		NewItem(AFileOrAFolder item, String logPath, Path sourcePath) {
+			this.item = item;
+			this.logPath = logPath;
+			this.sourcePath = sourcePath;
+		}
+
+	}
+
+}
@@ -20,12 +20,13 @@ package utilities;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributeView;
+import java.nio.file.attribute.DosFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
@@ -33,11 +34,13 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import model.AFileOrAFolder;
 import model.AFolder;
@@ -46,6 +49,11 @@ import model.Constants;
 
 public class OtherUtilities {
 
+	/**
+	 * pattern for files of format .849C9593-D756-4E56-8D6E-42412F2A707B, see fileIsWindowsHiddenFile
+	 */
+	private static final Pattern windowsHiddenFilePattern = Pattern.compile("^\\.[A-F0-9]{8}-[A-F0-9]{4}-[A-F0-9]{4}-[A-F0-9]{4}-[A-F0-9]{12}$");
+
 	public static ArrayList<String> addString(ArrayList<String> source, String stringToAdd) {
 		
 		ArrayList<String> copyList = new ArrayList<>(source);
@@ -92,65 +100,14 @@ public class OtherUtilities {
 			
 		if (!(fileName.length() == 37)) {return false;}	
 		
-		// Define the regex pattern
-        String pattern = "^\\.[A-F0-9]{8}-[A-F0-9]{4}-[A-F0-9]{4}-[A-F0-9]{4}-[A-F0-9]{12}$";
-
-        // Create a Pattern object
-        Pattern regex = Pattern.compile(pattern);
-
         // Create a Matcher object
-        Matcher matcher = regex.matcher(fileName);
+        Matcher matcher = windowsHiddenFilePattern.matcher(fileName);
 
         // Check if the filename matches the pattern
         return matcher.matches();
 		
 	}
 	
-	/**
-	 * recursively copying a folder from a source directory to a destination directory
-	 * @param source
-	 * @param destination
-	 * @param commandLineArguments
-	 * @throws IOException
-	 */
-	public static void copyFolder(Path source, Path destination, CommandLineArguments commandLineArguments) throws IOException {
-        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                // Create corresponding directory in the destination
-                Path targetDir = destination.resolve(source.relativize(dir));
-                Files.createDirectories(targetDir);
-                if (commandLineArguments.addpathlengthforfolderswithnewormodifiedcontent) {
-                    System.out.println("path length = " + String.format("%5s", targetDir.toString().length()) + "; path = " + targetDir.toString());
-                }
-                return FileVisitResult.CONTINUE;
-            }
-
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-            	
-            	Path destinationPath = destination.resolve(source.relativize(file));
-            	
-        		// check if the file is in the list of files to exclude, example .DS_Store
-        		if (commandLineArguments.excludedFiles.contains(destinationPath.getFileName().toString())) {
-        			return FileVisitResult.CONTINUE;
-        		}
-        		
-        		// check if the file is of format .849C9593-D756-4E56-8D6E-42412F2A707B seems a Microsoft hidden file
-        		if (OtherUtilities.fileNeedsToBeIgnored(destinationPath.getFileName().toString())) {
-        			return FileVisitResult.CONTINUE;
-        		}
-            	
-                // Copy each file to the destination
-                Files.copy(file, destinationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-                if (commandLineArguments.addpathlengthforfolderswithnewormodifiedcontent) {
-                    System.out.println("path length = " + String.format("%5s", destinationPath.toString().length()) + "; path = " + destinationPath.toString());
-                }
-                return FileVisitResult.CONTINUE;
-            }
-        });
-    }
-	
 	/**
 	 * does the foldername mapping for the first folder, explanation see in commandline arguments, with the explanation of argument folderNameMapping
 	 * @param listOfFilesAndFoldersInSourceFolder
@@ -199,6 +156,9 @@ public class OtherUtilities {
 			}
 			
 		}
+		
+		// the mapped names may change the order
+		listOfFilesAndFoldersInSourceFolder.getFileOrFolderList().sort(FileAndFolderUtilities.CANONICAL_ORDER);
 
 	}
 	
@@ -305,4 +265,80 @@ public class OtherUtilities {
 		return value;
 	}
 
+	/**
+	 * will check if 'name.csv' exists in path, if it exists it tries with 'name (1).csv' , 'name (2).csv' ... until a not yet existing file is found<br>
+	 * if not existing filename is found, it is returned. Max up to 1000 attempts, if not found within 1000, it returns "name.csv"<br>
+	 * Used for the results of search and compare
+	 * @param path must be an existing folder
+	 * @param name example "searchresults"
+	 * @return the filename to use
+	 */
+	public static String createResultFilename(Path path, String name) {
+		
+		Path pathToCheck = path.resolve(name + ".csv");
+		
+		// check if the file already exists, and if not,then this will be the file name
+		if (!Files.exists(pathToCheck)) {
+			return name + ".csv";
+		}
+		
+		for(int i = 1; i <= 1000; i++) {
+		    String newFileName = name + " (" + i + ").csv"; 
+		    pathToCheck = path.resolve(newFileName);
+		    if (!Files.exists(pathToCheck)) {
+				return newFileName;
+			}
+		}
+		
+		return name + ".csv";
+		
+	}
+	
+	/**
+	 * deletes folder with all files and subfolders in it, nothing happens if it doesn't exist
+	 * @param folder
+	 * @throws IOException
+	 */
+	public static void deleteFolder(Path folder) throws IOException {
+		
+		if (!Files.exists(folder)) {return;}
+		
+		try (Stream<Path> paths = Files.walk(folder)) {
+			for (Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(path);
+			}
+		}
+		
+	}
+	
+	/**
+	 * sets the attributes of destination as Files.copy with COPY_ATTRIBUTES does, for a copy that writes the bytes itself: the timestamps, and the posix permissions
+	 * or, on Windows, the dos attributes if both file systems support them
+	 * @param source
+	 * @param destination
+	 * @param attributes of source, read before the copy
+	 * @throws IOException
+	 */
+	public static void copyAttributes(Path source, Path destination, BasicFileAttributes attributes) throws IOException {
+		
+		PosixFileAttributeView sourcePosixView = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+		PosixFileAttributeView destinationPosixView = Files.getFileAttributeView(destination, PosixFileAttributeView.class);
+		DosFileAttributeView sourceDosView = Files.getFileAttributeView(source, DosFileAttributeView.class);
+		DosFileAttributeView destinationDosView = Files.getFileAttributeView(destination, DosFileAttributeView.class);
+		
+		if (sourcePosixView != null && destinationPosixView != null) {
+			destinationPosixView.setPermissions(sourcePosixView.readAttributes().permissions());
+		} else if (sourceDosView != null && destinationDosView != null) {
+			DosFileAttributes dosFileAttributes = sourceDosView.readAttributes();
+			destinationDosView.setArchive(dosFileAttributes.isArchive());
+			destinationDosView.setHidden(dosFileAttributes.isHidden());
+			destinationDosView.setSystem(dosFileAttributes.isSystem());
+			destinationDosView.setReadOnly(dosFileAttributes.isReadOnly());
+		}
+		
+		// the timestamps last, setting the other attributes may change them
+		Files.getFileAttributeView(destination, BasicFileAttributeView.class).setTimes(attributes.lastModifiedTime(), attributes.lastAccessTime(), attributes.creationTime());
+		
+	}
+
 }
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.CatalogEntry;
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyJob;
+import model.ScannedFolder;
+
+/**
+ * incremental backup for sources that are too large to keep the source and the previous backup in memory, used with maxheapforcatalog<br>
+ * - folderlist.json of the previous backup is read with a streaming parser, and the source is read with FolderScanner, both at the same time.
+ * Each file and folder is added as a CatalogEntry to a CatalogSorter, which writes sorted runs to disk when its part of maxheapforcatalog is used<br>
+ * - both sorted lists are merged in one pass, the same way as FileAndFolderUtilities.compareAndUpdate compares two folders. New and modified files are
+ * copied with a CopyStage while merging, and the new folderlist.json is written with a CatalogWriter<br>
+ * The memory used does not depend on the number of files, except for the entries kept by the sorters
+ */
+public class OutOfCoreBackup {
+
+	/**
+	 * counters for the log
+	 */
+	static class MergeResult {
+		
+		long numberOfNewFiles = 0;
+		
+		long numberOfNewFolders = 0;
+		
+		long numberOfUpdatedFiles = 0;
+		
+		long numberOfRemoved = 0;
+		
+	}
+	
+	/**
+	 * runs the incremental backup
+	 * @param sourceFolderPath the folder to backup
+	 * @param destinationFolderPath the folder with the backups, the runs are written in a subfolder
+	 * @param destBackupFolderPath folder of the new backup, including the backup foldername
+	 * @param mostRecentBackupPath the previous backup
+	 * @param backupFolderName name of the new backup, example '2024-01-12 16;46;55 (Incremental)'
+	 * @param commandLineArguments
+	 */
+	public static void run(Path sourceFolderPath, Path destinationFolderPath, Path destBackupFolderPath, Path mostRecentBackupPath, String backupFolderName, CommandLineArguments commandLineArguments) {
+		
+		long startTimeStamp = System.currentTimeMillis();
+		
+		Path runsFolder = destinationFolderPath.resolve(Constants.CATALOG_RUNS_FOLDERNAME);
+		
+		try {
+			// runs of a backup that was interrupted
+			OtherUtilities.deleteFolder(runsFolder);
+			Files.createDirectories(runsFolder);
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in OutOfCoreBackup while creating " + runsFolder.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+		
+		// the previous backup and the source are sorted at the same time, each gets half of the memory
+		CatalogSorter previousBackupSorter = new CatalogSorter(runsFolder, "previous", commandLineArguments.maxHeapForCatalog / 2);
+		CatalogSorter sourceSorter = new CatalogSorter(runsFolder, "source", commandLineArguments.maxHeapForCatalog / 2);
+		
+		Path folderlistPath = mostRecentBackupPath.resolve("folderlist.json");
+		Logger.log("Parsing the json file from previous backup " + folderlistPath.toString());
+		
+		// pathToBackup of the previous backup folder itself
+		CompletableFuture<String> previousBackupFuture = CompletableFuture.supplyAsync(() -> readFolderlist(folderlistPath, previousBackupSorter));
+		
+		try {
+			
+			FolderScanner.scan(sourceFolderPath, backupFolderName, commandLineArguments, null, null, null, null, scannedFolder -> addScannedFolder(scannedFolder, sourceSorter, commandLineArguments));
+			
+		} catch (IOException e) {
+            e.printStackTrace();
+            Logger.log("Exception in OutOfCoreBackup, while reading the source");
+            Logger.log(e.toString());
+            System.exit(1);
+		}
+		
+		Logger.log("Reading the source took " + (System.currentTimeMillis() - startTimeStamp) + " ms, using " + commandLineArguments.scanThreads + " thread(s)");
+		
+		String rootPathToBackup = previousBackupFuture.join();
+		
+		Logger.log("Source : " + sourceSorter.getNumberOfEntries() + " files and folders, " + sourceSorter.getNumberOfRuns() + " run(s) written to disk");
+		Logger.log("Previous backup : " + previousBackupSorter.getNumberOfEntries() + " files and folders, " + previousBackupSorter.getNumberOfRuns() + " run(s) written to disk");
+		Logger.log("Starting incremental backup");
+		
+		// written in runsFolder and moved to the backup when complete, an interrupted backup should not have a folderlist.json
+		Path newFolderlistPath = runsFolder.resolve("folderlist.json");
+		
+		CopyStage copyStage = new CopyStage(commandLineArguments);
+		copyStage.start();
+		
+		MergeResult mergeResult = new MergeResult();
+		
+		try {
+			
+			CatalogWriter catalogWriter = new CatalogWriter(newFolderlistPath, rootPathToBackup);
+			merge(sourceSorter.finish(), previousBackupSorter.finish(), catalogWriter, sourceFolderPath, destBackupFolderPath, backupFolderName, commandLineArguments, copyStage::submit, mergeResult);
+			catalogWriter.close();
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in OutOfCoreBackup while writing " + newFolderlistPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+		
+		copyStage.finish(startTimeStamp);
+		
+		Logger.log("New files : " + mergeResult.numberOfNewFiles + ", new folders : " + mergeResult.numberOfNewFolders + ", updated files : " + mergeResult.numberOfUpdatedFiles + ", removed files and folders : " + mergeResult.numberOfRemoved);
+		
+		try {
+			
+			Logger.log("Writing folderlist.json to " + destBackupFolderPath.toString());
+			Files.move(newFolderlistPath, destBackupFolderPath.resolve("folderlist.json"), StandardCopyOption.REPLACE_EXISTING);
+			
+			OtherUtilities.deleteFolder(runsFolder);
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception in OutOfCoreBackup while moving " + newFolderlistPath.toString() + " to " + destBackupFolderPath.toString());
+			Logger.log(e.toString());
+			System.exit(1);
+		}
+		
+		Logger.log("folderlist-withfullpaths.json is not written with maxheapforcatalog");
+		
+	}
+	
+	/**
+	 * merges the sorted source and the sorted previous backup, see FileAndFolderUtilities.compareAndUpdate:<br>
+	 * - a file or folder only in the source is added and copied<br>
+	 * - a file in both with a different last modified timestamp is updated and copied<br>
+	 * - a file or folder only in the previous backup is removed, except in the source folder itself<br>
+	 * Each entry of the new backup is written to catalogWriter
+	 * @param copyJobs receives the files and folders to copy
+	 */
+	static void merge(CatalogSorter.EntryReader sourceReader, CatalogSorter.EntryReader previousBackupReader, CatalogWriter catalogWriter, Path sourceFolderPath, Path destBackupFolderPath, String backupFolderName, CommandLineArguments commandLineArguments, Consumer<CopyJob> copyJobs, MergeResult mergeResult) throws IOException {
+		
+		// the entries come in PATH_ORDER, so the contents of a folder follow the folder. These are the paths, followed by "/", of the folder being
+		// added, removed, or kept because it's directly in the source folder, null if none
+		String newFolderPrefix = null;
+		String removedFolderPrefix = null;
+		String keptFolderPrefix = null;
+		
+		CatalogEntry sourceEntry = sourceReader.next();
+		CatalogEntry previousBackupEntry = previousBackupReader.next();
+		
+		while (sourceEntry != null || previousBackupEntry != null) {
+			
+			int comparison;
+			if (sourceEntry == null) {
+				comparison = 1;
+			} else if (previousBackupEntry == null) {
+				comparison = -1;
+			} else {
+				comparison = CatalogEntry.PATH_ORDER.compare(sourceEntry, previousBackupEntry);
+			}
+			
+			if (comparison < 0) {
+				
+				// only in the source
+				String relativePath = sourceEntry.getRelativePath();
+				String logPath = toLogPath(relativePath, commandLineArguments);
+				Path sourcePath = sourceFolderPath.resolve(logPath);
+				Path destPath = destBackupFolderPath.resolve(relativePath);
+				
+				if (newFolderPrefix != null && !relativePath.startsWith(newFolderPrefix)) {
+					newFolderPrefix = null;
+				}
+				
+				if (sourceEntry.isFolder()) {
+					
+					if (newFolderPrefix == null) {
+						Logger.log("   Adding new folder and it's contents : " + logPath);
+						newFolderPrefix = relativePath + "/";
+					}
+					
+					catalogWriter.write(new CatalogEntry(relativePath, true, 0, backupFolderName, null));
+					copyJobs.accept(new CopyJob(sourcePath, destPath, true));
+					mergeResult.numberOfNewFolders++;
+					
+				} else {
+					
+					if (newFolderPrefix == null) {
+						Logger.log("   Adding new file : " + logPath);
+					}
+					
+					catalogWriter.write(new CatalogEntry(relativePath, false, sourceEntry.getts(), backupFolderName, null));
+					copyJobs.accept(new CopyJob(sourcePath, destPath, false));
+					mergeResult.numberOfNewFiles++;
+					
+				}
+				
+				sourceEntry = sourceReader.next();
+				
+			} else if (comparison > 0) {
+				
+				// only in the previous backup
+				String relativePath = previousBackupEntry.getRelativePath();
+				
+				if (keptFolderPrefix != null && !relativePath.startsWith(keptFolderPrefix)) {
+					keptFolderPrefix = null;
+				}
+				if (removedFolderPrefix != null && !relativePath.startsWith(removedFolderPrefix)) {
+					removedFolderPrefix = null;
+				}
+				
+				if (relativePath.indexOf('/') < 0 || keptFolderPrefix != null) {
+					
+					// directly in the source folder, meaning once a backup is taken of a sharepoint library, it will not be removed anymore in the backup
+					if (keptFolderPrefix == null && previousBackupEntry.isFolder()) {
+						keptFolderPrefix = relativePath + "/";
+					}
+					catalogWriter.write(previousBackupEntry);
+					
+				} else if (removedFolderPrefix == null) {
+					
+					Logger.log("   Removed " + (previousBackupEntry.isFolder() ? "folder " : "file ") + toLogPath(relativePath, commandLineArguments));
+					if (previousBackupEntry.isFolder()) {
+						removedFolderPrefix = relativePath + "/";
+					}
+					mergeResult.numberOfRemoved++;
+					
+				}
+				
+				previousBackupEntry = previousBackupReader.next();
+				
+			} else {
+				
+				if (!sourceEntry.isFolder() && sourceEntry.getts() != previousBackupEntry.getts()) {
+					
+	            	String additionalLogTextString = "";
+	            	if (sourceEntry.getts() < previousBackupEntry.getts()) {
+	            		additionalLogTextString = " - this file has an older date in the source, looks like an older/restored version was stored.";
+	            	}
+	            	
+	            	String relativePath = sourceEntry.getRelativePath();
+	            	String logPath = toLogPath(relativePath, commandLineArguments);
+	                Logger.log("   Copying updated file " + logPath + additionalLogTextString);
+	                
+					catalogWriter.write(new CatalogEntry(relativePath, false, sourceEntry.getts(), backupFolderName, null));
+					copyJobs.accept(new CopyJob(sourceFolderPath.resolve(logPath), destBackupFolderPath.resolve(relativePath), false));
+					mergeResult.numberOfUpdatedFiles++;
+					
+				} else {
+					
+					catalogWriter.write(previousBackupEntry);
+					
+				}
+				
+				sourceEntry = sourceReader.next();
+				previousBackupEntry = previousBackupReader.next();
+				
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * adds the contents of a folder in the source to sourceSorter, with the foldername mapping applied
+	 */
+	private static void addScannedFolder(ScannedFolder scannedFolder, CatalogSorter sourceSorter, CommandLineArguments commandLineArguments) {
+		
+		String folderPath = toPathInBackup(scannedFolder.getRelativePath(), commandLineArguments);
+		
+		for (AFileOrAFolder child : scannedFolder.getChildren()) {
+			
+			if (child instanceof AFolder) {
+				String name = (scannedFolder.getLevel() == 0) ? toPathInBackup(child.getName(), commandLineArguments) : child.getName();
+				sourceSorter.add(new CatalogEntry(folderPath.length() == 0 ? name : folderPath + "/" + name, true, 0, null, null));
+			} else {
+				sourceSorter.add(new CatalogEntry(folderPath.length() == 0 ? child.getName() : folderPath + "/" + child.getName(), false, ((AFile)child).getts(), null, null));
+			}
+			
+		}
+		
+	}
+	
+	/**
+	 * reads folderlist.json with a streaming parser and adds each file and folder to previousBackupSorter
+	 * @return pathToBackup of the backup folder itself
+	 */
+	static String readFolderlist(Path folderlistPath, CatalogSorter previousBackupSorter) {
+		
+		long parseStartTimeStamp = System.currentTimeMillis();
+		
+		try (JsonParser parser = new JsonFactory().createParser(folderlistPath.toFile())) {
+			
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("folderlist.json does not start with an object");
+			}
+			
+			String pathToBackup = readFileOrFolder(parser, null, previousBackupSorter, new HashMap<>());
+			
+			Logger.log("Parsing the json file from previous backup took " + (System.currentTimeMillis() - parseStartTimeStamp) + " ms");
+			
+			return pathToBackup;
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			Logger.log("Exception while converting file " + folderlistPath.toString() + " to json");
+			Logger.log(e.toString());
+			System.exit(1);
+			return null;
+		}
+		
+	}
+	
+	/**
+	 * reads one AFile or AFolder, the parser is at the start of the object. The file or folder is added to previousBackupSorter, after its contents
+	 * @param parentPath relative path of the folder that has the file or folder, null for the backup folder itself, which is not added
+	 * @param backupFolderNames to use the same string for all entries with the same pathToBackup
+	 * @return pathToBackup
+	 */
+	private static String readFileOrFolder(JsonParser parser, String parentPath, CatalogSorter previousBackupSorter, Map<String, String> backupFolderNames) throws IOException {
+		
+		String type = null;
+		String name = null;
+		String pathToBackup = null;
+		long ts = 0;
+		String storedAt = null;
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			
+			String fieldName = parser.getCurrentName();
+			JsonToken valueToken = parser.nextToken();
+			
+			switch (fieldName) {
+				case "type":
+					type = parser.getText();
+					break;
+				case "name":
+					name = parser.getText();
+					break;
+				case "pathToBackup":
+					pathToBackup = (valueToken == JsonToken.VALUE_NULL) ? null : backupFolderNames.computeIfAbsent(parser.getText(), text -> text);
+					break;
+				case "ts":
+					ts = parser.getLongValue();
+					break;
+				case "storedAt":
+					storedAt = (valueToken == JsonToken.VALUE_NULL) ? null : parser.getText();
+					break;
+				case "fileOrFolderList":
+					// name is always written before the list
+					if (name == null) {
+						throw new IOException("folder without name in " + (parentPath == null ? "the backup folder" : parentPath));
+					}
+					String relativePath = (parentPath == null) ? "" : getRelativePath(parentPath, name);
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						readFileOrFolder(parser, relativePath, previousBackupSorter, backupFolderNames);
+					}
+					break;
+				default:
+					// digest, it's calculated again when writing
+					parser.skipChildren();
+					break;
+			}
+			
+		}
+		
+		if (parentPath != null) {
+			previousBackupSorter.add(new CatalogEntry(getRelativePath(parentPath, name), "afolder".equals(type), ts, pathToBackup, storedAt));
+		}
+		
+		return pathToBackup;
+		
+	}
+	
+	private static String getRelativePath(String parentPath, String name) {
+		return (parentPath.length() == 0) ? name : parentPath + "/" + name;
+	}
+	
+	/**
+	 * @param relativePath path relative to the source folder, with / as separator
+	 * @return the path with the foldername mapping applied to the first folder
+	 */
+	private static String toPathInBackup(String relativePath, CommandLineArguments commandLineArguments) {
+		
+		int firstSeparator = relativePath.indexOf('/');
+		String firstName = (firstSeparator < 0) ? relativePath : relativePath.substring(0, firstSeparator);
+		
+		String mappedName = commandLineArguments.folderNameMapping.get(firstName);
+		if (mappedName == null) {
+			return relativePath;
+		}
+		
+		return (firstSeparator < 0) ? mappedName : mappedName + relativePath.substring(firstSeparator);
+		
+	}
+	
+	/**
+	 * @param relativePath path relative to the backup folder, with / as separator and with the foldername mapping applied
+	 * @return the path relative to the source folder, with the platform separator, as used in the log
+	 */
+	private static String toLogPath(String relativePath, CommandLineArguments commandLineArguments) {
+		
+		int firstSeparator = relativePath.indexOf('/');
+		String firstName = (firstSeparator < 0) ? relativePath : relativePath.substring(0, firstSeparator);
+		
+		String sourceName = OtherUtilities.getKeyForValue(commandLineArguments.folderNameMapping, firstName);
+		
+		return ((firstSeparator < 0) ? sourceName : sourceName + relativePath.substring(firstSeparator)).replace('/', File.separatorChar);
+		
+	}
+	
+}
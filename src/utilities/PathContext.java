@@ -0,0 +1,162 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * the folder that is being processed while going recursively through the source and the backup, as a stack of folder names<br>
+ * One instance is used for the complete recursion: push when going into a subfolder, pop when leaving it. So no list of subfolders needs to be copied per folder.<br>
+ * The path in the source, the path in the backup and the path used in the log are built only when needed, and kept until the folder is popped. They are built from
+ * the path of the parent folder, so each folder name is resolved only once.
+ */
+public class PathContext {
+
+	/**
+	 * the folder to backup
+	 */
+	private final Path sourceFolderPath;
+
+	/**
+	 * folder of the backup, including the backup foldername
+	 */
+	private final Path destBackupFolderPath;
+
+	/**
+	 * the folder names, the first one is the folder directly in sourceFolderPath
+	 */
+	private final List<String> names = new ArrayList<>();
+
+	/**
+	 * per depth, the path in the source, null if not yet built. Element 0 is sourceFolderPath
+	 */
+	private final List<Path> sourcePaths = new ArrayList<>();
+
+	/**
+	 * per depth, the path in the backup, null if not yet built. Element 0 is destBackupFolderPath
+	 */
+	private final List<Path> destPaths = new ArrayList<>();
+
+	/**
+	 * per depth, the path as shown in the log, with the platform separator, null if not yet built. Element 0 is ""
+	 */
+	private final List<String> logPaths = new ArrayList<>();
+
+	/**
+	 * @param sourceFolderPath the folder to backup
+	 * @param destBackupFolderPath folder of the backup, including the backup foldername
+	 */
+	public PathContext(Path sourceFolderPath, Path destBackupFolderPath) {
+		this.sourceFolderPath = sourceFolderPath;
+		this.destBackupFolderPath = destBackupFolderPath;
+		sourcePaths.add(sourceFolderPath);
+		destPaths.add(destBackupFolderPath);
+		logPaths.add("");
+	}
+
+	/**
+	 * goes into a subfolder
+	 * @param name name of the subfolder, an empty string is allowed and does not change the paths
+	 */
+	public void push(String name) {
+		names.add(name);
+		sourcePaths.add(null);
+		destPaths.add(null);
+		logPaths.add(null);
+	}
+
+	/**
+	 * leaves the current folder, goes back to the parent
+	 */
+	public void pop() {
+		int last = names.size() - 1;
+		names.remove(last);
+		sourcePaths.remove(last + 1);
+		destPaths.remove(last + 1);
+		logPaths.remove(last + 1);
+	}
+
+	public Path getSourceFolderPath() {
+		return sourceFolderPath;
+	}
+
+	public Path getDestBackupFolderPath() {
+		return destBackupFolderPath;
+	}
+
+	/**
+	 * @return the current folder in the source
+	 */
+	public Path getSourcePath() {
+		return getPath(sourcePaths, names.size());
+	}
+
+	/**
+	 * @return the file or folder with the given name in the current folder in the source
+	 */
+	public Path getSourcePath(String name) {
+		return getSourcePath().resolve(name);
+	}
+
+	/**
+	 * @return the current folder in the backup
+	 */
+	public Path getDestPath() {
+		return getPath(destPaths, names.size());
+	}
+
+	/**
+	 * @return the file or folder with the given name in the current folder in the backup
+	 */
+	public Path getDestPath(String name) {
+		return getDestPath().resolve(name);
+	}
+
+	/**
+	 * @return the file or folder with the given name in the current folder, relative to the source folder, with the platform separator, as used in the log
+	 */
+	public String getLogPath(String name) {
+		String logPath = getLogPath(names.size());
+		return (logPath.length() == 0) ? name : logPath + File.separator + name;
+	}
+
+	private Path getPath(List<Path> paths, int depth) {
+		Path path = paths.get(depth);
+		if (path == null) {
+			path = getPath(paths, depth - 1).resolve(names.get(depth - 1));
+			paths.set(depth, path);
+		}
+		return path;
+	}
+
+	private String getLogPath(int depth) {
+		String logPath = logPaths.get(depth);
+		if (logPath == null) {
+			String parentLogPath = getLogPath(depth - 1);
+			String name = names.get(depth - 1);
+			logPath = (parentLogPath.length() == 0) ? name : parentLogPath + File.separator + name;
+			logPaths.set(depth, logPath);
+		}
+		return logPath;
+	}
+
+}
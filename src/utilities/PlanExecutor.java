@@ -0,0 +1,197 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import model.BackupPlan;
+import model.CommandLineArguments;
+import model.CopyJob;
+import model.PlannedCopy;
+
+/**
+ * copies the files and folders of a BackupPlan<br>
+ * - with hddmode, the new folders are created first, then the files are copied by SequentialCopier, in the order of their inode number<br>
+ * - otherwise, the folders are created and the files are copied by a CopyStage in a separate thread, in the order of the plan<br>
+ * The files in new folders are in the plan one by one, the same as the other files. So new folders are not read again.<br>
+ * With a deadline, the new folders are created first, then the files are copied in the order of copyorder, most recently modified first by default. When the deadline
+ * is reached, the files that are being copied are finished and the others are returned, see FileAndFolderUtilities.undoNotCopied. With hddmode the files stay in the order of their inode number.
+ */
+public class PlanExecutor {
+
+	/**
+	 * copies everything in backupPlan
+	 * @param backupPlan
+	 * @param commandLineArguments
+	 */
+	public static void execute(BackupPlan backupPlan, CommandLineArguments commandLineArguments) {
+		execute(backupPlan, commandLineArguments, 0);
+	}
+
+	/**
+	 * copies everything in backupPlan, or as much as possible before deadlineTimeStamp
+	 * @param backupPlan
+	 * @param commandLineArguments
+	 * @param deadlineTimeStamp timestamp after which no more files are copied, 0 means no deadline
+	 * @return the copies that were not done because the deadline was reached, empty if everything is copied
+	 */
+	public static List<PlannedCopy> execute(BackupPlan backupPlan, CommandLineArguments commandLineArguments, long deadlineTimeStamp) {
+
+		long startTimeStamp = System.currentTimeMillis();
+
+		Path sourceFolderPath = Paths.get(backupPlan.getSource());
+		Path backupFolderPath = Paths.get(backupPlan.getBackupFolder());
+
+		List<PlannedCopy> plannedCopies = backupPlan.getCopies();
+		if (deadlineTimeStamp > 0) {
+			plannedCopies = new ArrayList<>(plannedCopies);
+			plannedCopies.sort(getCopyOrder(commandLineArguments.copyOrder));
+		}
+
+		List<CopyJob> copyJobs = new ArrayList<>();
+
+		// to find the PlannedCopy of a job that is not done
+		Map<CopyJob, PlannedCopy> plannedCopiesPerJob = new IdentityHashMap<>();
+
+		for (PlannedCopy plannedCopy : plannedCopies) {
+			CopyJob copyJob = new CopyJob(sourceFolderPath.resolve(plannedCopy.getRelativePath()), backupFolderPath.resolve(plannedCopy.getRelativePath()), plannedCopy.isFolder(), plannedCopy.isFolder() ? 0 : plannedCopy.getSize());
+			copyJobs.add(copyJob);
+			if (deadlineTimeStamp > 0) {
+				plannedCopiesPerJob.put(copyJob, plannedCopy);
+			}
+		}
+
+		List<CopyJob> notCopiedJobs;
+
+		if (commandLineArguments.hddMode) {
+
+			List<CopyJob> fileCopyJobs = createFolders(copyJobs);
+			notCopiedJobs = SequentialCopier.copy(fileCopyJobs, deadlineTimeStamp);
+
+		} else {
+
+			CopyStage copyStage = new CopyStage(commandLineArguments);
+			copyStage.setDeadline(deadlineTimeStamp);
+			copyStage.start();
+			for (CopyJob copyJob : copyJobs) {
+				copyStage.submit(copyJob);
+			}
+			copyStage.finish(startTimeStamp);
+			notCopiedJobs = copyStage.getNotCopied();
+
+		}
+
+		List<PlannedCopy> notCopied = new ArrayList<>();
+		long notCopiedBytes = 0;
+		for (CopyJob copyJob : notCopiedJobs) {
+			PlannedCopy plannedCopy = plannedCopiesPerJob.get(copyJob);
+			notCopied.add(plannedCopy);
+			notCopiedBytes += plannedCopy.getSize();
+		}
+
+		long copiedBytes = backupPlan.getNumberOfBytes() + backupPlan.getNumberOfBytesInNewFolders() - notCopiedBytes;
+		long duration = Math.max(1, System.currentTimeMillis() - startTimeStamp);
+		Logger.log((copiedBytes / 1024 / 1024) + " MB copied in " + duration + " ms (" + String.format("%.1f", copiedBytes / 1024.0 / 1024.0 / (duration / 1000.0)) + " MB/s)");
+
+		if (!notCopied.isEmpty()) {
+			Logger.log("Deadline reached, " + notCopied.size() + " file(s) or folder(s) not copied, " + (notCopiedBytes / 1024 / 1024) + " MB. These are copied by the next backup");
+		}
+
+		return notCopied;
+
+	}
+
+	/**
+	 * the order in which the copies are done with a deadline: the folders first, in the order of the plan, so parent folders before their subfolders, then the files
+	 * @param copyOrder one of the CommandLineArguments.COPYORDER_ values
+	 */
+	private static Comparator<PlannedCopy> getCopyOrder(String copyOrder) {
+
+		Comparator<PlannedCopy> foldersFirst = Comparator.comparing(plannedCopy -> !plannedCopy.isFolder());
+
+		switch (copyOrder) {
+		case CommandLineArguments.COPYORDER_OLDEST:
+			return foldersFirst.thenComparingLong(PlannedCopy::getts);
+		case CommandLineArguments.COPYORDER_SMALLEST:
+			return foldersFirst.thenComparingLong(PlannedCopy::getSize);
+		case CommandLineArguments.COPYORDER_LARGEST:
+			return foldersFirst.thenComparing(Comparator.comparingLong(PlannedCopy::getSize).reversed());
+		case CommandLineArguments.COPYORDER_PLAN:
+			return foldersFirst;
+		default:
+			return foldersFirst.thenComparing(Comparator.comparingLong(PlannedCopy::getts).reversed());
+		}
+
+	}
+
+	/**
+	 * logs the totals of backupPlan
+	 */
+	public static void logTotals(BackupPlan backupPlan) {
+		Logger.log("Files to copy: " + backupPlan.getNumberOfFiles() + " new or modified file(s), " + (backupPlan.getNumberOfBytes() / 1024 / 1024) + " MB");
+		Logger.log("Folders to copy: " + backupPlan.getNumberOfNewFolders() + " new folder(s) with " + backupPlan.getNumberOfFilesInNewFolders() + " file(s), " + (backupPlan.getNumberOfBytesInNewFolders() / 1024 / 1024) + " MB");
+		if (backupPlan.getNumberOfMovedFiles() > 0) {
+			Logger.log("Moved files, not copied: " + backupPlan.getNumberOfMovedFiles() + " file(s), " + (backupPlan.getNumberOfBytesInMovedFiles() / 1024 / 1024) + " MB");
+		}
+	}
+
+	/**
+	 * creates the new folders and the parent folders of the files, SequentialCopier needs existing folders
+	 * @return the jobs that are not a folder
+	 */
+	private static List<CopyJob> createFolders(List<CopyJob> copyJobs) {
+
+		Set<Path> createdFolders = new HashSet<>();
+		List<CopyJob> fileCopyJobs = new ArrayList<>();
+
+		for (CopyJob copyJob : copyJobs) {
+
+			Path folder = copyJob.isFolder() ? copyJob.getDestination() : copyJob.getDestination().getParent();
+			if (!copyJob.isFolder()) {
+				fileCopyJobs.add(copyJob);
+			}
+
+			if (!createdFolders.add(folder)) {continue;}
+
+			try {
+				Files.createDirectories(folder);
+			} catch (IOException e) {
+				e.printStackTrace();
+	            Logger.log("Exception in PlanExecutor while creating the directory " + folder.toString());
+	            Logger.log(e.toString());
+	            System.exit(1);
+			}
+
+		}
+
+		return fileCopyJobs;
+
+	}
+
+}
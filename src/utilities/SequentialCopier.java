@@ -0,0 +1,243 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import model.CommandLineArguments;
+import model.Constants;
+import model.CopyJob;
+
+/**
+ * copies a list of files in an order that reduces seeking on spinning disks (hddmode)<br>
+ * - the files are sorted by inode number (attribute unix:ino) before reading, on most unix filesystems that's close to the order on disk. If inode numbers
+ *   are not available (eg on Windows), the order of the list is kept<br>
+ * - one thread reads the files ahead, up to Constants.HDD_READ_AHEAD_BYTES in memory, while the calling thread writes them. So reading the source and writing
+ *   the destination are both mostly sequential, instead of alternating between one small read and one small write.<br>
+ * Files larger than Constants.HDD_MAX_BUFFERED_FILE_SIZE are not read ahead, they are copied with the CopyStrategy for their size, in the same order.<br>
+ * With a deadline, the read-ahead thread stops reading when the deadline is reached, the files that are already read are still written.
+ */
+public class SequentialCopier {
+
+	/**
+	 * a file that is read by the read-ahead thread
+	 */
+	private static class ReadFile {
+
+		private final CopyJob copyJob;
+
+		/**
+		 * attributes of the source file, needed to set the timestamps of the copy, see OtherUtilities.copyAttributes
+		 */
+		private final BasicFileAttributes attributes;
+
+		/**
+		 * contents of the file, null if the file is too large to be read ahead
+		 */
+		private final byte[] contents;
+
+		/**
+		 * number of bytes taken from the read-ahead window, to be released after writing
+		 */
+		private final int permits;
+
+		ReadFile(CopyJob copyJob, BasicFileAttributes attributes, byte[] contents, int permits) {
+			this.copyJob = copyJob;
+			this.attributes = attributes;
+			this.contents = contents;
+			this.permits = permits;
+		}
+
+	}
+
+	/**
+	 * added by the read-ahead thread after the last file
+	 */
+	private static final ReadFile END = new ReadFile(null, null, null, 0);
+
+	/**
+	 * copies the files in copyJobs, folders must already exist in the destination
+	 * @param copyJobs the files to copy, this list is sorted
+	 */
+	public static void copy(List<CopyJob> copyJobs) {
+		copy(copyJobs, 0);
+	}
+
+	/**
+	 * copies the files in copyJobs until deadlineTimeStamp, folders must already exist in the destination
+	 * @param copyJobs the files to copy, this list is sorted
+	 * @param deadlineTimeStamp timestamp after which no more files are read, 0 means no deadline
+	 * @return the files that were not copied because the deadline was reached
+	 */
+	public static List<CopyJob> copy(List<CopyJob> copyJobs, long deadlineTimeStamp) {
+
+		long startTimeStamp = System.currentTimeMillis();
+
+		sortByInode(copyJobs);
+
+		long sortedTimeStamp = System.currentTimeMillis();
+
+		// number of bytes in readFiles, the read-ahead thread waits when the window is full
+		Semaphore readAheadWindow = new Semaphore(Constants.HDD_READ_AHEAD_BYTES);
+
+		// the queue itself does not need a limit, the semaphore limits the memory
+		BlockingQueue<ReadFile> readFiles = new ArrayBlockingQueue<>(copyJobs.size() + 1);
+
+		// only used by the read-ahead thread until it's finished
+		List<CopyJob> notCopied = new ArrayList<>();
+
+		Thread readAheadThread = new Thread(() -> readAhead(copyJobs, readFiles, readAheadWindow, deadlineTimeStamp, notCopied), "read-ahead");
+		readAheadThread.start();
+
+		long copiedBytes = 0;
+
+		CopyStrategySelector copyStrategySelector = CopyStrategySelector.forBackup(CommandLineArguments.getInstance());
+
+		try {
+
+			for (ReadFile readFile = readFiles.take(); readFile != END; readFile = readFiles.take()) {
+
+				Path destination = readFile.copyJob.getDestination();
+
+				try {
+
+					if (readFile.contents == null) {
+						copyStrategySelector.copy(readFile.copyJob.getSource(), destination, readFile.attributes.size(), true);
+					} else {
+						Files.write(destination, readFile.contents);
+						readAheadWindow.release(readFile.permits);
+						OtherUtilities.copyAttributes(readFile.copyJob.getSource(), destination, readFile.attributes);
+					}
+
+				} catch (IOException e) {
+					e.printStackTrace();
+					Logger.log("Exception occurred while copying from " + readFile.copyJob.getSource().toString() + " to " + destination.toString());
+					System.exit(1);
+				}
+
+				copiedBytes += (readFile.contents == null) ? readFile.attributes.size() : readFile.contents.length;
+
+			}
+
+			readAheadThread.join();
+
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while copying files in hddmode");
+			System.exit(1);
+		}
+
+		long duration = Math.max(1, System.currentTimeMillis() - startTimeStamp);
+		Logger.log("hddmode: sorting took " + (sortedTimeStamp - startTimeStamp) + " ms, " + (copyJobs.size() - notCopied.size()) + " files, " + (copiedBytes / 1024 / 1024) + " MB copied in " + duration + " ms ("
+				+ String.format("%.1f", copiedBytes / 1024.0 / 1024.0 / (duration / 1000.0)) + " MB/s)");
+
+		return notCopied;
+
+	}
+
+	/**
+	 * sorts copyJobs by the inode number of the source file, if available
+	 */
+	private static void sortByInode(List<CopyJob> copyJobs) {
+
+		List<long[]> inodes = new ArrayList<>(copyJobs.size());
+
+		try {
+
+			for (int i = 0; i < copyJobs.size(); i++) {
+				inodes.add(new long[] {(Long)Files.getAttribute(copyJobs.get(i).getSource(), "unix:ino"), i});
+			}
+
+		} catch (UnsupportedOperationException | IllegalArgumentException e) {
+			Logger.log("hddmode: inode numbers are not available on this system, files are copied in the order of the folders");
+			return;
+		} catch (IOException e) {
+			Logger.log("hddmode: failed to read inode numbers, files are copied in the order of the folders");
+			Logger.log(e.toString());
+			return;
+		}
+
+		inodes.sort(Comparator.comparingLong(inode -> inode[0]));
+
+		List<CopyJob> sortedCopyJobs = new ArrayList<>(copyJobs.size());
+		for (long[] inode : inodes) {
+			sortedCopyJobs.add(copyJobs.get((int)inode[1]));
+		}
+
+		copyJobs.clear();
+		copyJobs.addAll(sortedCopyJobs);
+
+	}
+
+	/**
+	 * runs in the read-ahead thread, reads the files in the order of copyJobs, until deadlineTimeStamp
+	 * @param notCopied the files that are not read because the deadline was reached are added to this list
+	 */
+	private static void readAhead(List<CopyJob> copyJobs, BlockingQueue<ReadFile> readFiles, Semaphore readAheadWindow, long deadlineTimeStamp, List<CopyJob> notCopied) {
+
+		try {
+
+			for (CopyJob copyJob : copyJobs) {
+
+				if (deadlineTimeStamp > 0 && (!notCopied.isEmpty() || System.currentTimeMillis() >= deadlineTimeStamp)) {
+					notCopied.add(copyJob);
+					continue;
+				}
+
+				try {
+
+					BasicFileAttributes attributes = Files.readAttributes(copyJob.getSource(), BasicFileAttributes.class);
+
+					if (attributes.size() > Constants.HDD_MAX_BUFFERED_FILE_SIZE) {
+						readFiles.put(new ReadFile(copyJob, attributes, null, 0));
+						continue;
+					}
+
+					// if the file changes while reading, the size may be a bit different, that's not a problem for the window
+					int permits = (int)attributes.size();
+					readAheadWindow.acquire(permits);
+
+					readFiles.put(new ReadFile(copyJob, attributes, Files.readAllBytes(copyJob.getSource()), permits));
+
+				} catch (IOException e) {
+					e.printStackTrace();
+					Logger.log("Exception occurred while reading " + copyJob.getSource().toString());
+					System.exit(1);
+				}
+
+			}
+
+			readFiles.put(END);
+
+		} catch (InterruptedException e) {
+			Logger.log("Interrupted while reading files in hddmode");
+			System.exit(1);
+		}
+
+	}
+
+}
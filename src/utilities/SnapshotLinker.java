@@ -0,0 +1,157 @@
+/*
+ * Copyright 2024 Johan Degraeve
+ *
+ * This file is part of PCBackup.
+ *
+ * PCBackup is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCBackup is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with PCBackup. If not, see <https://www.gnu.org/licenses/>.
+ */
+package utilities;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import model.AFile;
+import model.AFileOrAFolder;
+import model.AFolder;
+import model.Constants;
+
+/**
+ * with hardlinks, makes an incremental backup folder a complete tree: each file in folderlist.json that is stored in an earlier backup gets a hard link in the new
+ * backup folder, at its path in folderlist.json, to where it's stored (pathToBackup and storedAt). Folders that are not in the new backup folder are created.<br>
+ * folderlist.json is not changed, pathToBackup still points to the backup that has the copy, so restore, search and the next backups work the same with or without
+ * the links. A link costs no space for the contents, only an entry in the folder.<br>
+ * The folders are created while going through folderlist.json, the links of each folder are created by Constants.HARDLINK_THREADS threads.<br>
+ * If the file system doesn't support hard links, linking stops, the backup itself is complete without them.
+ */
+public class SnapshotLinker {
+
+	/**
+	 * links the files in backup that are not stored in backupfoldername
+	 * @param backup folderlist.json of the new backup, after the foldername mapping, so the names are the names on disk
+	 * @param destinationFolderPath the folder with all backups
+	 * @param backupfoldername name of the new backup folder, within destinationFolderPath
+	 */
+	public static void link(AFolder backup, Path destinationFolderPath, String backupfoldername) {
+
+		long startTimeStamp = System.currentTimeMillis();
+		Logger.log("Creating hard links in " + backupfoldername + " to the files in earlier backups");
+
+		Path backupFolderPath = destinationFolderPath.resolve(backupfoldername);
+
+		AtomicLong linkedFiles = new AtomicLong();
+		AtomicLong missingFiles = new AtomicLong();
+		AtomicLong createdFolders = new AtomicLong();
+		// the first exception other than a missing or existing file, after that no more links are created
+		AtomicReference<IOException> failure = new AtomicReference<>();
+
+		ExecutorService executorService = Executors.newFixedThreadPool(Constants.HARDLINK_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "hardlink");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+
+			linkFolder(backup, Paths.get(""), backupFolderPath, destinationFolderPath, backupfoldername, executorService, linkedFiles, missingFiles, createdFolders, failure);
+
+		} catch (IOException e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			executorService.shutdown();
+			try {
+				executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Logger.log("Interrupted while creating hard links");
+			}
+		}
+
+		if (failure.get() != null) {
+			Logger.log("Failed to create hard links in " + backupFolderPath.toString() + ", the backup folder only has the copied files, restore is not affected");
+			Logger.log(failure.get().toString());
+			return;
+		}
+
+		Logger.log("Linked " + linkedFiles.get() + " file(s) and created " + createdFolders.get() + " folder(s) in " + (System.currentTimeMillis() - startTimeStamp) + " ms, using " + Constants.HARDLINK_THREADS + " thread(s)");
+		if (missingFiles.get() > 0) {
+			Logger.log(missingFiles.get() + " file(s) were not found in the earlier backups and are not linked, see the lines starting with 'could not find'");
+		}
+
+	}
+
+	/**
+	 * creates the folder in the backup if needed, submits the links for its files, then does the same for its subfolders
+	 * @param folder the folder in folderlist.json
+	 * @param relativePath path of folder relative to the backup folder
+	 */
+	private static void linkFolder(AFolder folder, Path relativePath, Path backupFolderPath, Path destinationFolderPath, String backupfoldername, ExecutorService executorService,
+			AtomicLong linkedFiles, AtomicLong missingFiles, AtomicLong createdFolders, AtomicReference<IOException> failure) throws IOException {
+
+		if (failure.get() != null) {return;}
+
+		Path folderPath = backupFolderPath.resolve(relativePath);
+		if (!Files.isDirectory(folderPath)) {
+			Files.createDirectories(folderPath);
+			createdFolders.incrementAndGet();
+		}
+
+		List<AFile> filesToLink = new ArrayList<>();
+		for (AFileOrAFolder aFileOrAFolder : folder.getFileOrFolderList()) {
+			// a file in the chunk store has no file to link to, with dedup a file can be stored elsewhere in the new backup
+			if (aFileOrAFolder instanceof AFile && (!aFileOrAFolder.getPathToBackup().equals(backupfoldername) || ((AFile)aFileOrAFolder).getStoredAt() != null) && ((AFile)aFileOrAFolder).getChunks() == null) {
+				filesToLink.add((AFile)aFileOrAFolder);
+			}
+		}
+
+		if (!filesToLink.isEmpty()) {
+			executorService.submit(() -> {
+				for (AFile file : filesToLink) {
+					if (failure.get() != null) {return;}
+					Path stored = destinationFolderPath.resolve(file.getPathToBackup()).resolve((file.getStoredAt() != null) ? Paths.get(file.getStoredAt()) : relativePath.resolve(file.getName()));
+					try {
+						Files.createLink(folderPath.resolve(file.getName()), stored);
+						linkedFiles.incrementAndGet();
+					} catch (NoSuchFileException e) {
+						Logger.log("   could not find the file " + stored.toString());
+						missingFiles.incrementAndGet();
+					} catch (FileAlreadyExistsException e) {
+						// already linked, or copied in this backup
+					} catch (IOException e) {
+						failure.compareAndSet(null, e);
+					} catch (UnsupportedOperationException e) {
+						failure.compareAndSet(null, new IOException("hard links are not supported", e));
+					}
+				}
+			});
+		}
+
+		for (AFileOrAFolder aFileOrAFolder : folder.getFileOrFolderList()) {
+			if (aFileOrAFolder instanceof AFolder) {
+				linkFolder((AFolder)aFileOrAFolder, relativePath.resolve(aFileOrAFolder.getName()), backupFolderPath, destinationFolderPath, backupfoldername, executorService, linkedFiles, missingFiles, createdFolders, failure);
+			}
+		}
+
+	}
+
+}